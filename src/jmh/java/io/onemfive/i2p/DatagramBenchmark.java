@@ -0,0 +1,60 @@
+package io.onemfive.i2p;
+
+import net.i2p.client.I2PSession;
+import net.i2p.client.datagram.I2PDatagramDissector;
+import net.i2p.client.datagram.I2PDatagramMaker;
+import net.i2p.crypto.SigType;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of building and signing a repliable datagram, and of dissecting and verifying one, per signature type.
+ *
+ * @author objectorange
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DatagramBenchmark {
+
+    @Param({"EdDSA_SHA512_Ed25519", "ECDSA_SHA256_P256", "ECDSA_SHA512_P521", "DSA_SHA1"})
+    public String sigType;
+
+    @Param({"1024", "31500"})
+    public int payloadSize;
+
+    private LoopbackNetwork network;
+    private I2PDatagramMaker maker;
+    private byte[] payload;
+    private byte[] datagram;
+
+    @Setup
+    public void setUp() throws Exception {
+        network = new LoopbackNetwork(SigType.valueOf(sigType), 1);
+        I2PSession session = network.newSession();
+        maker = new I2PDatagramMaker(session);
+        payload = new byte[payloadSize];
+        new Random(1).nextBytes(payload);
+        datagram = maker.makeI2PDatagram(payload);
+    }
+
+    @TearDown
+    public void tearDown() {
+        network.shutdown();
+    }
+
+    @Benchmark
+    public byte[] makeAndSign() {
+        return maker.makeI2PDatagram(payload);
+    }
+
+    @Benchmark
+    public byte[] dissectAndVerify() throws Exception {
+        I2PDatagramDissector dissector = new I2PDatagramDissector();
+        dissector.loadI2PDatagram(datagram);
+        // Verifies the signature
+        return dissector.getPayload();
+    }
+}
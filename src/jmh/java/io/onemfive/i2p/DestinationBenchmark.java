@@ -0,0 +1,59 @@
+package io.onemfive.i2p;
+
+import net.i2p.crypto.SigType;
+import net.i2p.data.Destination;
+import net.i2p.data.Hash;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing base64 destinations and hashing them, directly and through the {@link DestinationCache}.
+ *
+ * @author objectorange
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DestinationBenchmark {
+
+    private LoopbackNetwork network;
+    private String base64;
+    private Destination destination;
+    private DestinationCache cache;
+
+    @Setup
+    public void setUp() throws Exception {
+        network = new LoopbackNetwork(SigType.EdDSA_SHA512_Ed25519, 1);
+        destination = network.newSession().getMyDestination();
+        base64 = destination.toBase64();
+        cache = new DestinationCache(4096, 10 * 60 * 1000L, 30 * 1000L);
+        cache.put(destination);
+    }
+
+    @TearDown
+    public void tearDown() {
+        network.shutdown();
+    }
+
+    @Benchmark
+    public Destination parseBase64() throws Exception {
+        return new Destination(base64);
+    }
+
+    @Benchmark
+    public Hash parseAndHash() throws Exception {
+        return new Destination(base64).calculateHash();
+    }
+
+    @Benchmark
+    public String toBase64() throws Exception {
+        // A fresh instance as Destination caches its encoding
+        return new Destination(base64).toBase64();
+    }
+
+    @Benchmark
+    public Destination cachedLookup() throws Exception {
+        return cache.lookup(null, base64);
+    }
+}
@@ -0,0 +1,55 @@
+package io.onemfive.i2p;
+
+import io.onemfive.core.notification.NotificationService;
+import io.onemfive.data.*;
+import io.onemfive.data.util.DLC;
+import io.onemfive.sensors.SensorRequest;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Envelope to datagram payload as in {@link I2PSensor#send(Envelope)}, and payload to Envelope
+ * as in the receive path, for text content.
+ *
+ * @author objectorange
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PayloadBenchmark {
+
+    @Param({"64", "1024", "31500"})
+    public int contentSize;
+
+    private Envelope envelope;
+    private byte[] payload;
+
+    @Setup
+    public void setUp() {
+        char[] text = new char[contentSize];
+        Arrays.fill(text, 'a');
+        envelope = Envelope.documentFactory();
+        SensorRequest request = new SensorRequest();
+        request.content = new String(text);
+        DLC.addData(SensorRequest.class, request, envelope);
+        payload = Payloads.encode(request.content);
+    }
+
+    @Benchmark
+    public byte[] envelopeToPayload() {
+        SensorRequest request = (SensorRequest) DLC.getData(SensorRequest.class, envelope);
+        return Payloads.encode(request.content);
+    }
+
+    @Benchmark
+    public Envelope payloadToEnvelope() {
+        Object content = Payloads.decode(payload, 0, payload.length);
+        Envelope e = Envelope.eventFactory(EventMessage.Type.TEXT);
+        EventMessage m = (EventMessage) e.getMessage();
+        m.setMessage(content);
+        DLC.addRoute(NotificationService.class, NotificationService.OPERATION_PUBLISH, e);
+        return e;
+    }
+}
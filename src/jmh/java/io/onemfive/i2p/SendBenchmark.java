@@ -0,0 +1,83 @@
+package io.onemfive.i2p;
+
+import io.onemfive.data.DID;
+import io.onemfive.data.Envelope;
+import io.onemfive.data.NetworkPeer;
+import io.onemfive.data.util.DLC;
+import io.onemfive.sensors.SensorRequest;
+import net.i2p.client.I2PSession;
+import net.i2p.crypto.SigType;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * The full {@link I2PSensor#send(Envelope)} path, from the SensorRequest to the session,
+ * against a {@link LoopbackNetwork} session whose recipient discards messages.
+ *
+ * @author objectorange
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class SendBenchmark {
+
+    @Param({"EdDSA_SHA512_Ed25519", "ECDSA_SHA256_P256", "DSA_SHA1"})
+    public String sigType;
+
+    @Param({"1024", "31500"})
+    public int contentSize;
+
+    // Held so the level is not lost when the logger is collected
+    private final Logger sensorLog = Logger.getLogger("io.onemfive.i2p");
+    private LoopbackNetwork network;
+    private I2PSensor sensor;
+    private String content;
+    private String recipient;
+
+    @Setup
+    public void setUp() throws Exception {
+        // Per-message INFO logging would dominate
+        sensorLog.setLevel(java.util.logging.Level.WARNING);
+        network = new LoopbackNetwork(SigType.valueOf(sigType), 1);
+        sensor = new I2PSensor();
+        sensor.attach(new Properties(), network.newSession());
+        // Never attached to a sensor so messages to it are dropped on arrival
+        I2PSession sink = network.newSession();
+        recipient = sink.getMyDestination().toBase64();
+        char[] text = new char[contentSize];
+        Arrays.fill(text, 'a');
+        content = new String(text);
+    }
+
+    @TearDown
+    public void tearDown() {
+        sensor.shutdown();
+        network.shutdown();
+    }
+
+    @State(Scope.Thread)
+    public static class Request {
+        Envelope envelope;
+
+        @Setup(Level.Invocation)
+        public void setUp(SendBenchmark b) {
+            envelope = Envelope.documentFactory();
+            SensorRequest request = new SensorRequest();
+            NetworkPeer to = new NetworkPeer(NetworkPeer.Network.I2P.name());
+            to.setAddress(b.recipient);
+            request.to = new DID();
+            request.to.addPeer(to);
+            request.content = b.content;
+            DLC.addData(SensorRequest.class, request, envelope);
+        }
+    }
+
+    @Benchmark
+    public boolean send(Request r) {
+        return sensor.send(r.envelope);
+    }
+}
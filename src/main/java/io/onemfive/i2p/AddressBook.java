@@ -0,0 +1,234 @@
+package io.onemfive.i2p;
+
+import net.i2p.data.Base32;
+import net.i2p.data.Base64;
+import net.i2p.data.DataFormatException;
+import net.i2p.data.Destination;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Local resolution of .i2p host names and b32 addresses without a router lookup.
+ *
+ * Loaded from the bundled hosts.txt then hosts.txt, userhosts.txt and privatehosts.txt in the
+ * i2p base directory, each overriding the ones before it. Entries are indexed by name and by b32
+ * address and hold the destination's bytes; the Destination is only decoded on first lookup.
+ * Names sharing a destination share its entry, which stays indexed by b32 until no name refers to it.
+ * Lookups don't lock; changes are serialized.
+ *
+ * Subscription updates in hosts.txt format add names in place; as with the I2P address book
+ * they never replace a name that is already known.
+ *
+ * @author objectorange
+ */
+public class AddressBook {
+
+    private static final Logger LOG = Logger.getLogger(AddressBook.class.getName());
+
+    public static final String BUNDLED_HOSTS = "io/onemfive/i2p/network/hosts.txt";
+    // In increasing order of precedence
+    public static final String[] LOCAL_HOSTS = {"hosts.txt", "userhosts.txt", "privatehosts.txt"};
+
+    private static final String B32_SUFFIX = ".b32.i2p";
+
+    private final ConcurrentMap<String, Entry> names = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Entry> b32s = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Load the bundled hosts followed by any local host files in the directory.
+     * @param dir i2p base directory; may be null
+     */
+    public static AddressBook load(File dir) {
+        AddressBook book = new AddressBook();
+        InputStream in = AddressBook.class.getClassLoader().getResourceAsStream(BUNDLED_HOSTS);
+        if(in != null) {
+            try (Reader r = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+                book.read(r, true);
+            } catch (IOException e) {
+                LOG.warning("Unable to read bundled hosts: "+e.getLocalizedMessage());
+            }
+        }
+        if(dir != null) {
+            for(String name : LOCAL_HOSTS) {
+                File f = new File(dir, name);
+                if(!f.isFile())
+                    continue;
+                try (Reader r = new InputStreamReader(new FileInputStream(f), StandardCharsets.UTF_8)) {
+                    LOG.info("Loaded "+book.read(r, true)+" hosts from "+f);
+                } catch (IOException e) {
+                    LOG.warning("Unable to read "+f+": "+e.getLocalizedMessage());
+                }
+            }
+        }
+        return book;
+    }
+
+    /**
+     * Apply a subscription feed in hosts.txt format; names already known are kept.
+     * @return number of names added
+     */
+    public int update(Reader feed) throws IOException {
+        return read(feed, false);
+    }
+
+    /**
+     * @param name host name, e.g. example.i2p, or b32 address; case insensitive
+     * @return the destination or null if unknown
+     */
+    public Destination lookup(String name) {
+        String key = name.toLowerCase(Locale.US);
+        Entry e = key.endsWith(B32_SUFFIX) ? b32s.get(key) : names.get(key);
+        if(e == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        Destination d = e.destination;
+        if(d == null) {
+            try {
+                d = new Destination();
+                d.fromByteArray(e.bytes);
+                // Benign race; every thread decodes the same value
+                e.destination = d;
+            } catch (DataFormatException ex) {
+                LOG.warning("Invalid destination for "+name+" in address book: "+ex.getLocalizedMessage());
+                drop(key, e);
+                misses.incrementAndGet();
+                return null;
+            }
+        }
+        hits.incrementAndGet();
+        return d;
+    }
+
+    /**
+     * Add or, if override, replace a name.
+     * @param base64 base64 destination
+     * @return true if added or replaced
+     */
+    public boolean put(String name, String base64, boolean override) {
+        name = name.toLowerCase(Locale.US);
+        if(!name.endsWith(".i2p") || name.endsWith(B32_SUFFIX))
+            return false;
+        byte[] bytes = Base64.decode(base64);
+        if(bytes == null)
+            return false;
+        String b32 = b32(bytes);
+        synchronized (this) {
+            Entry existing = names.get(name);
+            if(existing != null) {
+                if(!override)
+                    return false;
+                if(existing.b32.equals(b32))
+                    return true;
+            }
+            Entry e = b32s.get(b32);
+            if(e == null) {
+                e = new Entry(bytes, b32);
+                b32s.put(b32, e);
+            }
+            e.refs++;
+            names.put(name, e);
+            if(existing != null)
+                release(existing);
+            return true;
+        }
+    }
+
+    public synchronized boolean remove(String name) {
+        Entry e = names.remove(name.toLowerCase(Locale.US));
+        if(e == null)
+            return false;
+        release(e);
+        return true;
+    }
+
+    /**
+     * @return names and b32 addresses indexed
+     */
+    public int size() {
+        return names.size() + b32s.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * A name no longer refers to the entry; drops its b32 once no name does.
+     */
+    private void release(Entry e) {
+        if(--e.refs == 0)
+            b32s.remove(e.b32, e);
+    }
+
+    /**
+     * Drop a name or b32 address whose destination failed to decode.
+     */
+    private synchronized void drop(String key, Entry e) {
+        if(key.endsWith(B32_SUFFIX))
+            b32s.remove(key, e);
+        else if(names.remove(key, e))
+            release(e);
+    }
+
+    @Override
+    public String toString() {
+        return "AddressBook[size="+size()+", hits="+hits.get()+", misses="+misses.get()+"]";
+    }
+
+    /**
+     * Lines of name=base64, optionally followed by #! properties as in subscription feeds; # starts a comment.
+     */
+    private int read(Reader reader, boolean override) throws IOException {
+        BufferedReader r = new BufferedReader(reader);
+        int added = 0;
+        String line;
+        while((line = r.readLine()) != null) {
+            int comment = line.indexOf('#');
+            if(comment >= 0)
+                line = line.substring(0, comment);
+            int eq = line.indexOf('=');
+            if(eq <= 0)
+                continue;
+            if(put(line.substring(0, eq).trim(), line.substring(eq + 1).trim(), override))
+                added++;
+        }
+        return added;
+    }
+
+    static String b32(byte[] destination) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(destination);
+            return Base32.encode(hash) + B32_SUFFIX;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class Entry {
+        private final byte[] bytes;
+        private final String b32;
+        private volatile Destination destination;
+        // Names referring to the entry; guarded by the AddressBook
+        private int refs = 0;
+
+        private Entry(byte[] bytes, String b32) {
+            this.bytes = bytes;
+            this.b32 = b32;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package io.onemfive.i2p;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded pool of fixed-size byte arrays used to assemble outbound datagrams
+ * without allocating a new buffer per message.
+ *
+ * @author objectorange
+ */
+public class BufferPool {
+
+    private final int bufferSize;
+    private final int maxPooled;
+    private final ConcurrentLinkedQueue<byte[]> pool = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    public BufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @return a pooled buffer or a new one if the pool is empty; contents are undefined
+     */
+    public byte[] acquire() {
+        byte[] b = pool.poll();
+        if(b == null)
+            return new byte[bufferSize];
+        pooled.decrementAndGet();
+        return b;
+    }
+
+    /**
+     * Return a buffer obtained from {@link #acquire()}. Buffers beyond the pool bound are left to the GC.
+     */
+    public void release(byte[] b) {
+        if(b == null || b.length != bufferSize)
+            return;
+        if(pooled.incrementAndGet() <= maxPooled) {
+            pool.offer(b);
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+}
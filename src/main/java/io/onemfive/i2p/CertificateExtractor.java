@@ -0,0 +1,135 @@
+package io.onemfive.i2p;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+/**
+ * Extracts the bundled reseed and ssl certificates into the I2P base directory
+ * using the bundled manifest of SHA-256 hashes, writing only certificates that are
+ * missing or whose content differs.
+ *
+ * Regenerate resources/io/onemfive/i2p/certificates/manifest.txt whenever certificates are updated.
+ *
+ * @author objectorange
+ */
+public class CertificateExtractor {
+
+    private static final Logger LOG = Logger.getLogger(CertificateExtractor.class.getName());
+
+    public static final String CERTIFICATES_PATH = "io/onemfive/i2p/certificates/";
+    public static final String MANIFEST = CERTIFICATES_PATH + "manifest.txt";
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private final File certDir;
+    private int written = 0;
+    private int unchanged = 0;
+
+    /**
+     * @param certDir i2pBaseDir/certificates containing reseed and ssl directories
+     */
+    public CertificateExtractor(File certDir) {
+        this.certDir = certDir;
+    }
+
+    /**
+     * @return the bundled manifest or null if none is on the classpath
+     */
+    public static Properties loadManifest() {
+        InputStream in = CertificateExtractor.class.getClassLoader().getResourceAsStream(MANIFEST);
+        if(in == null)
+            return null;
+        Properties manifest = new Properties();
+        try {
+            manifest.load(in);
+            return manifest;
+        } catch (IOException e) {
+            LOG.warning("Unable to read certificate manifest: "+e.getLocalizedMessage());
+            return null;
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * @return true if every certificate in the manifest is present with the expected hash
+     */
+    public boolean extract(Properties manifest) {
+        long start = System.currentTimeMillis();
+        for(Map.Entry<Object, Object> entry : manifest.entrySet()) {
+            String path = (String)entry.getKey();
+            String expected = ((String)entry.getValue()).trim().toLowerCase();
+            File target = new File(certDir, path);
+            try {
+                if(target.isFile() && expected.equals(sha256(target))) {
+                    unchanged++;
+                    continue;
+                }
+                if(!copy(CERTIFICATES_PATH + path, target)) {
+                    LOG.warning("Unable to save certificate from 1M5 jar and is required: " + path);
+                    return false;
+                }
+                written++;
+            } catch (IOException e) {
+                LOG.warning("Unable to extract certificate "+path+": "+e.getLocalizedMessage());
+                return false;
+            }
+        }
+        LOG.info("Certificates extracted in "+(System.currentTimeMillis() - start)+" ms: "+written+" written, "+unchanged+" unchanged.");
+        return true;
+    }
+
+    public int getWritten() {
+        return written;
+    }
+
+    public int getUnchanged() {
+        return unchanged;
+    }
+
+    private boolean copy(String resource, File target) throws IOException {
+        File parent = target.getParentFile();
+        if(!parent.exists() && !parent.mkdirs())
+            return false;
+        try (InputStream in = CertificateExtractor.class.getClassLoader().getResourceAsStream(resource)) {
+            if(in == null)
+                return false;
+            // Write to a temp file first so a partial write never replaces a good certificate
+            File tmp = new File(parent, target.getName() + ".tmp");
+            Files.copy(new BufferedInputStream(in, BUFFER_SIZE), tmp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        }
+    }
+
+    static String sha256(File f) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = new FileInputStream(f)) {
+            int read;
+            while((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        StringBuilder sb = new StringBuilder(64);
+        for(byte b : digest.digest()) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,101 @@
+package io.onemfive.i2p;
+
+import net.i2p.data.DataFormatException;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Splits payloads too large for a single I2P datagram into numbered fragments
+ * and reads the fragment header back out on receipt.
+ *
+ * Fragment layout: version (1) | message id (4) | index (2) | count (2) | data
+ *
+ * @author objectorange
+ */
+public class DatagramFragmenter {
+
+    public static final int VERSION = 1;
+    public static final int HEADER_LENGTH = 9;
+    public static final int MAX_FRAGMENTS = 0xFFFF;
+
+    private final int maxFragmentData;
+    private final AtomicInteger messageIds = new AtomicInteger(new SecureRandom().nextInt());
+
+    /**
+     * @param maxDatagramPayload largest payload to place in a single datagram, header included
+     */
+    public DatagramFragmenter(int maxDatagramPayload) {
+        if(maxDatagramPayload <= HEADER_LENGTH)
+            throw new IllegalArgumentException("Datagram payload must be larger than the fragment header.");
+        this.maxFragmentData = maxDatagramPayload - HEADER_LENGTH;
+    }
+
+    /**
+     * @return number of fragments needed to carry a payload of the supplied length
+     */
+    public int fragmentCount(int payloadLength) {
+        return Math.max(1, (payloadLength + maxFragmentData - 1) / maxFragmentData);
+    }
+
+    /**
+     * Split the payload into fragments sharing a freshly assigned message id.
+     */
+    public byte[][] fragment(byte[] payload) {
+        int count = fragmentCount(payload.length);
+        if(count > MAX_FRAGMENTS)
+            throw new IllegalArgumentException("Payload of "+payload.length+" bytes needs more than "+MAX_FRAGMENTS+" fragments.");
+        int messageId = messageIds.incrementAndGet();
+        byte[][] fragments = new byte[count][];
+        for(int i=0; i<count; i++) {
+            int offset = i * maxFragmentData;
+            int length = Math.min(maxFragmentData, payload.length - offset);
+            byte[] fragment = new byte[HEADER_LENGTH + length];
+            fragment[0] = (byte)VERSION;
+            writeInt(fragment, 1, messageId);
+            writeShort(fragment, 5, i);
+            writeShort(fragment, 7, count);
+            System.arraycopy(payload, offset, fragment, HEADER_LENGTH, length);
+            fragments[i] = fragment;
+        }
+        return fragments;
+    }
+
+    public static int messageId(byte[] fragment) throws DataFormatException {
+        checkHeader(fragment);
+        return ((fragment[1] & 0xFF) << 24) | ((fragment[2] & 0xFF) << 16) | ((fragment[3] & 0xFF) << 8) | (fragment[4] & 0xFF);
+    }
+
+    public static int index(byte[] fragment) throws DataFormatException {
+        checkHeader(fragment);
+        return readShort(fragment, 5);
+    }
+
+    public static int count(byte[] fragment) throws DataFormatException {
+        checkHeader(fragment);
+        return readShort(fragment, 7);
+    }
+
+    private static void checkHeader(byte[] fragment) throws DataFormatException {
+        if(fragment == null || fragment.length < HEADER_LENGTH)
+            throw new DataFormatException("Fragment shorter than header.");
+        if(fragment[0] != VERSION)
+            throw new DataFormatException("Unsupported fragment version: "+fragment[0]);
+    }
+
+    private static void writeInt(byte[] b, int offset, int value) {
+        b[offset] = (byte)(value >>> 24);
+        b[offset+1] = (byte)(value >>> 16);
+        b[offset+2] = (byte)(value >>> 8);
+        b[offset+3] = (byte)value;
+    }
+
+    private static void writeShort(byte[] b, int offset, int value) {
+        b[offset] = (byte)(value >>> 8);
+        b[offset+1] = (byte)value;
+    }
+
+    private static int readShort(byte[] b, int offset) {
+        return ((b[offset] & 0xFF) << 8) | (b[offset+1] & 0xFF);
+    }
+}
@@ -0,0 +1,187 @@
+package io.onemfive.i2p;
+
+import net.i2p.client.I2PSession;
+import net.i2p.client.datagram.I2PDatagramDissector;
+import net.i2p.data.Destination;
+import net.i2p.data.Hash;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Verifies signed repliable datagrams, spreading a batch across a fork-join pool.
+ *
+ * Dissectors are reused per thread. Verified senders are interned by hash so
+ * repeat senders share one Destination instance and its cached base64 and hash.
+ *
+ * @author objectorange
+ */
+public class DatagramVerifier {
+
+    // Smallest slice of a batch verified on a single thread
+    private static final int SPLIT_THRESHOLD = 2;
+
+    private final ForkJoinPool pool;
+    private final int maxSenders;
+    private final Map<Hash, Destination> senders;
+
+    private final ThreadLocal<I2PDatagramDissector> dissectors = new ThreadLocal<I2PDatagramDissector>() {
+        @Override
+        protected I2PDatagramDissector initialValue() {
+            return new I2PDatagramDissector();
+        }
+    };
+
+    private final AtomicLong verified = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong verifyNanos = new AtomicLong();
+    private long lastReportAt = System.currentTimeMillis();
+    private long lastReportCount = 0L;
+
+    public DatagramVerifier(int parallelism, final int maxSenders) {
+        this.pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+        this.maxSenders = maxSenders;
+        this.senders = new LinkedHashMap<Hash, Destination>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Hash, Destination> eldest) {
+                return size() > DatagramVerifier.this.maxSenders;
+            }
+        };
+    }
+
+    /**
+     * Verify every signed datagram in the batch, in parallel when a pool is configured.
+     */
+    public void verify(List<InboundDatagram> batch) {
+        if(pool == null || batch.size() < 2 * SPLIT_THRESHOLD) {
+            for(InboundDatagram d : batch) {
+                verify(d);
+            }
+        } else {
+            pool.invoke(new VerifyTask(batch, 0, batch.size()));
+        }
+    }
+
+    /**
+     * Verify a single datagram on the calling thread.
+     * Raw datagrams and already verified datagrams are left untouched.
+     */
+    public void verify(InboundDatagram d) {
+        if(d.verified || !isSigned(d))
+            return;
+        long start = System.nanoTime();
+        try {
+            I2PDatagramDissector dissector = dissectors.get();
+            dissector.loadI2PDatagram(d.msg);
+            d.payload = dissector.getPayload();
+            d.sender = intern(dissector.getSender());
+            d.verified = true;
+            verified.incrementAndGet();
+        } catch (Exception e) {
+            d.error = e;
+            failed.incrementAndGet();
+        } finally {
+            verifyNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    public static boolean isSigned(InboundDatagram d) {
+        return !(d.proto == I2PSession.PROTO_DATAGRAM_RAW && d.toPort == I2PSensor.RAW_PORT);
+    }
+
+    private Destination intern(Destination sender) {
+        Hash hash = sender.calculateHash();
+        synchronized (senders) {
+            Destination known = senders.get(hash);
+            if(known != null)
+                return known;
+            senders.put(hash, sender);
+            return sender;
+        }
+    }
+
+    public long getVerified() {
+        return verified.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * @return mean time spent verifying one datagram in microseconds
+     */
+    public double getMeanVerifyMicros() {
+        long count = verified.get() + failed.get();
+        return count == 0 ? 0 : verifyNanos.get() / 1000.0 / count;
+    }
+
+    /**
+     * @return datagrams verified per second since the previous call
+     */
+    public synchronized double getVerifiedPerSecondSinceLastReport() {
+        long now = System.currentTimeMillis();
+        long count = verified.get() + failed.get();
+        double rate = now == lastReportAt ? 0 : (count - lastReportCount) * 1000.0 / (now - lastReportAt);
+        lastReportAt = now;
+        lastReportCount = count;
+        return rate;
+    }
+
+    public void shutdown() {
+        if(pool != null)
+            pool.shutdownNow();
+    }
+
+    /**
+     * Register the datagrams verified and failed as gauges named verifier.*.
+     */
+    public void registerGauges(SensorMetrics metrics) {
+        metrics.registerGauge("verifier.verified", new SensorMetrics.Gauge() {
+            @Override
+            public long value() {
+                return getVerified();
+            }
+        });
+        metrics.registerGauge("verifier.failed", new SensorMetrics.Gauge() {
+            @Override
+            public long value() {
+                return getFailed();
+            }
+        });
+    }
+
+    @Override
+    public String toString() {
+        return "DatagramVerifier[parallelism="+(pool == null ? 1 : pool.getParallelism())+", verified="+verified.get()
+                +", failed="+failed.get()+", meanVerifyMicros="+String.format("%.1f", getMeanVerifyMicros())+"]";
+    }
+
+    private class VerifyTask extends RecursiveAction {
+        private final List<InboundDatagram> batch;
+        private final int from;
+        private final int to;
+
+        private VerifyTask(List<InboundDatagram> batch, int from, int to) {
+            this.batch = batch;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if(to - from <= SPLIT_THRESHOLD) {
+                for(int i=from; i<to; i++) {
+                    verify(batch.get(i));
+                }
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new VerifyTask(batch, from, mid), new VerifyTask(batch, mid, to));
+            }
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package io.onemfive.i2p;
+
+import net.i2p.client.I2PSession;
+import net.i2p.client.I2PSessionException;
+import net.i2p.data.DataFormatException;
+import net.i2p.data.Destination;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Bounded cache of resolved I2P Destinations sitting in front of
+ * {@link I2PSession#lookupDest(String)}.
+ *
+ * Entries are indexed by the address they were requested with as well as
+ * by the destination's base64, b32 and base64 hash forms. The capacity counts
+ * destinations, not addresses: the least recently used destination is evicted
+ * together with all of its addresses. Entries expire after a TTL; failed lookups
+ * are remembered for a shorter negative TTL, each counting as one entry.
+ * Fully-qualified base64 destinations are parsed locally without asking the router,
+ * as are host names and b32 addresses in the {@link AddressBook} if one is set.
+ *
+ * @author objectorange
+ */
+public class DestinationCache {
+
+    private static final Logger LOG = Logger.getLogger(DestinationCache.class.getName());
+
+    // A base64 destination is at least 387 bytes, i.e. 516 characters
+    private static final int MIN_BASE64_DESTINATION_LENGTH = 516;
+
+    private final int maxEntries;
+    private final long ttlMs;
+    private final long negativeTtlMs;
+
+    // Every address resolves to the entry of its destination
+    private final Map<String, CachedDestination> addresses = new HashMap<>();
+    // One key per destination or failed lookup, access ordered for LRU eviction; guards both maps
+    private final LinkedHashMap<CachedDestination, Boolean> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong negativeHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong localParses = new AtomicLong();
+    private final AtomicLong addressBookHits = new AtomicLong();
+
+    private volatile AddressBook addressBook;
+
+    /**
+     * @param maxEntries maximum number of destinations and failed lookups held
+     */
+    public DestinationCache(int maxEntries, long ttlMs, long negativeTtlMs) {
+        this.maxEntries = maxEntries;
+        this.ttlMs = ttlMs;
+        this.negativeTtlMs = negativeTtlMs;
+    }
+
+    /**
+     * Resolve the address to a Destination, consulting the address book first
+     * for names and b32 addresses, then the cache,
+     * then parsing it locally if it is a full base64 destination,
+     * and finally asking the router.
+     *
+     * @param session session used for router lookups on a miss
+     * @param address base64 destination, b32 address, base64 hash or host name
+     * @return Destination or null if not found
+     */
+    public Destination lookup(I2PSession session, String address) throws I2PSessionException {
+        // Names in the address book skip the cache, which would only duplicate them
+        AddressBook book = addressBook;
+        if(book != null && address.endsWith(".i2p")) {
+            Destination destination = book.lookup(address);
+            if(destination != null) {
+                addressBookHits.incrementAndGet();
+                return destination;
+            }
+        }
+        long now = System.currentTimeMillis();
+        CachedDestination entry = get(address, now);
+        if(entry != null) {
+            if(entry.destination == null) {
+                negativeHits.incrementAndGet();
+            } else {
+                hits.incrementAndGet();
+            }
+            return entry.destination;
+        }
+        misses.incrementAndGet();
+
+        if(address.length() >= MIN_BASE64_DESTINATION_LENGTH && !address.endsWith(".i2p")) {
+            try {
+                Destination destination = new Destination(address);
+                localParses.incrementAndGet();
+                put(address, destination);
+                return destination;
+            } catch (DataFormatException e) {
+                LOG.fine("Address not a base64 destination; falling back to router lookup: "+e.getLocalizedMessage());
+            }
+        }
+
+        Destination destination = session.lookupDest(address);
+        if(destination == null) {
+            synchronized (entries) {
+                CachedDestination negative = new CachedDestination(null, now + negativeTtlMs);
+                alias(address, negative);
+                entries.put(negative, Boolean.TRUE);
+                evict();
+            }
+        } else {
+            put(address, destination);
+        }
+        return destination;
+    }
+
+    /**
+     * Cache a known Destination, e.g. the verified sender of an inbound datagram.
+     */
+    public void put(Destination destination) {
+        put(null, destination);
+    }
+
+    private void put(String address, Destination destination) {
+        long expiresAt = System.currentTimeMillis() + ttlMs;
+        String hash = destination.calculateHash().toBase64();
+        String base64 = destination.toBase64();
+        String b32 = destination.toBase32();
+        synchronized (entries) {
+            // Refresh the destination's entry if it is already cached under any address
+            CachedDestination entry = addresses.get(hash);
+            if(entry == null || entry.destination == null) {
+                entry = new CachedDestination(destination, expiresAt);
+            } else {
+                entry.expiresAt = expiresAt;
+            }
+            if(address != null)
+                alias(address, entry);
+            alias(base64, entry);
+            alias(b32, entry);
+            alias(hash, entry);
+            entries.put(entry, Boolean.TRUE);
+            evict();
+        }
+    }
+
+    private CachedDestination get(String address, long now) {
+        synchronized (entries) {
+            CachedDestination entry = addresses.get(address);
+            if(entry == null)
+                return null;
+            if(entry.expiresAt < now) {
+                remove(entry);
+                return null;
+            }
+            // Touch for LRU
+            entries.get(entry);
+            return entry;
+        }
+    }
+
+    /**
+     * Point the address at the entry, dropping the entry it previously resolved to once no address does.
+     * Called holding entries.
+     */
+    private void alias(String address, CachedDestination entry) {
+        CachedDestination previous = addresses.put(address, entry);
+        if(previous == entry)
+            return;
+        entry.addresses.add(address);
+        if(previous != null) {
+            previous.addresses.remove(address);
+            if(previous.addresses.isEmpty())
+                entries.remove(previous);
+        }
+    }
+
+    /**
+     * Remove the entry along with every address resolving to it. Called holding entries.
+     */
+    private void remove(CachedDestination entry) {
+        for(String address : entry.addresses) {
+            if(addresses.get(address) == entry)
+                addresses.remove(address);
+        }
+        entries.remove(entry);
+    }
+
+    /**
+     * Called holding entries.
+     */
+    private void evict() {
+        while(entries.size() > maxEntries) {
+            remove(entries.keySet().iterator().next());
+        }
+    }
+
+    /**
+     * @param max maximum number of destinations to return
+     * @return distinct unexpired destinations, most recently used first
+     */
+    public List<Destination> recentDestinations(int max) {
+        long now = System.currentTimeMillis();
+        List<CachedDestination> ordered;
+        synchronized (entries) {
+            ordered = new ArrayList<>(entries.keySet());
+        }
+        List<Destination> recent = new ArrayList<>();
+        for(int i=ordered.size()-1; i>=0 && recent.size()<max; i--) {
+            CachedDestination entry = ordered.get(i);
+            if(entry.destination != null && entry.expiresAt >= now)
+                recent.add(entry.destination);
+        }
+        return recent;
+    }
+
+    /**
+     * Forget the destination the address resolves to under all of its addresses.
+     */
+    public void invalidate(String address) {
+        synchronized (entries) {
+            CachedDestination entry = addresses.get(address);
+            if(entry != null)
+                remove(entry);
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            addresses.clear();
+            entries.clear();
+        }
+    }
+
+    /**
+     * @return destinations and failed lookups held
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getNegativeHits() {
+        return negativeHits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getLocalParses() {
+        return localParses.get();
+    }
+
+    public long getAddressBookHits() {
+        return addressBookHits.get();
+    }
+
+    /**
+     * @param addressBook consulted before the cache for .i2p names; null to stop using one
+     */
+    public void setAddressBook(AddressBook addressBook) {
+        this.addressBook = addressBook;
+    }
+
+    /**
+     * Register the cache hits and misses as gauges named destCache.*.
+     */
+    public void registerGauges(SensorMetrics metrics) {
+        metrics.registerGauge("destCache.hits", new SensorMetrics.Gauge() {
+            @Override
+            public long value() {
+                return getHits();
+            }
+        });
+        metrics.registerGauge("destCache.addressBookHits", new SensorMetrics.Gauge() {
+            @Override
+            public long value() {
+                return getAddressBookHits();
+            }
+        });
+        metrics.registerGauge("destCache.misses", new SensorMetrics.Gauge() {
+            @Override
+            public long value() {
+                return getMisses();
+            }
+        });
+    }
+
+    @Override
+    public String toString() {
+        return "DestinationCache[size="+size()+", hits="+hits.get()+", negativeHits="+negativeHits.get()
+                +", misses="+misses.get()+", localParses="+localParses.get()+", addressBookHits="+addressBookHits.get()+"]";
+    }
+
+    /**
+     * Identity keyed in the LRU map.
+     */
+    private static class CachedDestination {
+        private final Destination destination;
+        private final List<String> addresses = new ArrayList<>(4);
+        // Guarded by the cache's entries
+        private long expiresAt;
+
+        private CachedDestination(Destination destination, long expiresAt) {
+            this.destination = destination;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package io.onemfive.i2p;
+
+import net.i2p.I2PException;
+import net.i2p.client.I2PClientFactory;
+import net.i2p.crypto.EncType;
+import net.i2p.crypto.SigType;
+import net.i2p.data.Base64;
+import net.i2p.data.DataFormatException;
+import net.i2p.data.Destination;
+import net.i2p.util.SecureFile;
+import net.i2p.util.SecureFileOutputStream;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+/**
+ * Destination private key files of the configured signature type.
+ *
+ * The signature type decides the cost of signing every outbound datagram and verifying every inbound one;
+ * EdDSA-SHA512-Ed25519 is the default for new keys as it is the cheapest of the types available.
+ * Existing key files are kept whatever their type unless 1m5.sensors.i2p.destination.sigType is set:
+ * a key file of another type is then migrated by backing it up as &lt;file&gt;.&lt;SIG_TYPE&gt;, numbered if
+ * that backup exists, and creating a new destination, which changes the address; set
+ * 1m5.sensors.i2p.destination.migrate=false to keep it. A key that can't be backed up is never replaced.
+ *
+ * @author objectorange
+ */
+public class DestinationKeys {
+
+    private static final Logger LOG = Logger.getLogger(DestinationKeys.class.getName());
+
+    public static final SigType DEFAULT_SIG_TYPE = SigType.EdDSA_SHA512_Ed25519;
+
+    private final SigType sigType;
+    private final boolean migrate;
+
+    public DestinationKeys(SigType sigType, boolean migrate) {
+        this.sigType = sigType;
+        this.migrate = migrate;
+    }
+
+    /**
+     * From 1m5.sensors.i2p.destination.sigType (name or code, e.g. EdDSA_SHA512_Ed25519 or 7)
+     * and 1m5.sensors.i2p.destination.migrate; existing keys are only migrated when the type is set.
+     */
+    public static DestinationKeys fromProperties(Properties p) {
+        String name = p.getProperty("1m5.sensors.i2p.destination.sigType");
+        SigType type = DEFAULT_SIG_TYPE;
+        if(name != null) {
+            type = SigType.parseSigType(name.trim());
+            if(type == null || !type.isAvailable()) {
+                LOG.warning("Destination signature type "+name+" unknown or unavailable; using "+DEFAULT_SIG_TYPE.name());
+                type = DEFAULT_SIG_TYPE;
+            }
+        }
+        boolean migrate = name != null && !"false".equals(p.getProperty("1m5.sensors.i2p.destination.migrate"));
+        return new DestinationKeys(type, migrate);
+    }
+
+    /**
+     * Lease set encryption types from 1m5.sensors.i2p.destination.encType, a comma separated list
+     * of names or codes in order of preference, as the i2cp.leaseSetEncType option.
+     * @return the option value or null to use the router's default
+     */
+    public static String leaseSetEncType(Properties p) {
+        String value = p.getProperty("1m5.sensors.i2p.destination.encType");
+        if(value == null || value.trim().isEmpty())
+            return null;
+        StringBuilder codes = new StringBuilder();
+        for(String name : value.split(",")) {
+            EncType type = EncType.parseEncType(name.trim());
+            if(type == null || !type.isAvailable()) {
+                LOG.warning("Encryption type "+name.trim()+" unknown or unavailable; ignoring.");
+                continue;
+            }
+            if(codes.length() > 0)
+                codes.append(",");
+            codes.append(type.getCode());
+        }
+        return codes.length() == 0 ? null : codes.toString();
+    }
+
+    public SigType getSigType() {
+        return sigType;
+    }
+
+    /**
+     * Read the private key file, creating it if missing, not a valid key or, when migrating, of another signature type.
+     * @return the private key file contents as read by I2PClient.createSession
+     * @throws IOException if the key file exists but can't be read or backed up; it is never replaced then
+     */
+    public byte[] loadOrCreate(File keyFile) throws I2PException, IOException {
+        if(keyFile.isFile()) {
+            byte[] key;
+            try {
+                key = Base64.decode(new String(Files.readAllBytes(keyFile.toPath()), StandardCharsets.US_ASCII).trim());
+            } catch (IOException e) {
+                throw new IOException("Unable to read destination key file "+keyFile+": "+e.getLocalizedMessage(), e);
+            }
+            SigType existing = key == null ? null : typeOf(key);
+            if(existing == sigType)
+                return key;
+            if(existing != null && !migrate) {
+                LOG.warning("Destination key "+keyFile.getName()+" is "+existing.name()+" rather than "+sigType.name()
+                        +"; keeping it as migration is disabled.");
+                return key;
+            }
+            File backup = backup(keyFile, existing == null ? "invalid" : existing.name());
+            if(existing != null)
+                LOG.warning("Migrating destination key "+keyFile.getName()+" from "+existing.name()+" to "+sigType.name()
+                        +"; the destination address will change. Previous key kept in "+backup.getName());
+        }
+        return create(keyFile);
+    }
+
+    /**
+     * Move the key file aside as &lt;file&gt;.&lt;suffix&gt;, or &lt;file&gt;.&lt;suffix&gt;.&lt;n&gt; if that is taken,
+     * never replacing an earlier backup.
+     * @return the backup
+     * @throws IOException if the key file couldn't be moved; it is left in place and not replaced
+     */
+    private File backup(File keyFile, String suffix) throws IOException {
+        String base = keyFile.getPath() + "." + suffix;
+        for(int n=0; ; n++) {
+            File backup = new File(n == 0 ? base : base + "." + n);
+            if(backup.exists())
+                continue;
+            try {
+                move(keyFile, backup);
+                return backup;
+            } catch (FileAlreadyExistsException e) {
+                // Taken since checking; try the next name
+            } catch (IOException e) {
+                throw new IOException("Cannot back up destination key file "+keyFile.getAbsolutePath()+" to "
+                        +backup.getAbsolutePath()+"; keeping it: "+e.getLocalizedMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Rename without replacing the target.
+     */
+    void move(File from, File to) throws IOException {
+        Files.move(from.toPath(), to.toPath());
+    }
+
+    /**
+     * @return signature type of the destination in the private key file contents, null if not a valid key
+     */
+    public static SigType typeOf(byte[] key) {
+        try {
+            Destination d = Destination.create(new ByteArrayInputStream(key));
+            return d == null || d.getSigningPublicKey() == null ? null : d.getSigningPublicKey().getType();
+        } catch (DataFormatException | IOException e) {
+            return null;
+        }
+    }
+
+    private byte[] create(File keyFile) throws I2PException, IOException {
+        LOG.info("Creating new "+sigType.name()+" destination key "+keyFile.getName());
+        ByteArrayOutputStream arrayStream = new ByteArrayOutputStream();
+        I2PClientFactory.createClient().createDestination(arrayStream, sigType);
+        byte[] key = arrayStream.toByteArray();
+        BufferedWriter fileWriter = new BufferedWriter(new OutputStreamWriter(new SecureFileOutputStream(new SecureFile(keyFile.getAbsolutePath()))));
+        try {
+            fileWriter.write(Base64.encode(key));
+        } finally {
+            fileWriter.close();
+        }
+        return key;
+    }
+}
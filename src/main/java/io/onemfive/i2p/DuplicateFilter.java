@@ -0,0 +1,210 @@
+package io.onemfive.i2p;
+
+import java.util.Arrays;
+
+/**
+ * Time-windowed suppression of datagrams received more than once, from tunnel duplication
+ * or a sender retrying, keyed by a 64-bit hash of the verified sender and the payload.
+ * Identical payloads from the same sender within the window are therefore treated as one,
+ * including ones the sender meant to deliver twice; the window should only cover the seconds
+ * over which tunnels duplicate messages.
+ *
+ * Keys are held in two generations of fixed-size open-addressing sets of longs; the current
+ * generation is retired every window, so a key is remembered for between one and two windows.
+ * A generation filling up is retired early, which keeps memory bounded under a flood at the
+ * cost of a shorter window. Exact keys rather than a Bloom filter mean no message is ever
+ * suppressed as a false positive short of a 64-bit hash collision from the same sender.
+ *
+ * @author objectorange
+ */
+public class DuplicateFilter {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    // Stands in for a key of 0, which marks an empty slot
+    private static final long ZERO_KEY = 1L;
+
+    private final long windowMs;
+    private final int maxEntries;
+    private long[] current;
+    private long[] previous;
+    private int currentSize = 0;
+    private int previousSize = 0;
+    // -1 until the first datagram
+    private long rotatedAt = -1L;
+
+    private long checked = 0L;
+    private long suppressed = 0L;
+    private long earlyRotations = 0L;
+    // Counts for the current and previous generations, for the suppression rate over the window
+    private long currentChecked = 0L;
+    private long currentSuppressed = 0L;
+    private long previousChecked = 0L;
+    private long previousSuppressed = 0L;
+
+    /**
+     * @param maxEntries keys held per generation
+     */
+    public DuplicateFilter(long windowMs, int maxEntries) {
+        this.windowMs = windowMs;
+        this.maxEntries = maxEntries;
+        // At most half full
+        int slots = Integer.highestOneBit(Math.max(2, maxEntries) * 2 - 1) << 1;
+        this.current = new long[slots];
+        this.previous = new long[slots];
+    }
+
+    /**
+     * Record the datagram and tell whether it was already seen within the window.
+     * @param sender sender's hash
+     */
+    public boolean isDuplicate(byte[] sender, byte[] payload, int offset, int length) {
+        return isDuplicate(key(sender, payload, offset, length), System.currentTimeMillis());
+    }
+
+    synchronized boolean isDuplicate(long key, long now) {
+        if(rotatedAt < 0)
+            rotatedAt = now;
+        if(now - rotatedAt >= windowMs) {
+            // After two idle windows the current generation is as stale as the previous
+            if(now - rotatedAt >= 2 * windowMs)
+                rotate(now);
+            rotate(now);
+        }
+        checked++;
+        currentChecked++;
+        if(contains(previous, key) || contains(current, key)) {
+            suppressed++;
+            currentSuppressed++;
+            return true;
+        }
+        if(currentSize >= maxEntries) {
+            earlyRotations++;
+            rotate(now);
+        }
+        add(current, key);
+        currentSize++;
+        return false;
+    }
+
+    private void rotate(long now) {
+        long[] retired = previous;
+        previous = current;
+        Arrays.fill(retired, 0L);
+        current = retired;
+        previousSize = currentSize;
+        currentSize = 0;
+        previousChecked = currentChecked;
+        previousSuppressed = currentSuppressed;
+        currentChecked = 0L;
+        currentSuppressed = 0L;
+        rotatedAt = now;
+    }
+
+    private static boolean contains(long[] set, long key) {
+        int mask = set.length - 1;
+        for(int i = index(key, mask); ; i = (i + 1) & mask) {
+            long k = set[i];
+            if(k == 0L)
+                return false;
+            if(k == key)
+                return true;
+        }
+    }
+
+    private static void add(long[] set, long key) {
+        int mask = set.length - 1;
+        int i = index(key, mask);
+        while(set[i] != 0L) {
+            i = (i + 1) & mask;
+        }
+        set[i] = key;
+    }
+
+    private static int index(long key, int mask) {
+        return (int)(key ^ (key >>> 32)) & mask;
+    }
+
+    /**
+     * FNV-1a over the sender's hash then the payload.
+     */
+    static long key(byte[] sender, byte[] payload, int offset, int length) {
+        long h = FNV_OFFSET;
+        for(byte b : sender) {
+            h = (h ^ (b & 0xff)) * FNV_PRIME;
+        }
+        for(int i = offset; i < offset + length; i++) {
+            h = (h ^ (payload[i] & 0xff)) * FNV_PRIME;
+        }
+        return h == 0L ? ZERO_KEY : h;
+    }
+
+    public synchronized long getChecked() {
+        return checked;
+    }
+
+    public synchronized long getSuppressed() {
+        return suppressed;
+    }
+
+    public synchronized long getEarlyRotations() {
+        return earlyRotations;
+    }
+
+    /**
+     * @return keys remembered across both generations
+     */
+    public synchronized int size() {
+        return currentSize + previousSize;
+    }
+
+    /**
+     * @return percentage of datagrams suppressed over the current and previous generations
+     */
+    public synchronized double getSuppressionPct() {
+        long c = currentChecked + previousChecked;
+        return c == 0 ? 0 : 100.0 * (currentSuppressed + previousSuppressed) / c;
+    }
+
+    /**
+     * Register the messages checked and suppressed and the entries held as gauges named dedupe.*.
+     */
+    public void registerGauges(SensorMetrics metrics) {
+        metrics.registerGauge("dedupe.checked", new SensorMetrics.Gauge() {
+            @Override
+            public long value() {
+                return getChecked();
+            }
+        });
+        metrics.registerGauge("dedupe.suppressed", new SensorMetrics.Gauge() {
+            @Override
+            public long value() {
+                return getSuppressed();
+            }
+        });
+        metrics.registerGauge("dedupe.suppressionPct", new SensorMetrics.Gauge() {
+            @Override
+            public long value() {
+                return Math.round(getSuppressionPct());
+            }
+        });
+        metrics.registerGauge("dedupe.entries", new SensorMetrics.Gauge() {
+            @Override
+            public long value() {
+                return size();
+            }
+        });
+        metrics.registerGauge("dedupe.earlyRotations", new SensorMetrics.Gauge() {
+            @Override
+            public long value() {
+                return getEarlyRotations();
+            }
+        });
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "DuplicateFilter[window="+windowMs+"ms, checked="+checked+", suppressed="+suppressed
+                +" ("+String.format("%.2f", getSuppressionPct())+"% recently), earlyRotations="+earlyRotations+"]";
+    }
+}
@@ -0,0 +1,503 @@
+package io.onemfive.i2p;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of outbound messages that could not be sent, kept in memory-mapped
+ * segment files so it survives a crash of the node.
+ *
+ * Each record holds the recipient's address and the payload bytes:
+ * <pre>length(4) | crc32(4) | seq(8) | addressLength(2) | address | payload</pre>
+ * where length and crc cover everything after the crc. A zero length marks the end of a segment.
+ *
+ * Records are replayed once connectivity returns: those to the same address one at a time in
+ * sequence order, different addresses concurrently up to the configured concurrency.
+ * A record that fails stays pending for the next replay together with the records behind it to
+ * the same address, without holding up other addresses; one the replayer rejects is retried up to
+ * the configured number of attempts, then appended to the dead letter file and acknowledged. Acknowledged sequence numbers advance
+ * a watermark persisted in the ack file; segments entirely below the watermark are deleted.
+ * Sequence numbers missing or corrupt when the segments are loaded are acknowledged, so they
+ * never hold the watermark back.
+ *
+ * @author objectorange
+ */
+public class DurableOutbox {
+
+    private static final Logger LOG = Logger.getLogger(DurableOutbox.class.getName());
+
+    /**
+     * Outcome of replaying a record.
+     */
+    public enum Outcome {
+        SENT,
+        // Failed for now, e.g. the network is unavailable; kept for the next replay
+        RETRY,
+        // Can't be delivered as it is, e.g. the address doesn't resolve
+        REJECTED
+    }
+
+    /**
+     * Sends a replayed record.
+     */
+    public interface Replayer {
+        Outcome replay(String address, byte[] payload);
+    }
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String ACK_FILE = "ack";
+    public static final String DEAD_LETTER_FILE = "dead-letter.log";
+    private static final int HEADER = 4 + 4;
+    private static final int RECORD_FIXED = 8 + 2;
+
+    private final File dir;
+    private final int segmentSize;
+    private final int maxAttempts;
+    private final boolean force;
+    private final Replayer replayer;
+    private final Semaphore permits;
+    private final ExecutorService replayers;
+    private final ExecutorService coordinator;
+    private final AtomicBoolean replaying = new AtomicBoolean(false);
+
+    // Guarded by this
+    private final List<Segment> segments = new ArrayList<>();
+    private final TreeMap<Long, Location> pending = new TreeMap<>();
+    private final TreeSet<Long> ackedAhead = new TreeSet<>();
+    private long nextSeq = 1;
+    private long watermark = 0;
+    private int inFlight = 0;
+    private MappedByteBuffer ackBuffer;
+
+    private final AtomicLong appended = new AtomicLong();
+    private final AtomicLong replayed = new AtomicLong();
+    private final AtomicLong deadLettered = new AtomicLong();
+
+    /**
+     * @param dir directory holding the segments, created if missing
+     * @param segmentSize bytes per segment file; a record must fit in one segment
+     * @param concurrency maximum addresses replayed at once
+     * @param maxAttempts replays a record may be rejected before it is dead lettered
+     * @param force flush each append to disk rather than leaving it to the OS
+     */
+    public DurableOutbox(File dir, int segmentSize, int concurrency, int maxAttempts, boolean force, Replayer replayer) {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.force = force;
+        this.replayer = replayer;
+        this.permits = new Semaphore(concurrency);
+        this.replayers = Executors.newFixedThreadPool(concurrency, new OutboundPipeline.NamedThreadFactory("I2PSensor-Outbox"));
+        this.coordinator = Executors.newSingleThreadExecutor(new OutboundPipeline.NamedThreadFactory("I2PSensor-OutboxReplay"));
+    }
+
+    /**
+     * Map the ack file and index every unacknowledged record in existing segments.
+     */
+    public synchronized void open() throws IOException {
+        if(!dir.exists() && !dir.mkdirs())
+            throw new IOException("Unable to create outbox directory "+dir);
+        try (RandomAccessFile raf = new RandomAccessFile(new File(dir, ACK_FILE), "rw")) {
+            ackBuffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, 8);
+        }
+        watermark = ackBuffer.getLong(0);
+        nextSeq = watermark + 1;
+        File[] files = dir.listFiles();
+        if(files != null) {
+            Arrays.sort(files);
+            for(File f : files) {
+                if(f.getName().startsWith(SEGMENT_PREFIX) && f.getName().endsWith(SEGMENT_SUFFIX))
+                    load(f);
+            }
+        }
+        // Acknowledge sequence numbers lost to corruption so the watermark can pass them
+        for(long seq = watermark + 1; seq < nextSeq; seq++) {
+            if(!pending.containsKey(seq))
+                ackedAhead.add(seq);
+        }
+        advance();
+        if(!pending.isEmpty())
+            LOG.info("Outbox opened with "+pending.size()+" messages awaiting replay.");
+    }
+
+    /**
+     * Durably record a message for later replay.
+     * @return the record's sequence number
+     */
+    public synchronized long append(String address, byte[] payload) throws IOException {
+        byte[] addr = address.getBytes(StandardCharsets.UTF_8);
+        int length = RECORD_FIXED + addr.length + payload.length;
+        if(HEADER + length + 4 > segmentSize)
+            throw new IOException("Message of "+payload.length+" bytes too large for outbox segment of "+segmentSize+" bytes.");
+        Segment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        // Leave room for the zero length end marker
+        if(segment == null || segment.position + HEADER + length + 4 > segmentSize)
+            segment = roll();
+        long seq = nextSeq++;
+        ByteBuffer body = ByteBuffer.allocate(length);
+        body.putLong(seq);
+        body.putShort((short)addr.length);
+        body.put(addr);
+        body.put(payload);
+        CRC32 crc = new CRC32();
+        crc.update(body.array());
+        MappedByteBuffer b = segment.buffer;
+        int start = segment.position;
+        b.position(start + HEADER);
+        b.put(body.array());
+        b.putInt(start + 4, (int)crc.getValue());
+        // Length last so a torn write reads as the end of the segment
+        b.putInt(start, length);
+        if(force)
+            b.force();
+        segment.position = start + HEADER + length;
+        segment.lastSeq = seq;
+        pending.put(seq, new Location(segment, start));
+        appended.incrementAndGet();
+        return seq;
+    }
+
+    /**
+     * Replay the records pending at the time of the call on the replay threads; returns immediately.
+     * Records that fail are kept for the next call unless dead lettered. Does nothing once closed.
+     */
+    public void replay() {
+        if(!replaying.compareAndSet(false, true))
+            return;
+        try {
+            coordinator.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        dispatch();
+                    } finally {
+                        replaying.set(false);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            replaying.set(false);
+        }
+    }
+
+    public synchronized void ack(long seq) {
+        if(seq <= watermark)
+            return;
+        ackedAhead.add(seq);
+        advance();
+    }
+
+    private void advance() {
+        while(!ackedAhead.isEmpty() && ackedAhead.first() == watermark + 1) {
+            watermark = ackedAhead.pollFirst();
+        }
+        ackBuffer.putLong(0, watermark);
+        compact();
+    }
+
+    /**
+     * @return messages not yet acknowledged, including those being replayed
+     */
+    public synchronized int getPending() {
+        return pending.size() + inFlight;
+    }
+
+    public long getAppended() {
+        return appended.get();
+    }
+
+    public long getReplayed() {
+        return replayed.get();
+    }
+
+    /**
+     * @return records given up on and written to the dead letter file
+     */
+    public long getDeadLettered() {
+        return deadLettered.get();
+    }
+
+    public synchronized int getSegments() {
+        return segments.size();
+    }
+
+    public void close() {
+        coordinator.shutdownNow();
+        replayers.shutdownNow();
+        synchronized (this) {
+            if(ackBuffer != null)
+                ackBuffer.force();
+            for(Segment s : segments) {
+                s.buffer.force();
+            }
+        }
+    }
+
+    /**
+     * Register the messages pending and dead lettered as gauges named outbox.*.
+     */
+    public void registerGauges(SensorMetrics metrics) {
+        metrics.registerGauge("outbox.pending", new SensorMetrics.Gauge() {
+            @Override
+            public long value() {
+                return getPending();
+            }
+        });
+        metrics.registerGauge("outbox.deadLettered", new SensorMetrics.Gauge() {
+            @Override
+            public long value() {
+                return getDeadLettered();
+            }
+        });
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "DurableOutbox[pending="+(pending.size() + inFlight)+", segments="+segments.size()+", appended="+appended.get()
+                +", replayed="+replayed.get()+", deadLettered="+deadLettered.get()+", watermark="+watermark+"]";
+    }
+
+    private void dispatch() {
+        // Records to each address in sequence order; those put back by this replay are left for the next
+        Map<String, List<Map.Entry<Long, Location>>> runs = new LinkedHashMap<>();
+        synchronized (this) {
+            for(Map.Entry<Long, Location> e : pending.entrySet()) {
+                String address = address(e.getValue());
+                List<Map.Entry<Long, Location>> records = runs.get(address);
+                if(records == null) {
+                    records = new ArrayList<>();
+                    runs.put(address, records);
+                }
+                records.add(new AbstractMap.SimpleImmutableEntry<>(e));
+            }
+            inFlight += pending.size();
+            pending.clear();
+        }
+        Iterator<List<Map.Entry<Long, Location>>> i = runs.values().iterator();
+        while(i.hasNext()) {
+            final List<Map.Entry<Long, Location>> records = i.next();
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                putBack(records);
+                while(i.hasNext()) {
+                    putBack(i.next());
+                }
+                return;
+            }
+            try {
+                replayers.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            int next = 0;
+                            while(next < records.size()) {
+                                if(!replay(records.get(next++)))
+                                    break;
+                            }
+                            putBack(records.subList(next, records.size()));
+                        } finally {
+                            permits.release();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // Closed
+                permits.release();
+                putBack(records);
+            }
+        }
+    }
+
+    /**
+     * @return true if the record was acknowledged, so the next to its address may be replayed
+     */
+    private boolean replay(Map.Entry<Long, Location> entry) {
+        Record r;
+        synchronized (this) {
+            r = read(entry.getValue());
+        }
+        Outcome outcome;
+        try {
+            outcome = replayer.replay(r.address, r.payload);
+        } catch (Exception e) {
+            LOG.warning("Error replaying outbox message "+entry.getKey()+": "+e.getLocalizedMessage());
+            outcome = Outcome.RETRY;
+        }
+        return completed(entry, outcome);
+    }
+
+    private synchronized boolean completed(Map.Entry<Long, Location> entry, Outcome outcome) {
+        inFlight--;
+        Location l = entry.getValue();
+        if(outcome == Outcome.SENT) {
+            replayed.incrementAndGet();
+            ack(entry.getKey());
+            return true;
+        } else if(outcome == Outcome.REJECTED && ++l.attempts >= maxAttempts) {
+            deadLetter(entry.getKey(), l);
+            ack(entry.getKey());
+            return true;
+        }
+        pending.put(entry.getKey(), l);
+        return false;
+    }
+
+    /**
+     * Return records taken for replay but not replayed to pending.
+     */
+    private synchronized void putBack(List<Map.Entry<Long, Location>> entries) {
+        for(Map.Entry<Long, Location> e : entries) {
+            inFlight--;
+            pending.put(e.getKey(), e.getValue());
+        }
+    }
+
+    /**
+     * Append the record as it is in its segment to the dead letter file.
+     */
+    private void deadLetter(long seq, Location l) {
+        ByteBuffer b = l.segment.buffer.duplicate();
+        byte[] record = new byte[HEADER + b.getInt(l.offset)];
+        b.position(l.offset);
+        b.get(record);
+        try (FileOutputStream out = new FileOutputStream(new File(dir, DEAD_LETTER_FILE), true)) {
+            out.write(record);
+        } catch (IOException e) {
+            LOG.warning("Unable to write outbox message "+seq+" to dead letter file; dropping it: "+e.getLocalizedMessage());
+        }
+        deadLettered.incrementAndGet();
+        LOG.warning("Outbox message "+seq+" to "+read(l).address+" rejected "+l.attempts+" times; dead lettered.");
+    }
+
+    private Record read(Location l) {
+        ByteBuffer b = l.segment.buffer.duplicate();
+        int length = b.getInt(l.offset);
+        b.position(l.offset + HEADER + 8);
+        byte[] addr = new byte[b.getShort() & 0xFFFF];
+        b.get(addr);
+        byte[] payload = new byte[length - RECORD_FIXED - addr.length];
+        b.get(payload);
+        return new Record(new String(addr, StandardCharsets.UTF_8), payload);
+    }
+
+    private String address(Location l) {
+        ByteBuffer b = l.segment.buffer.duplicate();
+        b.position(l.offset + HEADER + 8);
+        byte[] addr = new byte[b.getShort() & 0xFFFF];
+        b.get(addr);
+        return new String(addr, StandardCharsets.UTF_8);
+    }
+
+    private void load(File f) throws IOException {
+        Segment segment = map(f);
+        MappedByteBuffer b = segment.buffer;
+        int pos = 0;
+        while(pos + HEADER <= segmentSize) {
+            int length = b.getInt(pos);
+            if(length <= 0 || pos + HEADER + length > segmentSize)
+                break;
+            byte[] body = new byte[length];
+            ByteBuffer d = b.duplicate();
+            d.position(pos + HEADER);
+            d.get(body);
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            if((int)crc.getValue() != b.getInt(pos + 4)) {
+                // Records after it are still checked by their own crc; its sequence number is acknowledged
+                LOG.warning("Corrupt outbox record in "+f.getName()+" at "+pos+"; skipping it.");
+                pos += HEADER + length;
+                continue;
+            }
+            long seq = b.getLong(pos + HEADER);
+            if(seq > watermark)
+                pending.put(seq, new Location(segment, pos));
+            segment.lastSeq = Math.max(segment.lastSeq, seq);
+            nextSeq = Math.max(nextSeq, seq + 1);
+            pos += HEADER + length;
+        }
+        segment.position = pos;
+        segments.add(segment);
+    }
+
+    private Segment roll() throws IOException {
+        File f = new File(dir, String.format("%s%020d%s", SEGMENT_PREFIX, nextSeq, SEGMENT_SUFFIX));
+        Segment segment = map(f);
+        segments.add(segment);
+        return segment;
+    }
+
+    private Segment map(File f) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            // The mapping stays valid after the channel is closed
+            return new Segment(f, raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize));
+        }
+    }
+
+    /**
+     * Delete segments whose records are all acknowledged, keeping the active segment.
+     */
+    private void compact() {
+        Iterator<Segment> i = segments.iterator();
+        while(i.hasNext()) {
+            Segment s = i.next();
+            if(s == segments.get(segments.size() - 1))
+                break;
+            if(s.lastSeq > watermark)
+                break;
+            i.remove();
+            if(!s.file.delete())
+                LOG.warning("Unable to delete acknowledged outbox segment "+s.file);
+        }
+    }
+
+    private static class Segment {
+        private final File file;
+        private final MappedByteBuffer buffer;
+        private int position = 0;
+        private long lastSeq = 0;
+
+        private Segment(File file, MappedByteBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+
+    private static class Location {
+        private final Segment segment;
+        private final int offset;
+        // Times the replayer rejected the record since loaded
+        private int attempts = 0;
+
+        private Location(Segment segment, int offset) {
+            this.segment = segment;
+            this.offset = offset;
+        }
+    }
+
+    private static class Record {
+        private final String address;
+        private final byte[] payload;
+
+        private Record(String address, byte[] payload) {
+            this.address = address;
+            this.payload = payload;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package io.onemfive.i2p;
+
+import net.i2p.data.DataFormatException;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Collects fragments produced by {@link DatagramFragmenter} and returns the
+ * original payload once every fragment of a message has arrived.
+ *
+ * The buffer is bounded by number of partial messages and by buffered bytes. Fragments are held
+ * by index as they arrive rather than in an array sized by the count on the wire, and each is
+ * charged a fixed overhead besides its data, so a peer announcing many tiny fragments can't
+ * hold memory outside the bound.
+ * Partial messages older than the timeout are dropped; when a bound is hit
+ * the oldest partial message is evicted to make room.
+ *
+ * @author objectorange
+ */
+public class FragmentReassembler {
+
+    private static final Logger LOG = Logger.getLogger(FragmentReassembler.class.getName());
+
+    // Approximate memory held per fragment besides its data: map entry, boxed index and array header
+    static final int FRAGMENT_OVERHEAD = 64;
+
+    private final int maxPending;
+    private final long maxBufferedBytes;
+    private final long timeoutMs;
+
+    // Insertion ordered so the eldest partial message is first
+    private final Map<String, PendingMessage> pending = new LinkedHashMap<>();
+    private long bufferedBytes = 0L;
+    private long evicted = 0L;
+    private long expired = 0L;
+
+    public FragmentReassembler(int maxPending, long maxBufferedBytes, long timeoutMs) {
+        this.maxPending = maxPending;
+        this.maxBufferedBytes = maxBufferedBytes;
+        this.timeoutMs = timeoutMs;
+    }
+
+    /**
+     * Add a fragment received from the supplied sender.
+     *
+     * @param sender base64 hash of the verified sender
+     * @param fragment fragment including header
+     * @return the reassembled payload if this fragment completed the message, otherwise null
+     * @throws DataFormatException if the fragment header is malformed or inconsistent
+     */
+    public synchronized byte[] add(String sender, byte[] fragment) throws DataFormatException {
+        int messageId = DatagramFragmenter.messageId(fragment);
+        int index = DatagramFragmenter.index(fragment);
+        int count = DatagramFragmenter.count(fragment);
+        if(count == 0 || index >= count)
+            throw new DataFormatException("Fragment index "+index+" out of range for count "+count);
+        int dataLength = fragment.length - DatagramFragmenter.HEADER_LENGTH;
+        if(dataLength > maxBufferedBytes)
+            throw new DataFormatException("Fragment larger than reassembly buffer.");
+
+        long now = System.currentTimeMillis();
+        purgeExpired(now);
+
+        String key = sender + ":" + messageId;
+        PendingMessage msg = pending.get(key);
+        if(msg == null) {
+            msg = new PendingMessage(count, now);
+            pending.put(key, msg);
+        } else if(msg.count != count) {
+            remove(key);
+            throw new DataFormatException("Fragment count changed mid-message for "+key);
+        }
+        if(msg.fragments.containsKey(index)) {
+            // Duplicate fragment
+            return null;
+        }
+        byte[] data = new byte[dataLength];
+        System.arraycopy(fragment, DatagramFragmenter.HEADER_LENGTH, data, 0, dataLength);
+        msg.fragments.put(index, data);
+        msg.dataBytes += dataLength;
+        msg.bytes += dataLength + FRAGMENT_OVERHEAD;
+        bufferedBytes += dataLength + FRAGMENT_OVERHEAD;
+
+        if(msg.fragments.size() == count) {
+            remove(key);
+            byte[] payload = new byte[(int)msg.dataBytes];
+            int offset = 0;
+            for(int i=0; i<count; i++) {
+                byte[] part = msg.fragments.get(i);
+                System.arraycopy(part, 0, payload, offset, part.length);
+                offset += part.length;
+            }
+            return payload;
+        }
+
+        evictOverflow(key);
+        return null;
+    }
+
+    public synchronized int pendingMessages() {
+        return pending.size();
+    }
+
+    public synchronized long bufferedBytes() {
+        return bufferedBytes;
+    }
+
+    public synchronized long evictedMessages() {
+        return evicted;
+    }
+
+    public synchronized long expiredMessages() {
+        return expired;
+    }
+
+    public synchronized void clear() {
+        pending.clear();
+        bufferedBytes = 0L;
+    }
+
+    private void purgeExpired(long now) {
+        Iterator<Map.Entry<String, PendingMessage>> i = pending.entrySet().iterator();
+        while(i.hasNext()) {
+            Map.Entry<String, PendingMessage> entry = i.next();
+            if(now - entry.getValue().createdAt <= timeoutMs)
+                break; // remaining entries are younger
+            LOG.warning("Dropping incomplete fragmented message "+entry.getKey()+" after "+timeoutMs+" ms.");
+            bufferedBytes -= entry.getValue().bytes;
+            i.remove();
+            expired++;
+        }
+    }
+
+    private void evictOverflow(String current) {
+        Iterator<Map.Entry<String, PendingMessage>> i = pending.entrySet().iterator();
+        while((pending.size() > maxPending || bufferedBytes > maxBufferedBytes) && i.hasNext()) {
+            Map.Entry<String, PendingMessage> entry = i.next();
+            if(entry.getKey().equals(current) && pending.size() > 1)
+                continue;
+            LOG.warning("Reassembly buffer full; evicting fragmented message "+entry.getKey());
+            bufferedBytes -= entry.getValue().bytes;
+            i.remove();
+            evicted++;
+        }
+    }
+
+    private void remove(String key) {
+        PendingMessage msg = pending.remove(key);
+        if(msg != null)
+            bufferedBytes -= msg.bytes;
+    }
+
+    /**
+     * Register the messages being reassembled and the bytes buffered as gauges named reassembly.*.
+     */
+    public void registerGauges(SensorMetrics metrics) {
+        metrics.registerGauge("reassembly.pendingMessages", new SensorMetrics.Gauge() {
+            @Override
+            public long value() {
+                return pendingMessages();
+            }
+        });
+        metrics.registerGauge("reassembly.bufferedBytes", new SensorMetrics.Gauge() {
+            @Override
+            public long value() {
+                return bufferedBytes();
+            }
+        });
+    }
+
+    private static class PendingMessage {
+        private final int count;
+        private final Map<Integer, byte[]> fragments = new HashMap<>(4);
+        private final long createdAt;
+        private long dataBytes = 0L;
+        // Data plus overhead, as charged to the buffer
+        private long bytes = 0L;
+
+        private PendingMessage(int count, long createdAt) {
+            this.count = count;
+            this.createdAt = createdAt;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package io.onemfive.i2p;
+
+import io.onemfive.core.util.tasks.TaskRunner;
+import io.onemfive.sensors.SensorTask;
+import net.i2p.data.DataHelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+/**
+ * Polls the I2CP options file and router.config in the i2p base directory
+ * and hands changes to the {@link I2PSensor} to apply to the running session and router.
+ *
+ * @author objectorange
+ */
+public class I2PConfigWatcher extends SensorTask {
+
+    private static final Logger LOG = Logger.getLogger(I2PConfigWatcher.class.getName());
+
+    public static final String I2CP_CONFIG_FILE_NAME = "i2cp.config";
+
+    private I2PSensor sensor;
+    private File i2cpConfig;
+    private File routerConfig;
+    private long i2cpConfigModified;
+    private long routerConfigModified;
+
+    public I2PConfigWatcher(String taskName, TaskRunner taskRunner, I2PSensor sensor, File i2cpConfig, File routerConfig, long periodicity) {
+        super(taskName, taskRunner);
+        super.periodicity = periodicity;
+        this.sensor = sensor;
+        this.i2cpConfig = i2cpConfig;
+        this.routerConfig = routerConfig;
+        // Both files were read at start
+        this.i2cpConfigModified = i2cpConfig.lastModified();
+        this.routerConfigModified = routerConfig.lastModified();
+    }
+
+    @Override
+    public Boolean execute() {
+        long modified = i2cpConfig.lastModified();
+        if(modified != i2cpConfigModified) {
+            i2cpConfigModified = modified;
+            LOG.info(i2cpConfig.getName()+" changed; applying I2CP options...");
+            sensor.reloadI2CPConfig(load(i2cpConfig));
+        }
+        modified = routerConfig.lastModified();
+        if(modified != routerConfigModified) {
+            LOG.info(routerConfig.getName()+" changed; applying router configuration...");
+            sensor.reloadRouterConfig();
+            // Merging may rewrite the file
+            routerConfigModified = routerConfig.lastModified();
+        }
+        return true;
+    }
+
+    /**
+     * @return the file's properties; empty if it does not exist or can not be read
+     */
+    public static Properties load(File f) {
+        Properties p = new Properties();
+        if(f.isFile()) {
+            try {
+                DataHelper.loadProps(p, f);
+            } catch (IOException e) {
+                LOG.warning("Unable to read "+f+": "+e.getLocalizedMessage());
+            }
+        }
+        return p;
+    }
+}
@@ -1,15 +1,21 @@
 package io.onemfive.i2p;
 
-import io.onemfive.core.OneMFiveAppContext;
 import net.i2p.router.Router;
 import net.i2p.router.RouterContext;
+import net.i2p.router.RouterLaunch;
+import net.i2p.util.Log;
 
-import java.io.File;
-import java.util.Properties;
+import java.util.*;
 import java.util.logging.Logger;
 
 /**
- * TODO: Add Description
+ * Access to the I2P router running in this JVM.
+ *
+ * The router pool shares one in-JVM router between sensors, each a tenant with its own
+ * I2CP session and destination. The router is launched when the first tenant acquires it
+ * and shut down when the last one releases it; see {@link RouterPool}. Soft restarts are single-flight: tenants
+ * asking while a restart is under way, or shortly after, share it rather than restarting
+ * the router again, and every tenant is told when the router restarts.
  *
  * @author objectorange
  */
@@ -17,27 +23,153 @@ public class I2PRouterUtil {
 
     private static final Logger LOG = Logger.getLogger(I2PRouterUtil.class.getName());
 
-    public static Router getGlobalI2PRouter(Properties properties, boolean autoStart) {
-        Router globalRouter = null;
-        RouterContext routerContext = RouterContext.listContexts().get(0);
-        if(routerContext != null) {
-            globalRouter = routerContext.router();
-            if(globalRouter == null) {
-                LOG.info("Instantiating I2P Router...");
-                File baseDir = OneMFiveAppContext.getInstance().getBaseDir();
-                String baseDirPath = baseDir.getAbsolutePath();
-                System.setProperty("i2p.dir.base", baseDirPath);
-                System.setProperty("i2p.dir.config", baseDirPath);
-                System.setProperty("wrapper.logfile", baseDirPath + "/wrapper.log");
-                globalRouter = new Router(properties);
+    // Requests within this long of a completed restart are taken to be for the same fault
+    static final long RESTART_COALESCE_MS = 30 * 1000;
+
+    private static final RouterPool<RouterContext> pool = new RouterPool<RouterContext>() {
+        @Override
+        protected RouterContext launch(Properties properties) {
+            return I2PRouterUtil.launch(properties);
+        }
+
+        @Override
+        protected boolean isRunning(RouterContext ctx) {
+            return ctx.router() != null && ctx.router().isAlive();
+        }
+
+        @Override
+        protected void shutdown(RouterContext ctx, boolean graceful) {
+            if(ctx.router() == null)
+                return;
+            if(graceful)
+                ctx.router().shutdownGracefully(Router.EXIT_GRACEFUL);
+            else
+                ctx.router().shutdown(Router.EXIT_HARD);
+        }
+    };
+
+    /**
+     * Tenant holding the router for callers of {@link #getGlobalI2PRouter(Properties, boolean)}.
+     */
+    public static final String LEGACY_TENANT = "legacy";
+    // Serializes the legacy tenant's acquisitions so it holds at most one reference
+    private static final Object legacyLock = new Object();
+
+    // Held for the length of a restart so concurrent requests wait for it
+    private static final Object restartLock = new Object();
+    // Guarded by restartLock
+    private static long lastRestartAt = 0L;
+
+    public interface RestartListener {
+        /**
+         * The shared router is about to be restarted at another tenant's request.
+         */
+        void routerRestarting(String requestedBy);
+    }
+
+    /**
+     * Attach a tenant to the shared router, launching it if no tenant holds it or it has stopped.
+     * Each call must be matched by a {@link #releaseRouter(String, boolean)}.
+     * The launch doesn't hold up other tenants releasing the router or asking for its tenants.
+     *
+     * @param properties router settings, used only when launching
+     * @param listener told of restarts requested by other tenants; may be null
+     * @return the router's context
+     */
+    public static RouterContext acquireRouter(String tenant, Properties properties, RestartListener listener) {
+        return pool.acquire(tenant, properties, listener);
+    }
+
+    /**
+     * Detach a tenant; the router is shut down when no tenant is left.
+     * @param graceful wait for participating tunnels to expire when shutting down
+     * @return true if the router was shut down
+     */
+    public static boolean releaseRouter(String tenant, boolean graceful) {
+        return pool.release(tenant, graceful);
+    }
+
+    /**
+     * Soft restart the shared router on the calling thread unless another tenant's restart is
+     * under way or completed within {@link #RESTART_COALESCE_MS}, in which case that one is shared.
+     * @return false if there is no router to restart
+     */
+    public static boolean restartRouter(String tenant) {
+        synchronized (restartLock) {
+            if(System.currentTimeMillis() - lastRestartAt < RESTART_COALESCE_MS) {
+                LOG.info("Tenant "+tenant+" sharing the shared I2P Router's recent restart.");
+                return true;
             }
-            if(autoStart && !globalRouter.isAlive()) {
-                LOG.info("Starting I2P Router...");
-                globalRouter.setKillVMOnEnd(false);
-                globalRouter.runRouter();
+            RouterContext ctx = pool.current();
+            List<RestartListener> others = pool.listenersExcept(tenant);
+            if(ctx == null || ctx.router() == null)
+                return false;
+            LOG.info("Tenant "+tenant+" restarting shared I2P Router...");
+            for(RestartListener l : others) {
+                try {
+                    l.routerRestarting(tenant);
+                } catch (Exception e) {
+                    LOG.warning("Tenant restart listener threw: "+e.getLocalizedMessage());
+                }
             }
+            ctx.router().restart();
+            lastRestartAt = System.currentTimeMillis();
+            return true;
+        }
+    }
+
+    /**
+     * @return names of the tenants holding the shared router
+     */
+    public static Set<String> getTenants() {
+        return pool.getTenants();
+    }
+
+    private static RouterContext launch(Properties properties) {
+        LOG.info("Launching shared I2P Router...");
+        RouterLaunch.main(null);
+        List<RouterContext> routerContexts = RouterContext.listContexts();
+        // The newest context is the router just launched
+        RouterContext ctx = routerContexts.get(routerContexts.size() - 1);
+        Router router = ctx.router();
+        // Override hidden mode even when in I2P defined 'strict' countries
+        router.saveConfig(Router.PROP_HIDDEN, properties.getProperty("hidden"));
+        router.setKillVMOnEnd(false);
+        // Hard code to INFO for now for troubleshooting; need to move to configuration
+        ctx.logManager().setDefaultLimit(Log.STR_INFO);
+        ctx.logManager().setFileSize(100000000); // 100 MB
+        return ctx;
+    }
+
+    /**
+     * The shared router, held for callers of this method by the tenant {@link #LEGACY_TENANT}.
+     * With autoStart the legacy tenant acquires the router, launching it if no tenant holds it or it
+     * has stopped; it holds one reference however often it is called, so the router keeps running
+     * until {@link #releaseRouter(String, boolean)} releases the legacy tenant.
+     *
+     * @deprecated use {@link #acquireRouter(String, Properties, RestartListener)}
+     *             and {@link #releaseRouter(String, boolean)}
+     * @param properties router settings, used only when launching
+     * @param autoStart acquire the router, launching it if needed, rather than only returning a running one
+     * @return the shared router; without autoStart null if no tenant holds it
+     */
+    @Deprecated
+    public static Router getGlobalI2PRouter(Properties properties, boolean autoStart) {
+        if(!autoStart) {
+            RouterContext ctx = pool.current();
+            return ctx == null ? null : ctx.router();
+        }
+        synchronized (legacyLock) {
+            boolean held = pool.getTenants().contains(LEGACY_TENANT);
+            RouterContext ctx = held ? pool.current() : null;
+            if(ctx != null && ctx.router() != null && ctx.router().isAlive())
+                return ctx.router();
+            ctx = pool.acquire(LEGACY_TENANT, properties, null);
+            // Acquired again only to relaunch the stopped router
+            if(held)
+                pool.release(LEGACY_TENANT, false);
+            return ctx.router();
         }
-        return globalRouter;
     }
 
 }
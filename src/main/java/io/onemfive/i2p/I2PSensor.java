@@ -9,12 +9,10 @@ import io.onemfive.data.util.DLC;
 import io.onemfive.sensors.*;
 import net.i2p.I2PException;
 import net.i2p.client.*;
-import net.i2p.client.datagram.I2PDatagramDissector;
 import net.i2p.client.datagram.I2PDatagramMaker;
 import net.i2p.client.datagram.I2PInvalidDatagramException;
 import net.i2p.client.streaming.I2PSocketManager;
 import net.i2p.client.streaming.I2PSocketManagerFactory;
-import net.i2p.data.Base64;
 import net.i2p.data.DataFormatException;
 import net.i2p.data.DataHelper;
 import net.i2p.data.Destination;
@@ -22,17 +20,19 @@ import net.i2p.data.router.RouterInfo;
 import net.i2p.router.CommSystemFacade;
 import net.i2p.router.Router;
 import net.i2p.router.RouterContext;
-import net.i2p.router.RouterLaunch;
+import net.i2p.router.TunnelPoolSettings;
 import net.i2p.util.*;
 
 import java.io.*;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.util.*;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -49,6 +49,8 @@ public class I2PSensor extends BaseSensor implements I2PSessionMuxedListener {
      * 2 = ECDH-256 / ECDSA-256
      * 3 = ECDH-521 / ECDSA-521
      * 4 = NTRUEncrypt-1087 / GMSS-512
+     *
+     * Unused; the destination's types are set by 1m5.sensors.i2p.destination.sigType and encType, see {@link DestinationKeys}.
      */
     protected static int ElGamal2048DSA1024 = 1;
     protected static int ECDH256ECDSA256 = 2;
@@ -58,12 +60,18 @@ public class I2PSensor extends BaseSensor implements I2PSessionMuxedListener {
     private static final Logger LOG = Logger.getLogger(I2PSensor.class.getName());
 
     private static final String DEST_KEY_FILE_NAME = "local_dest.key";
+    private static final String DEFAULT_TENANT = "default";
 
     protected Properties properties;
 
     // I2P Router and Context
     private File i2pDir;
-    private RouterContext routerContext;
+    // Tenant of the shared router; its keys, outbox and warm start snapshot are kept apart from other tenants'
+    private String tenant = DEFAULT_TENANT;
+    private File tenantDir;
+    // This start's reference to the shared router; replaced on each start, released once
+    private final AtomicReference<RouterLease> lease = new AtomicReference<>();
+    private volatile RouterContext routerContext;
     protected Router router;
     protected CommSystemFacade.Status i2pRouterStatus;
 
@@ -71,6 +79,10 @@ public class I2PSensor extends BaseSensor implements I2PSessionMuxedListener {
     protected String i2pAppDir;
 
     private I2PSession i2pSession;
+    // Primary session plus any subsessions sends are spread over; null until the session is up
+    private volatile SessionShards shards;
+    // Socket managers of shards running as sessions of their own; destroyed with the primary session
+    private final List<I2PSocketManager> shardManagers = new CopyOnWriteArrayList<>();
     private I2PSocketManager socketManager;
 
     // I2CP parameters allowed in the config file
@@ -88,12 +100,76 @@ public class I2PSensor extends BaseSensor implements I2PSessionMuxedListener {
             "outbound.backupQuantity",
     });
 
+    // Router defaults for client tunnels, restored when an option is removed from i2cp.config
+    private static final Map<String, String> I2CP_DEFAULTS = new HashMap<>();
+    static {
+        for(String direction : new String[] {"inbound.", "outbound."}) {
+            I2CP_DEFAULTS.put(direction + "length", String.valueOf(TunnelPoolSettings.DEFAULT_LENGTH));
+            I2CP_DEFAULTS.put(direction + "lengthVariance", String.valueOf(TunnelPoolSettings.DEFAULT_LENGTH_VARIANCE));
+            I2CP_DEFAULTS.put(direction + "quantity", String.valueOf(TunnelPoolSettings.DEFAULT_QUANTITY));
+            I2CP_DEFAULTS.put(direction + "backupQuantity", String.valueOf(TunnelPoolSettings.DEFAULT_BACKUP_QUANTITY));
+        }
+    }
+    // I2CP options last read from i2cp.config, used to find options removed on reload
+    private Properties i2cpConfig = new Properties();
+
+    // Last merged router.config, used to find changed settings on reload
+    private Properties routerConfig;
+
     private Long startTimeBlockedMs = 0L;
     private static final Long BLOCK_TIME_UNTIL_RESTART = 3 * 60 * 1000L; // 4 minutes
-    private Integer restartAttempts = 0;
     private static final Integer RESTART_ATTEMPTS_UNTIL_HARD_RESTART = 3;
+    // Restarts off the calling thread, holding envelopes meanwhile; survives hard restarts
+    private volatile RestartSupervisor supervisor;
+    // Null unless the durable outbox is enabled
+    private volatile DurableOutbox outbox;
     private boolean isTest = false;
 
+    // Payloads above this size are split into fragments sent on FRAGMENT_PORT
+    public static final int MAX_DATAGRAM_PAYLOAD = 31500;
+    public static final int FRAGMENT_PORT = 31501;
+    // Raw (unsigned) datagrams from peers holding a session token, and the signed handshake establishing it
+    public static final int RAW_PORT = 31502;
+    public static final int HANDSHAKE_PORT = 31503;
+    private static final long FRAGMENT_SEND_TIMEOUT_MS = 2 * 60 * 1000L; // 2 minutes
+    // The router reseeds at launch when it knows fewer routers than this
+    private static final int RESEED_MIN_ROUTERS = 50;
+    private DatagramFragmenter fragmenter = new DatagramFragmenter(MAX_DATAGRAM_PAYLOAD);
+    private FragmentReassembler reassembler;
+    // Parallel datagram writes for fragments and fan-out
+    private ExecutorService datagramSender;
+
+    private DestinationCache destinationCache;
+    // Host names and b32 addresses resolved locally; null if disabled
+    private volatile AddressBook addressBook;
+
+    // Inbound processing off the session callback thread; null to process inline
+    private InboundDispatcher inbound;
+    private InboundAdmission admission;
+    private DuplicateFilter duplicates;
+    private DatagramVerifier verifier;
+
+    // Null unless raw datagrams are enabled
+    private RawDatagramSessions rawSessions;
+    private final SensorMetrics metrics = new SensorMetrics();
+    // Sampled router statistics; null until the session is up or if disabled
+    private volatile RouterStatsCollector routerStats;
+    // Tasks this start added to the task runner; removed on shutdown or a failed start
+    private final List<SensorTask> tasks = new CopyOnWriteArrayList<>();
+
+    private final BufferPool buffers = new BufferPool(RawDatagramSessions.TOKEN_LENGTH + MAX_DATAGRAM_PAYLOAD, 64);
+
+    // Null when warm start is disabled
+    private WarmStartSnapshot warmStart;
+    private volatile boolean warmStarted = false;
+    // From launching the router until it first reports a connected status; -1 until then
+    private volatile long launchedAt = -1L;
+    private volatile long networkConnectedMs = -1L;
+
+    // Outbound queue; send() only uses it when async mode is enabled
+    private OutboundPipeline outbound;
+    private boolean asyncSend = false;
+
     public I2PSensor() {super();}
 
     public I2PSensor(SensorManager sensorManager, Envelope.Sensitivity sensitivity, Integer priority) {
@@ -118,12 +194,165 @@ public class I2PSensor extends BaseSensor implements I2PSessionMuxedListener {
 
     /**
      * Sends UTF-8 content to a Destination using I2P.
+     * When async mode is enabled (1m5.sensors.i2p.outbound.async=true) the envelope is
+     * queued and the result only reflects whether it was accepted into the outbound queue.
+     * While the router is recovering the envelope is held and sent once connected again.
+     * With the durable outbox enabled (1m5.sensors.i2p.outbox.enabled=true) envelopes are held
+     * on disk instead, as are envelopes whose send fails while the network is unavailable;
+     * a held envelope returns true with its request's error fields as they were before sending.
+     * With duplicate suppression enabled on the recipient (1m5.sensors.i2p.dedupe.enabled=true),
+     * content identical to content sent to it within its dedupe.windowMs is delivered once.
      * @param envelope Envelope containing SensorRequest as data.
      *                 To DID must contain base64 encoded I2P destination key.
      * @return boolean was successful
      */
     @Override
     public boolean send(Envelope envelope) {
+        RestartSupervisor s = supervisor;
+        if(s != null && s.isRecovering() && outbox != null
+                && retain((SensorRequest)DLC.getData(SensorRequest.class,envelope), null)) {
+            return true;
+        }
+        if(s != null && s.isRecovering() && s.hold(envelope)) {
+            LOG.info("I2P Sensor recovering; holding envelope until connected.");
+            return true;
+        }
+        if(asyncSend) {
+            return sendAsync(envelope, null) != null;
+        }
+        return sendNow(envelope);
+    }
+
+    /**
+     * Queues the envelope on the outbound pipeline.
+     * @param envelope Envelope containing SensorRequest as data.
+     * @param callback notified once sent or failed; may be null
+     * @return future result of the send or null if the outbound queue rejected the envelope
+     * or the pipeline was shut down
+     */
+    public Future<Boolean> sendAsync(Envelope envelope, OutboundPipeline.SendCallback callback) {
+        try {
+            return outbound.submit(envelope, callback);
+        } catch (RejectedExecutionException e) {
+            LOG.warning("I2P outbound queue rejected envelope: "+e.getLocalizedMessage());
+            SensorRequest request = (SensorRequest)DLC.getData(SensorRequest.class,envelope);
+            if(request != null) {
+                request.errorCode = SensorRequest.SENDING_FAILED;
+                request.errorMessage = outbound.isShutdown() ? "Outbound pipeline shut down." : "Outbound queue full.";
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Sends binary content to a Destination using I2P on the calling thread.
+     * The SensorRequest supplies the recipient; its String content is ignored.
+     * The recipient receives the bytes as a byte[] message, even if they happen to be valid UTF-8.
+     * @param envelope Envelope containing SensorRequest as data.
+     * @param content payload bytes
+     * @return boolean was successful
+     */
+    public boolean sendBytes(Envelope envelope, byte[] content) {
+        if(content == null)
+            return noContent(envelope);
+        return sendNow(envelope, Payloads.encode(content));
+    }
+
+    /**
+     * @see #sendBytes(Envelope, byte[])
+     */
+    public boolean sendBytes(Envelope envelope, ByteBuffer content) {
+        if(content == null)
+            return noContent(envelope);
+        return sendNow(envelope, Payloads.encode(content));
+    }
+
+    private static boolean noContent(Envelope envelope) {
+        SensorRequest request = (SensorRequest)DLC.getData(SensorRequest.class,envelope);
+        if(request != null)
+            request.errorCode = SensorRequest.NO_CONTENT;
+        return false;
+    }
+
+    /**
+     * Sends on the calling thread.
+     */
+    boolean sendNow(Envelope envelope) {
+        return sendNow(envelope, null);
+    }
+
+    /**
+     * @param content payload from {@link Payloads#encode(byte[])} or null to send the request's content as UTF-8 text
+     */
+    private boolean sendNow(Envelope envelope, byte[] content) {
+        SensorRequest request = (SensorRequest)DLC.getData(SensorRequest.class,envelope);
+        // Restored if the request is held in the outbox, leaving it as when held before sending
+        int errorCode = request == null ? 0 : request.errorCode;
+        String errorMessage = request == null ? null : request.errorMessage;
+        Exception exception = request == null ? null : request.exception;
+        boolean sent = transmit(envelope, content);
+        if(!sent) {
+            // Failures of the session or network rather than the request are retried from the outbox
+            if(outbox != null && request != null
+                    && (request.errorCode == SensorRequest.SENDING_FAILED || request.exception instanceof I2PSessionException)
+                    && retain(request, content)) {
+                request.errorCode = errorCode;
+                request.errorMessage = errorMessage;
+                request.exception = exception;
+                return true;
+            }
+            metrics.error(request == null ? ServiceRequest.REQUEST_REQUIRED : request.errorCode);
+        }
+        return sent;
+    }
+
+    /**
+     * Write the request to the durable outbox for replay once connected.
+     * @param content payload bytes or null for the request's content as UTF-8
+     * @return true if written
+     */
+    private boolean retain(SensorRequest request, byte[] content) {
+        DurableOutbox o = outbox;
+        if(o == null || request == null || request.to == null)
+            return false;
+        NetworkPeer toPeer = request.to.getPeer(NetworkPeer.Network.I2P.name());
+        if(toPeer == null || toPeer.getAddress() == null)
+            return false;
+        if(content == null) {
+            if(request.content == null)
+                return false;
+            content = Payloads.encode(request.content);
+        }
+        try {
+            long seq = o.append(toPeer.getAddress(), content);
+            LOG.info("I2P Message written to outbox as "+seq+" for replay once connected.");
+            return true;
+        } catch (IOException e) {
+            LOG.warning("Unable to write I2P Message to outbox: "+e.getLocalizedMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Send a message replayed from the outbox.
+     * @return RETRY for failures of the session or network, REJECTED for those of the message itself
+     */
+    private DurableOutbox.Outcome replayTo(String address, byte[] payload) {
+        Envelope e = Envelope.documentFactory();
+        SensorRequest request = new SensorRequest();
+        NetworkPeer toPeer = new NetworkPeer(NetworkPeer.Network.I2P.name());
+        toPeer.setAddress(address);
+        request.to = new DID();
+        request.to.addPeer(toPeer);
+        DLC.addData(SensorRequest.class, request, e);
+        if(transmit(e, payload))
+            return DurableOutbox.Outcome.SENT;
+        if(request.errorCode == SensorRequest.SENDING_FAILED || request.exception instanceof I2PSessionException)
+            return DurableOutbox.Outcome.RETRY;
+        return DurableOutbox.Outcome.REJECTED;
+    }
+
+    private boolean transmit(Envelope envelope, byte[] content) {
         LOG.info("Sending I2P Message...");
         SensorRequest request = (SensorRequest)DLC.getData(SensorRequest.class,envelope);
         if(request == null){
@@ -142,29 +371,62 @@ public class I2PSensor extends BaseSensor implements I2PSessionMuxedListener {
             request.errorCode = SensorRequest.TO_PEER_WRONG_NETWORK;
             return false;
         }
-        LOG.info("Content to send: "+request.content);
-        if(request.content == null) {
-            LOG.warning("No content found in Envelope while sending to I2P.");
-            request.errorCode = SensorRequest.NO_CONTENT;
-            return false;
-        }
-        if(request.content.length() > 31500) {
-            // Just warn for now
-            // TODO: Split into multiple serialized datagrams
-            LOG.warning("Content longer than 31.5kb. May have issues.");
+        if(content == null) {
+            if(request.content == null) {
+                LOG.warning("No content found in Envelope while sending to I2P.");
+                request.errorCode = SensorRequest.NO_CONTENT;
+                return false;
+            }
+            if(LOG.isLoggable(Level.FINE))
+                LOG.fine("Content to send: "+request.content);
+            content = Payloads.encode(request.content);
         }
 
         try {
-            Destination toDestination = i2pSession.lookupDest(toPeer.getAddress());
+            long start = System.nanoTime();
+            Destination toDestination = destinationCache.lookup(i2pSession, toPeer.getAddress());
+            metrics.lookup.since(start);
             if(toDestination == null) {
                 LOG.warning("I2P Peer To Destination not found.");
                 request.errorCode = SensorRequest.TO_PEER_NOT_FOUND;
                 return false;
             }
-            I2PDatagramMaker m = new I2PDatagramMaker(i2pSession);
-            byte[] payload = m.makeI2PDatagram(request.content.getBytes());
-            if(i2pSession.sendMessage(toDestination, payload, I2PSession.PROTO_UNSPECIFIED, I2PSession.PORT_ANY, I2PSession.PORT_ANY)) {
+            I2PSession session = sessionFor(toDestination);
+            if(content.length > MAX_DATAGRAM_PAYLOAD) {
+                return sendFragmented(request, session, toDestination, content);
+            }
+            boolean sent;
+            byte[] token = rawSessions == null ? null : rawSessions.activeToken(toDestination.calculateHash().toBase64());
+            if(token != null) {
+                // Established peer; skip signing
+                byte[] buffer = buffers.acquire();
+                try {
+                    int length = RawDatagramSessions.prefix(token, content, buffer);
+                    start = System.nanoTime();
+                    sent = session.sendMessage(toDestination, buffer, 0, length, I2PSession.PROTO_DATAGRAM_RAW, I2PSession.PORT_ANY, RAW_PORT, new SendMessageOptions());
+                    metrics.sendMessage.since(start);
+                } finally {
+                    // The session has copied the payload by the time sendMessage returns
+                    buffers.release(buffer);
+                }
+            } else {
+                start = System.nanoTime();
+                I2PDatagramMaker m = new I2PDatagramMaker(session);
+                byte[] payload = m.makeI2PDatagram(content);
+                metrics.sign.since(start);
+                start = System.nanoTime();
+                sent = session.sendMessage(toDestination, payload, I2PSession.PROTO_UNSPECIFIED, I2PSession.PORT_ANY, I2PSession.PORT_ANY);
+                metrics.sendMessage.since(start);
+            }
+            if(sent && rawSessions != null) {
+                // Offers a token, or confirms the active one is still known to the recipient
+                byte[] offer = rawSessions.offer(toDestination.calculateHash().toBase64());
+                if(offer != null)
+                    sendHandshake(toDestination, offer);
+            }
+            if(sent) {
                 LOG.info("I2P Message sent.");
+                metrics.sent(content.length);
                 return true;
             } else {
                 LOG.warning("I2P Message sending failed.");
@@ -184,6 +446,236 @@ public class I2PSensor extends BaseSensor implements I2PSessionMuxedListener {
         }
     }
 
+    /**
+     * Splits content larger than {@link #MAX_DATAGRAM_PAYLOAD} into fragments,
+     * each signed as its own repliable datagram, and sends them in parallel.
+     * @return true if every fragment was handed to the router
+     */
+    private boolean sendFragmented(SensorRequest request, final I2PSession session, final Destination toDestination, byte[] content) {
+        final byte[][] fragments;
+        try {
+            fragments = fragmenter.fragment(content);
+        } catch (IllegalArgumentException e) {
+            LOG.warning(e.getLocalizedMessage());
+            request.errorCode = SensorRequest.SENDING_FAILED;
+            request.errorMessage = e.getLocalizedMessage();
+            return false;
+        }
+        LOG.info("Sending "+content.length+" bytes as "+fragments.length+" I2P datagram fragments...");
+        List<Future<Boolean>> results = new ArrayList<>(fragments.length);
+        for(final byte[] fragment : fragments) {
+            results.add(datagramSender.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    long start = System.nanoTime();
+                    I2PDatagramMaker m = new I2PDatagramMaker(session);
+                    byte[] payload = m.makeI2PDatagram(fragment);
+                    metrics.sign.since(start);
+                    start = System.nanoTime();
+                    boolean sent = session.sendMessage(toDestination, payload, I2PSession.PROTO_DATAGRAM, I2PSession.PORT_ANY, FRAGMENT_PORT);
+                    metrics.sendMessage.since(start);
+                    return sent;
+                }
+            }));
+        }
+        long deadline = System.currentTimeMillis() + FRAGMENT_SEND_TIMEOUT_MS;
+        for(int i=0; i<results.size(); i++) {
+            try {
+                if(!results.get(i).get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) {
+                    LOG.warning("I2P Message fragment "+i+" sending failed.");
+                    request.errorCode = SensorRequest.SENDING_FAILED;
+                    cancel(results);
+                    return false;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                request.errorCode = SensorRequest.SENDING_FAILED;
+                cancel(results);
+                return false;
+            } catch (TimeoutException e) {
+                LOG.warning("Timed out sending I2P Message fragments.");
+                request.errorCode = SensorRequest.SENDING_FAILED;
+                cancel(results);
+                return false;
+            } catch (CancellationException e) {
+                request.errorCode = SensorRequest.SENDING_FAILED;
+                request.errorMessage = "Sensor shut down before sending.";
+                cancel(results);
+                return false;
+            } catch (ExecutionException e) {
+                String errMsg = "Exception while sending I2P message fragment: " + e.getCause().getLocalizedMessage();
+                LOG.warning(errMsg);
+                request.errorCode = SensorRequest.SENDING_FAILED;
+                request.exception = (Exception)e.getCause();
+                request.errorMessage = errMsg;
+                cancel(results);
+                return false;
+            }
+        }
+        LOG.info("I2P Message sent as "+fragments.length+" fragments.");
+        metrics.sent(content.length);
+        return true;
+    }
+
+    private static void cancel(List<? extends Future<?>> results) {
+        for(Future<?> f : results) {
+            if(f != null)
+                f.cancel(false);
+        }
+    }
+
+    /**
+     * Sends the content of the envelope's SensorRequest to every recipient.
+     * The datagram (or its fragments) is built and signed once per sending session as the
+     * repliable datagram signature covers only the payload, then the same bytes are
+     * written to each resolved destination in parallel.
+     * Unlike {@link #send(Envelope)}, failed recipients are neither held while the router recovers
+     * nor retained in the durable outbox; the caller decides from the results what to resend.
+     * @param envelope Envelope containing SensorRequest with content; its To DID is ignored
+     * @param recipients DIDs each containing an I2P peer
+     * @return result per recipient in the order supplied
+     */
+    public List<SendResult> sendToAll(Envelope envelope, List<DID> recipients) {
+        List<SendResult> results = new ArrayList<>(recipients.size());
+        for(DID recipient : recipients) {
+            results.add(new SendResult(recipient));
+        }
+        SensorRequest request = (SensorRequest)DLC.getData(SensorRequest.class,envelope);
+        if(request == null || request.content == null) {
+            LOG.warning("No content found in Envelope while sending to I2P.");
+            for(SendResult r : results) {
+                r.fail(request == null ? ServiceRequest.REQUEST_REQUIRED : SensorRequest.NO_CONTENT, "No content.");
+            }
+            return results;
+        }
+        ExecutorService sender = datagramSender;
+        if(sender == null || i2pSession == null) {
+            LOG.warning("I2P Sensor not started; unable to send to "+recipients.size()+" recipients.");
+            for(SendResult r : results) {
+                r.fail(SensorRequest.SENDING_FAILED, "I2P Sensor not started.");
+            }
+            return results;
+        }
+        byte[] content = Payloads.encode(request.content);
+        final boolean fragmented = content.length > MAX_DATAGRAM_PAYLOAD;
+        final byte[][] chunks;
+        if(fragmented) {
+            try {
+                chunks = fragmenter.fragment(content);
+            } catch (IllegalArgumentException e) {
+                LOG.warning(e.getLocalizedMessage());
+                for(SendResult r : results) {
+                    r.fail(SensorRequest.SENDING_FAILED, e.getLocalizedMessage());
+                }
+                return results;
+            }
+        } else {
+            chunks = new byte[][] {content};
+        }
+        // Signed datagrams by sending session, filled as recipients resolve to sessions
+        final Map<I2PSession, List<byte[]>> signed = new HashMap<>();
+        LOG.info("Sending I2P Message to "+recipients.size()+" recipients...");
+
+        List<Future<?>> futures = new ArrayList<>(results.size());
+        for(final SendResult result : results) {
+            try {
+                futures.add(sender.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        sendDatagrams(result, chunks, signed, fragmented);
+                    }
+                }));
+            } catch (RejectedExecutionException e) {
+                result.fail(SensorRequest.SENDING_FAILED, "Sensor shut down before sending.");
+                futures.add(null);
+            }
+        }
+        long deadline = System.currentTimeMillis() + FRAGMENT_SEND_TIMEOUT_MS;
+        for(int i=0; i<futures.size(); i++) {
+            if(futures.get(i) == null)
+                continue;
+            try {
+                futures.get(i).get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                cancel(futures);
+                for(int j=i; j<futures.size(); j++) {
+                    if(futures.get(j) != null && futures.get(j).isCancelled())
+                        results.get(j).fail(SensorRequest.SENDING_FAILED, "Interrupted before send to recipient completed.");
+                }
+                break;
+            } catch (ExecutionException | TimeoutException e) {
+                futures.get(i).cancel(false);
+                results.get(i).fail(SensorRequest.SENDING_FAILED, "Send to recipient did not complete: "+e.getLocalizedMessage());
+            } catch (CancellationException e) {
+                results.get(i).fail(SensorRequest.SENDING_FAILED, "Sensor shut down before sending.");
+            }
+        }
+        int sent = 0;
+        for(SendResult r : results) {
+            if(r.isSent()) {
+                sent++;
+                metrics.sent(content.length);
+            } else {
+                metrics.error(r.getErrorCode());
+            }
+        }
+        LOG.info("I2P Message sent to "+sent+" of "+results.size()+" recipients.");
+        return results;
+    }
+
+    /**
+     * @return the chunks signed by the session, signing them on first use
+     */
+    private List<byte[]> signedBy(I2PSession session, byte[][] chunks, Map<I2PSession, List<byte[]>> signed) {
+        synchronized (signed) {
+            List<byte[]> datagrams = signed.get(session);
+            if(datagrams == null) {
+                datagrams = new ArrayList<>(chunks.length);
+                I2PDatagramMaker m = new I2PDatagramMaker(session);
+                for(byte[] chunk : chunks) {
+                    long start = System.nanoTime();
+                    datagrams.add(m.makeI2PDatagram(chunk));
+                    metrics.sign.since(start);
+                }
+                signed.put(session, datagrams);
+            }
+            return datagrams;
+        }
+    }
+
+    private void sendDatagrams(SendResult result, byte[][] chunks, Map<I2PSession, List<byte[]>> signed, boolean fragmented) {
+        NetworkPeer toPeer = result.getRecipient() == null ? null : result.getRecipient().getPeer(NetworkPeer.Network.I2P.name());
+        if(toPeer == null) {
+            result.fail(SensorRequest.TO_PEER_REQUIRED, "No Peer for I2P found in DID.");
+            return;
+        }
+        try {
+            long start = System.nanoTime();
+            Destination toDestination = destinationCache.lookup(i2pSession, toPeer.getAddress());
+            metrics.lookup.since(start);
+            if(toDestination == null) {
+                result.fail(SensorRequest.TO_PEER_NOT_FOUND, "I2P Peer To Destination not found.");
+                return;
+            }
+            I2PSession session = sessionFor(toDestination);
+            for(byte[] datagram : signedBy(session, chunks, signed)) {
+                start = System.nanoTime();
+                boolean sent = fragmented
+                        ? session.sendMessage(toDestination, datagram, I2PSession.PROTO_DATAGRAM, I2PSession.PORT_ANY, FRAGMENT_PORT)
+                        : session.sendMessage(toDestination, datagram, I2PSession.PROTO_UNSPECIFIED, I2PSession.PORT_ANY, I2PSession.PORT_ANY);
+                metrics.sendMessage.since(start);
+                if(!sent) {
+                    result.fail(SensorRequest.SENDING_FAILED, "I2P Message sending failed.");
+                    return;
+                }
+            }
+            result.setSent(true);
+        } catch (I2PSessionException e) {
+            result.fail(SensorRequest.SENDING_FAILED, "Exception while sending I2P message: " + e.getLocalizedMessage());
+        }
+    }
+
     /**
      * Incoming
      * @param e
@@ -215,6 +707,10 @@ public class I2PSensor extends BaseSensor implements I2PSessionMuxedListener {
      */
     @Override
     public void messageAvailable(I2PSession session, int msgId, long size) {
+        messageAvailable(session, msgId, size, I2PSession.PROTO_UNSPECIFIED, I2PSession.PORT_ANY, I2PSession.PORT_ANY);
+    }
+
+    private void receive(I2PSession session, int msgId, long size, int proto, int toPort) {
         LOG.info("Message received by I2P Sensor...");
         byte[] msg = new byte[0];
         try {
@@ -227,20 +723,94 @@ public class I2PSensor extends BaseSensor implements I2PSessionMuxedListener {
             LOG.warning("I2PSession returned a null message: msgId=" + msgId + ", size=" + size + ", " + session);
             return;
         }
+        InboundDatagram datagram = new InboundDatagram(msg, proto, toPort);
+        if(admission != null && !admission.admit(datagram)) {
+            LOG.fine("Inbound datagram of "+msg.length+" bytes not admitted.");
+            return;
+        }
+        if(inbound != null) {
+            inbound.dispatch(datagram);
+        } else {
+            Envelope e = process(datagram);
+            if(e != null) {
+                sensorManager.sendToBus(e);
+                metrics.inboundToBus.since(datagram.receivedAt);
+            }
+        }
+    }
 
+    /**
+     * Hands envelopes built by {@link #process(InboundDatagram)} to the bus.
+     */
+    void deliver(List<Envelope> envelopes) {
+        for(Envelope e : envelopes) {
+            LOG.info("Sending Event Message to Notification Service...");
+            sensorManager.sendToBus(e);
+        }
+    }
+
+    /**
+     * Decodes the datagram by protocol and port into an Envelope for the bus.
+     * Raw datagrams on {@link #RAW_PORT} are attributed through their session token;
+     * everything else is verified as a signed repliable datagram unless the
+     * {@link DatagramVerifier} already did so as part of a batch.
+     * With 1m5.sensors.i2p.dedupe.enabled=true a payload identical to one from the same sender
+     * within 1m5.sensors.i2p.dedupe.windowMs (default 10 seconds) is suppressed, see {@link DuplicateFilter}.
+     * @return Envelope to publish or null if nothing is to be published
+     */
+    Envelope process(InboundDatagram datagram) {
+        int toPort = datagram.toPort;
         try {
-            LOG.info("Loading I2P Datagram...");
-            I2PDatagramDissector d = new I2PDatagramDissector();
-            d.loadI2PDatagram(msg);
-            LOG.info("I2P Datagram loaded.");
-            byte[] payload = d.getPayload();
-            String strPayload = new String(payload);
-            LOG.info("Getting sender as I2P Destination...");
-            Destination sender = d.getSender();
+            byte[] payload;
+            int offset = 0;
+            Destination sender;
+            if(!DatagramVerifier.isSigned(datagram)) {
+                if(rawSessions == null || (sender = rawSessions.sender(datagram.msg)) == null) {
+                    LOG.warning("Raw datagram with unknown or expired session token dropped.");
+                    metrics.error("UNKNOWN_RAW_TOKEN");
+                    return null;
+                }
+                // Payload follows the token; decoded in place
+                payload = datagram.msg;
+                offset = RawDatagramSessions.TOKEN_LENGTH;
+            } else {
+                verifier.verify(datagram);
+                if(datagram.error != null)
+                    throw datagram.error;
+                payload = datagram.payload;
+                sender = datagram.sender;
+                // Verified sender; cache it so replies skip the lookup
+                destinationCache.put(sender);
+            }
+            // Only verified traffic counts towards strikes, so forgeries can't get a sender denylisted
+            if(admission != null && !admission.verified(sender.getHash()) && datagram.probe) {
+                // Sent over the sender's rate limit by the sender itself
+                return null;
+            }
             String address = sender.toBase64();
             String fingerprint = sender.getHash().toBase64();
-            LOG.info("Received I2P Message:\n    From: " + address +"\n    Content: " + strPayload);
-//            taskRunner.verify(strPayload);
+            if(toPort == HANDSHAKE_PORT) {
+                handshake(sender, fingerprint, payload);
+                return null;
+            }
+            if(toPort == FRAGMENT_PORT) {
+                payload = reassembler.add(fingerprint, payload);
+                if(payload == null) {
+                    // Waiting on remaining fragments
+                    return null;
+                }
+                LOG.info("Reassembled fragmented I2P Message of "+payload.length+" bytes.");
+            }
+            if(duplicates != null && duplicates.isDuplicate(sender.getHash().getData(), payload, offset, payload.length - offset)) {
+                LOG.fine("Duplicate I2P Message from "+fingerprint+" suppressed.");
+                return null;
+            }
+            metrics.received(payload.length - offset);
+            Object content = Payloads.decode(payload, offset, payload.length - offset);
+            LOG.info("Received I2P Message of "+(payload.length - offset)+" bytes from "+fingerprint);
+            if(LOG.isLoggable(Level.FINE))
+                LOG.fine("Received I2P Message:\n    From: " + address +"\n    Content: " + content);
+//            taskRunner.verify(content);
 //            if(!isTest) {
                 Envelope e = Envelope.eventFactory(EventMessage.Type.TEXT);
                 NetworkPeer from = new NetworkPeer(NetworkPeer.Network.I2P.name());
@@ -251,20 +821,62 @@ public class I2PSensor extends BaseSensor implements I2PSessionMuxedListener {
                 e.setDID(did);
                 EventMessage m = (EventMessage) e.getMessage();
                 m.setName(fingerprint);
-                m.setMessage(strPayload);
+                m.setMessage(content);
                 DLC.addRoute(NotificationService.class, NotificationService.OPERATION_PUBLISH, e);
-                LOG.info("Sending Event Message to Notification Service...");
-                sensorManager.sendToBus(e);
+                return e;
 //            }
         } catch (DataFormatException e) {
             e.printStackTrace();
             LOG.warning("Invalid datagram received: " + e.getLocalizedMessage());
+            metrics.error("INVALID_DATAGRAM");
         } catch (I2PInvalidDatagramException e) {
             e.printStackTrace();
             LOG.warning("Datagram failed verification: " + e.getLocalizedMessage());
+            metrics.error("VERIFICATION_FAILED");
         } catch (Exception e) {
             e.printStackTrace();
             LOG.severe("Error processing datagram: " + e.getLocalizedMessage());
+            metrics.error("PROCESSING_FAILED");
+        }
+        return null;
+    }
+
+    /**
+     * Raw datagram session handshake received over the signed path.
+     * Offers are accepted only when raw datagrams are enabled locally so peers
+     * without support keep using signed datagrams.
+     */
+    private void handshake(final Destination sender, String fingerprint, byte[] payload) {
+        if(rawSessions == null || payload.length != 1 + RawDatagramSessions.TOKEN_LENGTH) {
+            return;
+        }
+        byte[] token = Arrays.copyOfRange(payload, 1, payload.length);
+        if(payload[0] == RawDatagramSessions.OFFER) {
+            final byte[] accept = rawSessions.accept(sender, token);
+            if(accept == null) {
+                LOG.warning("Too many raw datagram sessions; declining offer from "+fingerprint);
+                return;
+            }
+            LOG.info("Accepting raw datagram session from "+fingerprint);
+            datagramSender.submit(new Runnable() {
+                @Override
+                public void run() {
+                    sendHandshake(sender, accept);
+                }
+            });
+        } else if(payload[0] == RawDatagramSessions.ACCEPT) {
+            LOG.info("Raw datagram session accepted by "+fingerprint);
+            rawSessions.accepted(fingerprint, token);
+        }
+    }
+
+    private void sendHandshake(Destination to, byte[] handshake) {
+        try {
+            I2PSession session = sessionFor(to);
+            I2PDatagramMaker m = new I2PDatagramMaker(session);
+            session.sendMessage(to, m.makeI2PDatagram(handshake), I2PSession.PROTO_DATAGRAM, I2PSession.PORT_ANY, HANDSHAKE_PORT);
+        } catch (I2PSessionException e) {
+            LOG.warning("Unable to send raw datagram session handshake: "+e.getLocalizedMessage());
         }
     }
 
@@ -293,7 +905,7 @@ public class I2PSensor extends BaseSensor implements I2PSessionMuxedListener {
     @Override
     public void messageAvailable(I2PSession session, int msgId, long size, int proto, int fromPort, int toPort) {
 //        if (proto == I2PSession.PROTO_DATAGRAM || proto == I2PSession.PROTO_STREAMING)
-            messageAvailable(session, msgId, size);
+            receive(session, msgId, size, proto, toPort);
 //        else
 //            LOG.warning("Received unhandled message with proto="+proto+" and id="+msgId);
     }
@@ -310,7 +922,7 @@ public class I2PSensor extends BaseSensor implements I2PSessionMuxedListener {
      */
     @Override
     public void reportAbuse(I2PSession i2PSession, int severity) {
-        LOG.warning("I2P Session reporting abuse. Severity="+severity);
+        LOG.warning("I2P Session reporting abuse. Severity="+severity+(admission == null ? "" : "; "+admission));
         reportRouterStatus();
     }
 
@@ -340,6 +952,124 @@ public class I2PSensor extends BaseSensor implements I2PSessionMuxedListener {
         reportRouterStatus();
     }
 
+    /**
+     * @return the session to send to the destination from; the primary session unless sharded
+     */
+    private I2PSession sessionFor(Destination to) {
+        SessionShards s = shards;
+        return s == null ? i2pSession : s.select(to);
+    }
+
+    RouterContext getRouterContext() {
+        return routerContext;
+    }
+
+    public SensorMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return outbound queue depth as a fraction of its capacity
+     */
+    double getOutboundQueueUtilization() {
+        return outbound == null ? 0 : (double)outbound.getQueueDepth() / outbound.getQueueCapacity();
+    }
+
+    /**
+     * @return the live session's I2CP options or null if there is no session
+     */
+    Properties getSessionOptions() {
+        return i2pSession == null ? null : i2pSession.getOptions();
+    }
+
+    private void registerGauges() {
+        outbound.registerGauges(metrics);
+        if(inbound != null)
+            inbound.registerGauges(metrics);
+        if(admission != null)
+            admission.registerGauges(metrics);
+        if(rawSessions != null)
+            rawSessions.registerGauges(metrics);
+        if(duplicates != null)
+            duplicates.registerGauges(metrics);
+        reassembler.registerGauges(metrics);
+        verifier.registerGauges(metrics);
+        destinationCache.registerGauges(metrics);
+        metrics.registerGauge("addressBook.size", new SensorMetrics.Gauge() {
+            @Override
+            public long value() {
+                AddressBook book = addressBook;
+                return book == null ? 0 : book.size();
+            }
+        });
+        metrics.registerGauge("startup.networkConnectedMs", new SensorMetrics.Gauge() {
+            @Override
+            public long value() {
+                return networkConnectedMs;
+            }
+        });
+        metrics.registerGauge("startup.warm", new SensorMetrics.Gauge() {
+            @Override
+            public long value() {
+                return warmStarted ? 1 : 0;
+            }
+        });
+    }
+
+    /**
+     * Create shard i using the destination key in local_dest_i.key, creating the key if needed.
+     * Shard i's inbound.* and outbound.* options may be set apart from the primary session's
+     * as 1m5.sensors.i2p.shards.&lt;i&gt;.inbound.* and 1m5.sensors.i2p.shards.&lt;i&gt;.outbound.*.
+     * @param subsession add a subsession of the primary session, which shares its tunnels, rather than a session of its own
+     * @return the connected session or null if it could not be created
+     */
+    private I2PSession addShard(int i, Properties sessionProperties, DestinationKeys keys, boolean subsession) {
+        File keyFile = new File(tenantDir, "local_dest_" + i + ".key");
+        Properties opts = new Properties();
+        opts.putAll(sessionProperties);
+        opts.setProperty("inbound.nickname", "I2PSensor-" + i);
+        opts.setProperty("outbound.nickname", "I2PSensor-" + i);
+        opts.putAll(shardOptions(i));
+        I2PSocketManager manager = null;
+        try {
+            byte[] key = keys.loadOrCreate(keyFile);
+            I2PSession session;
+            if(subsession) {
+                session = i2pSession.addSubsession(new ByteArrayInputStream(key), opts);
+            } else {
+                manager = I2PSocketManagerFactory.createDisconnectedManager(new ByteArrayInputStream(key), null, 0, opts);
+                session = manager.getSession();
+            }
+            session.connect();
+            session.addMuxedSessionListener(this, I2PSession.PROTO_ANY, I2PSession.PORT_ANY);
+            if(manager != null)
+                shardManagers.add(manager);
+            LOG.info("I2P Sensor shard "+i+" destination fingerprint: "+session.getMyDestination().calculateHash().toBase64());
+            return session;
+        } catch (I2PException | IOException e) {
+            LOG.warning("Unable to add I2P session shard "+i+": "+e.getLocalizedMessage());
+            if(manager != null)
+                manager.destroySocketManager();
+            return null;
+        }
+    }
+
+    /**
+     * @return the inbound.* and outbound.* options set for shard i alone; empty for the primary session
+     */
+    private Properties shardOptions(int i) {
+        Properties opts = new Properties();
+        if(i <= 0)
+            return opts;
+        String prefix = "1m5.sensors.i2p.shards." + i + ".";
+        for(String name : properties.stringPropertyNames()) {
+            String option = name.startsWith(prefix) ? name.substring(prefix.length()) : null;
+            if(option != null && (option.startsWith("inbound.") || option.startsWith("outbound.")))
+                opts.setProperty(option, properties.getProperty(name));
+        }
+        return opts;
+    }
+
     public File getDirectory() {
         if(i2pDir==null) {
             i2pDir = new File(i2pBaseDir);
@@ -360,67 +1090,27 @@ public class I2PSensor extends BaseSensor implements I2PSessionMuxedListener {
         sessionProperties.setProperty("outbound.nickname", "I2PSensor");
         sessionProperties.putAll(getI2CPOptions());
 
-        // read the local destination key from the key file if it exists
+        String leaseSetEncType = DestinationKeys.leaseSetEncType(properties);
+        if(leaseSetEncType != null)
+            sessionProperties.setProperty("i2cp.leaseSetEncType", leaseSetEncType);
+
+        // read the local destination key from the key file, creating or migrating it if needed
+        DestinationKeys keys = DestinationKeys.fromProperties(properties);
         File destinationKeyFile = getDestinationKeyFile();
-        FileReader fileReader = null;
+        // Not the previous start's
+        socketManager = null;
         try {
-            fileReader = new FileReader(destinationKeyFile);
-            char[] destKeyBuffer = new char[(int)destinationKeyFile.length()];
-            fileReader.read(destKeyBuffer);
-            byte[] localDestinationKey = Base64.decode(new String(destKeyBuffer));
-            ByteArrayInputStream inputStream = new ByteArrayInputStream(localDestinationKey);
-            socketManager = I2PSocketManagerFactory.createDisconnectedManager(inputStream, null, 0, sessionProperties);
+            byte[] localDestinationKey = keys.loadOrCreate(destinationKeyFile);
+            LOG.info("Creating I2P Socket Manager...");
+            socketManager = I2PSocketManagerFactory.createDisconnectedManager(new ByteArrayInputStream(localDestinationKey), null, 0, sessionProperties);
+            LOG.info("I2P Socket Manager created.");
+        } catch (I2PException e) {
+            LOG.warning("Error creating local destination key: " + e.getLocalizedMessage());
         } catch (IOException e) {
-            LOG.info("Destination key file doesn't exist or isn't readable." + e);
-        } catch (I2PSessionException e) {
-            // Won't happen, inputStream != null
-            e.printStackTrace();
-            LOG.warning(e.getLocalizedMessage());
-        } finally {
-            if (fileReader != null) {
-                try {
-                    fileReader.close();
-                } catch (IOException e) {
-                    LOG.warning("Error closing file: " + destinationKeyFile.getAbsolutePath() + ": " + e);
-                }
-            }
-        }
-
-        // if the local destination key can't be read or is invalid, create a new one
-        if (socketManager == null) {
-            LOG.info("Creating new local destination key");
-            try {
-                ByteArrayOutputStream arrayStream = new ByteArrayOutputStream();
-                I2PClientFactory.createClient().createDestination(arrayStream);
-                byte[] localDestinationKey = arrayStream.toByteArray();
-
-                LOG.info("Creating I2P Socket Manager...");
-                ByteArrayInputStream inputStream = new ByteArrayInputStream(localDestinationKey);
-                socketManager = I2PSocketManagerFactory.createDisconnectedManager(inputStream, null, 0, sessionProperties);
-                LOG.info("I2P Socket Manager created.");
-
-                destinationKeyFile = new SecureFile(destinationKeyFile.getAbsolutePath());
-                if (destinationKeyFile.exists()) {
-                    File oldKeyFile = new File(destinationKeyFile.getPath() + "_backup");
-                    if (!destinationKeyFile.renameTo(oldKeyFile))
-                        LOG.warning("Cannot rename destination key file <" + destinationKeyFile.getAbsolutePath() + "> to <" + oldKeyFile.getAbsolutePath() + ">");
-                } else if (!destinationKeyFile.createNewFile()) {
-                    LOG.warning("Cannot create destination key file: <" + destinationKeyFile.getAbsolutePath() + ">");
-                }
-
-                BufferedWriter fileWriter = new BufferedWriter(new OutputStreamWriter(new SecureFileOutputStream(destinationKeyFile)));
-                try {
-                    fileWriter.write(Base64.encode(localDestinationKey));
-                }
-                finally {
-                    fileWriter.close();
-                }
-            } catch (I2PException e) {
-                LOG.warning("Error creating local destination key: " + e.getLocalizedMessage());
-            } catch (IOException e) {
-                LOG.warning("Error writing local destination key to file: " + e.getLocalizedMessage());
-            }
+            LOG.warning("Error reading or writing local destination key file: " + e.getLocalizedMessage());
         }
+        if(socketManager == null)
+            throw new I2PSessionException("Unable to create I2P session from destination key " + destinationKeyFile);
 
         i2pSession = socketManager.getSession();
         // Throws I2PSessionException if the connection fails
@@ -436,6 +1126,7 @@ public class I2PSensor extends BaseSensor implements I2PSessionMuxedListener {
         String fingerprint = localDestination.calculateHash().toBase64();
         LOG.info("I2PSensor Local destination key in base64: " + address);
         LOG.info("I2PSensor Local destination fingerprint (hash) in base64: " + fingerprint);
+        LOG.info("I2PSensor Local destination signature type: " + localDestination.getSigningPublicKey().getType().name());
 
         i2pSession.addMuxedSessionListener(this, I2PSession.PROTO_ANY, I2PSession.PORT_ANY);
 
@@ -443,25 +1134,75 @@ public class I2PSensor extends BaseSensor implements I2PSessionMuxedListener {
         np.setAddress(address);
         np.setFingerprint(fingerprint);
 
+        // Additional shards, each with its own destination: by default sessions of their own with their
+        // own tunnel pools; as subsessions (1m5.sensors.i2p.shards.mode=subsessions) they only add
+        // destinations and share the primary session's tunnels
+        boolean subsessions = "subsessions".equals(properties.getProperty("1m5.sensors.i2p.shards.mode"));
+        SessionShards sessionShards = new SessionShards(
+                Integer.parseInt(properties.getProperty("1m5.sensors.i2p.shards.virtualNodes", "128")));
+        sessionShards.add(i2pSession);
+        List<NetworkPeer> shardPeers = new ArrayList<>();
+        shardPeers.add(np);
+        int shardCount = Integer.parseInt(properties.getProperty("1m5.sensors.i2p.shards", "1"));
+        for(int i=1; i<shardCount; i++) {
+            I2PSession shard = addShard(i, sessionProperties, keys, subsessions);
+            if(shard == null)
+                continue;
+            sessionShards.add(shard, i);
+            NetworkPeer shardPeer = new NetworkPeer(NetworkPeer.Network.I2P.name());
+            shardPeer.setAddress(shard.getMyDestination().toBase64());
+            shardPeer.setFingerprint(shard.getMyDestination().calculateHash().toBase64());
+            shardPeers.add(shardPeer);
+        }
+        shards = sessionShards;
+        if(shardCount > 1)
+            LOG.info("I2P Sensor sending from "+sessionShards.size()+" of "+shardCount+" "+(subsessions ? "subsession" : "session")+" shards.");
+
         if(!isTest) {
-            // Publish local I2P address
+            // Publish local I2P address; when sharded, every shard's peer is attached as
+            // the SessionShards data of the envelope, primary first
             LOG.info("Publishing local I2P Network Peer key...");
             Envelope e = Envelope.eventFactory(EventMessage.Type.STATUS_DID);
             EventMessage m = (EventMessage) e.getMessage();
             m.setName(fingerprint);
             m.setMessage(np);
+            if(shardPeers.size() > 1)
+                DLC.addData(SessionShards.class, shardPeers, e);
             DLC.addRoute(NotificationService.class, NotificationService.OPERATION_PUBLISH, e);
             sensorManager.sendToBus(e);
         }
         if(taskRunner==null) {
             taskRunner = new TaskRunner();
         }
-        taskRunner.addTask(new CheckRouterStats("I2PStatusCheck", taskRunner, this));
+        schedule(new CheckRouterStats("I2PStatusCheck", taskRunner, this));
+        if(!"false".equals(properties.getProperty("1m5.sensors.i2p.stats.enabled"))) {
+            RouterStatsCollector collector = new RouterStatsCollector("I2PRouterStats", taskRunner, this, properties);
+            collector.registerGauges(metrics);
+            routerStats = collector;
+            schedule(collector);
+        }
+        if(!"false".equals(properties.getProperty("1m5.sensors.i2p.config.watch.enabled"))) {
+            schedule(new I2PConfigWatcher("I2PConfigWatcher", taskRunner, this, getI2CPConfigFile(),
+                    new File(i2pBaseDir, "router.config"),
+                    Long.parseLong(properties.getProperty("1m5.sensors.i2p.config.watchIntervalMs", "10000"))));
+        }
+        if("true".equals(properties.getProperty("1m5.sensors.i2p.autotune.enabled"))) {
+            schedule(new TunnelAutoTuner("I2PTunnelAutoTuner", taskRunner, this, properties));
+        }
+        if(warmStart != null) {
+            schedule(new SaveWarmStartSnapshot("I2PWarmStartSnapshot", taskRunner, this,
+                    Long.parseLong(properties.getProperty("1m5.sensors.i2p.warmstart.intervalMs", String.valueOf(10 * 60 * 1000)))));
+        }
         if(taskRunner.getStatus() != TaskRunner.Status.Running) {
             new Thread(taskRunner).start();
         }
     }
 
+    private void schedule(SensorTask task) {
+        tasks.add(task);
+        taskRunner.addTask(task);
+    }
+
     @Override
     public boolean start(Properties p) {
         LOG.info("Initializing I2P Sensor...");
@@ -480,6 +1221,14 @@ public class I2PSensor extends BaseSensor implements I2PSessionMuxedListener {
                 return false;
             }
         }
+        // Tenants sharing the router keep their keys, outbox, warm start snapshot and JMX name in their own
+        // directory; the default tenant in the base directory
+        tenant = properties.getProperty("1m5.sensors.i2p.tenant", DEFAULT_TENANT);
+        tenantDir = DEFAULT_TENANT.equals(tenant) ? i2pDir : new File(new File(i2pDir, "tenants"), tenant);
+        if(!tenantDir.exists() && !tenantDir.mkdirs()) {
+            LOG.severe("Unable to create I2P tenant directory: " + tenantDir + "; exiting...");
+            return false;
+        }
         System.setProperty("i2p.dir.base",i2pBaseDir);
         properties.setProperty("i2p.dir.base",i2pBaseDir);
         properties.setProperty("1m5.dir.sensors.i2p",i2pBaseDir);
@@ -579,22 +1328,122 @@ public class I2PSensor extends BaseSensor implements I2PSessionMuxedListener {
 //            }
 //        }
 
-        if(!copyCertificatesToBaseDir(seedCertificates, sslCertificates))
-            return false;
+        // Extract certificates in the background; waited for before launch when the router will reseed
+        final File reseedCertificatesDir = seedCertificates;
+        final File sslCertificatesDir = sslCertificates;
+        FutureTask<Boolean> certificatesCopied = new FutureTask<>(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return copyCertificatesToBaseDir(reseedCertificatesDir, sslCertificatesDir);
+            }
+        });
+        new Thread(certificatesCopied, "I2PSensor-Certificates").start();
+
+        initializePipelines();
+        if(!"false".equals(properties.getProperty("1m5.sensors.i2p.addressbook.enabled"))) {
+            addressBook = AddressBook.load(i2pDir);
+            destinationCache.setAddressBook(addressBook);
+            LOG.info("Address book loaded: "+addressBook);
+        }
+
+        // Warm start from the last snapshot, falling back to the bundled peers
+        warmStarted = false;
+        File netDb = new File(properties.getProperty("i2p.dir.router", i2pBaseDir + "/router"), "netDb");
+        if(!"false".equals(properties.getProperty("1m5.sensors.i2p.warmstart.enabled"))) {
+            warmStart = new WarmStartSnapshot(new File(tenantDir, WarmStartSnapshot.FILE_NAME),
+                    Integer.parseInt(properties.getProperty("1m5.sensors.i2p.warmstart.maxRouters", "500")),
+                    Integer.parseInt(properties.getProperty("1m5.sensors.i2p.warmstart.maxDestinations", "256")),
+                    Long.parseLong(properties.getProperty("1m5.sensors.i2p.warmstart.maxAgeMs", String.valueOf(7 * 24 * 60 * 60 * 1000L))));
+            if(warmStart.load()) {
+                int routers = warmStart.preloadRouterInfos(netDb);
+                int destinations = warmStart.preloadDestinations(destinationCache);
+                LOG.info("Warm start: preloaded "+routers+" routers into netDb and "+destinations+" destinations.");
+                warmStarted = true;
+            }
+        }
+        if(!warmStarted) {
+            LOG.info("Cold start: preloaded "+WarmStartSnapshot.preloadBuiltInPeers(destinationCache)+" built-in peers.");
+        }
+
+        registerGauges();
+        metrics.registerMBean(tenantDir.getPath());
+
+        if("true".equals(properties.getProperty("1m5.sensors.i2p.outbox.enabled"))) {
+            DurableOutbox o = new DurableOutbox(new File(tenantDir, "outbox"),
+                    Integer.parseInt(properties.getProperty("1m5.sensors.i2p.outbox.segmentSize", String.valueOf(16 * 1024 * 1024))),
+                    Integer.parseInt(properties.getProperty("1m5.sensors.i2p.outbox.replayConcurrency", "4")),
+                    Integer.parseInt(properties.getProperty("1m5.sensors.i2p.outbox.maxAttempts", "3")),
+                    "true".equals(properties.getProperty("1m5.sensors.i2p.outbox.force")),
+                    new DurableOutbox.Replayer() {
+                        @Override
+                        public DurableOutbox.Outcome replay(String address, byte[] payload) {
+                            return replayTo(address, payload);
+                        }
+                    });
+            try {
+                o.open();
+                o.registerGauges(metrics);
+                outbox = o;
+            } catch (IOException e) {
+                LOG.warning("Unable to open durable outbox; continuing without it: "+e.getLocalizedMessage());
+                o.close();
+            }
+        }
+
+        if(supervisor == null) {
+            supervisor = new RestartSupervisor(this,
+                    Long.parseLong(properties.getProperty("1m5.sensors.i2p.supervisor.baseDelayMs", "5000")),
+                    Long.parseLong(properties.getProperty("1m5.sensors.i2p.supervisor.maxDelayMs", String.valueOf(5 * 60 * 1000))),
+                    Long.parseLong(properties.getProperty("1m5.sensors.i2p.supervisor.recoveryTimeoutMs", String.valueOf(3 * 60 * 1000))),
+                    Long.parseLong(properties.getProperty("1m5.sensors.i2p.supervisor.pollMs", "1000")),
+                    Integer.parseInt(properties.getProperty("1m5.sensors.i2p.supervisor.hardRestartAfter", String.valueOf(RESTART_ATTEMPTS_UNTIL_HARD_RESTART))),
+                    Integer.parseInt(properties.getProperty("1m5.sensors.i2p.supervisor.maxHeld", "10000")));
+            supervisor.registerGauges(metrics);
+        }
+
+        // With too few known routers the router reseeds right after launch, which needs the certificates
+        boolean reseeding = WarmStartSnapshot.countRouterInfos(netDb) < RESEED_MIN_ROUTERS;
+        if(reseeding) {
+            LOG.info("Too few known routers; waiting for certificates before launch to reseed.");
+            if(!certificatesCopied(certificatesCopied, certDir)) {
+                abortStart();
+                return false;
+            }
+        }
 
         // Start I2P Router
         LOG.info("Launching I2P Router...");
-        new Thread(new RouterStarter()).start();
+        networkConnectedMs = -1L;
+        launchedAt = System.currentTimeMillis();
+        RouterLease l = new RouterLease(tenant);
+        lease.set(l);
+        new Thread(new RouterStarter(l)).start();
+
+        if(!reseeding && !certificatesCopied(certificatesCopied, certDir)) {
+            abortStart();
+            return false;
+        }
 
-        CountDownLatch startSignal = new CountDownLatch(1);
-        CountDownLatch doneSignal = new CountDownLatch(1);
+        RouterReadiness readiness = new RouterReadiness(this,
+                Long.parseLong(properties.getProperty("1m5.sensors.i2p.startup.maxWaitMs", String.valueOf(3 * 60 * 1000))),
+                Long.parseLong(properties.getProperty("1m5.sensors.i2p.startup.pollMs", "500")),
+                Integer.parseInt(properties.getProperty("1m5.sensors.i2p.startup.minActivePeers", "3")),
+                Integer.parseInt(properties.getProperty("1m5.sensors.i2p.startup.minKnownRouters", "20")));
 
         try {
             updateStatus(SensorStatus.WAITING);
-            LOG.info("Waiting 3 minutes for I2P Router to warm up...");
-            // TODO: Replace with wait time based on I2P router status to lower start up time
-            startSignal.await(3, TimeUnit.MINUTES);
-            LOG.info("I2P Router should be warmed up. Initializing session...");
+            LOG.info("Waiting for I2P Router to warm up...");
+            if(!readiness.await() && routerContext == null) {
+                LOG.severe("I2P Router did not start; exiting...");
+                updateStatus(SensorStatus.ERROR);
+                abortStart();
+                return false;
+            }
+            recordNetworkConnected();
+            if(warmStarted && routerContext != null) {
+                LOG.info("Warm start: restored "+warmStart.restoreLeaseSets(routerContext)+" leasesets.");
+            }
+            LOG.info("I2P Router warmed up. Initializing session...");
             initializeSession();
             if(routerContext.commSystem().isInStrictCountry()) {
                 LOG.warning("This peer is in a 'strict' country defined by I2P.");
@@ -602,22 +1451,173 @@ public class I2PSensor extends BaseSensor implements I2PSessionMuxedListener {
             if(routerContext.router().isHidden()) {
                 LOG.warning("Router was placed in Hidden mode. 1M5 setting for hidden mode: "+properties.getProperty("hidden"));
             }
-            doneSignal.countDown();
         } catch (InterruptedException e) {
             LOG.warning("Start interrupted, exiting");
             updateStatus(SensorStatus.ERROR);
             e.printStackTrace();
+            abortStart();
             return false;
         } catch (Exception e) {
             LOG.severe("Unable to start I2PSensor: "+e.getLocalizedMessage());
             updateStatus(SensorStatus.ERROR);
             e.printStackTrace();
+            abortStart();
             return false;
         }
         LOG.info("Started.");
         return true;
     }
 
+    /**
+     * Waits for certificate extraction, marking the sensor in error if it failed.
+     */
+    private boolean certificatesCopied(FutureTask<Boolean> extraction, File certDir) {
+        try {
+            if(extraction.get())
+                return true;
+            LOG.severe("Unable to copy certificates to "+certDir+"; exiting...");
+        } catch (InterruptedException | ExecutionException e) {
+            LOG.severe("Certificate extraction failed: "+e.getLocalizedMessage());
+        }
+        updateStatus(SensorStatus.ERROR);
+        return false;
+    }
+
+    /**
+     * Give up this start's session and reference to the shared router, even if the router is still launching,
+     * and release everything else the start set up.
+     */
+    private void abortStart() {
+        detach(lease.getAndSet(null), i2pSession, socketManager, false);
+        release(false);
+    }
+
+    /**
+     * Undo what a start set up besides the session and router: the pipelines of {@link #initializePipelines()},
+     * the tasks it scheduled, the durable outbox and the MBean.
+     * @param graceful let queued sends complete rather than failing them
+     */
+    private void release(boolean graceful) {
+        if(taskRunner != null) {
+            for(SensorTask task : tasks) {
+                taskRunner.removeTask(task);
+            }
+        }
+        tasks.clear();
+        routerStats = null;
+        if(outbox != null) {
+            outbox.close();
+            outbox = null;
+        }
+        metrics.unregisterMBean();
+        if(outbound != null) {
+            if(graceful)
+                outbound.shutdown();
+            else
+                outbound.shutdownNow();
+        }
+        if(inbound != null)
+            inbound.shutdown();
+        if(verifier != null)
+            verifier.shutdown();
+        if(datagramSender != null) {
+            if(graceful) {
+                datagramSender.shutdown();
+            } else {
+                // Callers waiting on queued sends see them cancelled rather than waiting out their timeout
+                for(Runnable r : datagramSender.shutdownNow()) {
+                    if(r instanceof Future)
+                        ((Future<?>)r).cancel(false);
+                }
+            }
+        }
+        if(reassembler != null)
+            reassembler.clear();
+        if(rawSessions != null)
+            rawSessions.clear();
+    }
+
+    /**
+     * Fragmentation, inbound and outbound queues, signature verification and the destination cache.
+     */
+    private void initializePipelines() {
+        // Fragmentation of large payloads
+        reassembler = new FragmentReassembler(
+                Integer.parseInt(properties.getProperty("1m5.sensors.i2p.fragment.maxPending", "64")),
+                Long.parseLong(properties.getProperty("1m5.sensors.i2p.fragment.maxBufferedBytes", String.valueOf(32 * 1024 * 1024))),
+                Long.parseLong(properties.getProperty("1m5.sensors.i2p.fragment.timeoutMs", String.valueOf(2 * 60 * 1000))));
+        datagramSender = Executors.newFixedThreadPool(
+                Integer.parseInt(properties.getProperty("1m5.sensors.i2p.datagram.senderThreads", "4")),
+                new OutboundPipeline.NamedThreadFactory("I2PSensor-Datagrams"));
+
+        // Raw datagrams for established peers
+        if("true".equals(properties.getProperty("1m5.sensors.i2p.raw.enabled"))) {
+            rawSessions = new RawDatagramSessions(
+                    Long.parseLong(properties.getProperty("1m5.sensors.i2p.raw.tokenTtlMs", String.valueOf(60 * 60 * 1000))),
+                    Long.parseLong(properties.getProperty("1m5.sensors.i2p.raw.refreshMs", String.valueOf(30 * 1000))),
+                    Integer.parseInt(properties.getProperty("1m5.sensors.i2p.raw.maxInboundTokens", "4096")));
+        }
+
+        // Admission ahead of inbound queueing and verification
+        if(!"false".equals(properties.getProperty("1m5.sensors.i2p.admission.enabled")))
+            admission = InboundAdmission.fromProperties(properties, rawSessions);
+
+        // Suppression of datagrams received more than once; off unless enabled as it also drops
+        // identical messages a sender means to deliver twice within the window
+        if("true".equals(properties.getProperty("1m5.sensors.i2p.dedupe.enabled"))) {
+            duplicates = new DuplicateFilter(
+                    Long.parseLong(properties.getProperty("1m5.sensors.i2p.dedupe.windowMs", "10000")),
+                    Integer.parseInt(properties.getProperty("1m5.sensors.i2p.dedupe.maxEntries", "32768")));
+        }
+
+        // Inbound workers and signature verification
+        verifier = new DatagramVerifier(
+                Integer.parseInt(properties.getProperty("1m5.sensors.i2p.inbound.verifyThreads", String.valueOf(Runtime.getRuntime().availableProcessors()))),
+                Integer.parseInt(properties.getProperty("1m5.sensors.i2p.inbound.maxSenders", "4096")));
+        int inboundWorkers = Integer.parseInt(properties.getProperty("1m5.sensors.i2p.inbound.workers",
+                String.valueOf(Math.max(2, Runtime.getRuntime().availableProcessors() / 2))));
+        if(inboundWorkers > 0) {
+            inbound = new InboundDispatcher(this, verifier, inboundWorkers,
+                    Integer.parseInt(properties.getProperty("1m5.sensors.i2p.inbound.queueCapacity", "10000")),
+                    Integer.parseInt(properties.getProperty("1m5.sensors.i2p.inbound.maxBatch", "32")));
+            inbound.start();
+        }
+
+        // Outbound queue
+        asyncSend = "true".equals(properties.getProperty("1m5.sensors.i2p.outbound.async"));
+        outbound = new OutboundPipeline(this,
+                Integer.parseInt(properties.getProperty("1m5.sensors.i2p.outbound.workers", "4")),
+                Integer.parseInt(properties.getProperty("1m5.sensors.i2p.outbound.queueCapacity", "1000")),
+                OutboundPipeline.RejectionPolicy.valueOf(properties.getProperty("1m5.sensors.i2p.outbound.rejectionPolicy", "REJECT").toUpperCase()),
+                Long.parseLong(properties.getProperty("1m5.sensors.i2p.outbound.blockTimeoutMs", "5000")));
+
+        destinationCache = new DestinationCache(
+                Integer.parseInt(properties.getProperty("1m5.sensors.i2p.destCache.maxEntries", "4096")),
+                Long.parseLong(properties.getProperty("1m5.sensors.i2p.destCache.ttlMs", String.valueOf(10 * 60 * 1000))),
+                Long.parseLong(properties.getProperty("1m5.sensors.i2p.destCache.negativeTtlMs", String.valueOf(30 * 1000))));
+    }
+
+    /**
+     * Wire the sensor to an already connected session instead of launching a router,
+     * e.g. a stand-in session for benchmarks and offline load tests.
+     * Features depending on the router or the base directory are left off.
+     */
+    void attach(Properties p, I2PSession session) {
+        attach(p, session, null);
+    }
+
+    /**
+     * @param sessionShards the session and its shards or null if not sharded
+     */
+    void attach(Properties p, I2PSession session, SessionShards sessionShards) {
+        properties = p;
+        initializePipelines();
+        i2pSession = session;
+        shards = sessionShards;
+        session.addMuxedSessionListener(this, I2PSession.PROTO_ANY, I2PSession.PORT_ANY);
+        updateStatus(SensorStatus.NETWORK_CONNECTED);
+    }
+
     @Override
     public boolean pause() {
         return false;
@@ -628,13 +1628,31 @@ public class I2PSensor extends BaseSensor implements I2PSessionMuxedListener {
         return false;
     }
 
+    /**
+     * Schedule recovery of the router with the supervisor; returns without waiting.
+     * @return false if the sensor has not been started
+     */
     @Override
     public boolean restart() {
-        if(router==null) {
+        RestartSupervisor s = supervisor;
+        if(s == null) {
+            LOG.warning("Unable to restart I2P Router. Sensor not started.");
+            return false;
+        }
+        s.requestRestart("Restart requested.");
+        return true;
+    }
+
+    /**
+     * Restart the router on the calling thread; called by the {@link RestartSupervisor}.
+     * @param hard shut down and start the sensor rather than restarting the router in place
+     */
+    boolean restartNow(boolean hard) {
+        if(router==null && routerContext != null) {
             router = routerContext.router();
         }
         if(router != null) {
-            if(restartAttempts.equals(RESTART_ATTEMPTS_UNTIL_HARD_RESTART)) {
+            if(hard) {
                 LOG.info("Full restart of I2P Router...");
                 if(!shutdown()) {
                     LOG.warning("Issues shutting down I2P Router. Will attempt to start regardless...");
@@ -648,7 +1666,11 @@ public class I2PSensor extends BaseSensor implements I2PSessionMuxedListener {
             } else {
                 LOG.info("Soft restart of I2P Router...");
                 updateStatus(SensorStatus.RESTARTING);
-                router.restart();
+                // Shared with other tenants' restarts for the same fault
+                if(!I2PRouterUtil.restartRouter(tenant)) {
+                    LOG.warning("Unable to restart I2P Router. Router not running.");
+                    return false;
+                }
                 LOG.info("I2P Router soft restart completed.");
             }
             return true;
@@ -658,78 +1680,159 @@ public class I2PSensor extends BaseSensor implements I2PSessionMuxedListener {
         return false;
     }
 
+    /**
+     * Snapshot router state for the next start; no-op when warm start is disabled or the router is not up.
+     */
+    public void saveWarmStartSnapshot() {
+        if(warmStart != null && routerContext != null)
+            warmStart.save(routerContext, destinationCache);
+    }
+
     @Override
     public boolean shutdown() {
         updateStatus(SensorStatus.SHUTTING_DOWN);
-        taskRunner.shutdown();
-        new Thread(new RouterStopper()).start();
+        saveWarmStartSnapshot();
+        if(supervisor != null && supervisor.shutdown())
+            supervisor = null;
+        release(false);
+        if(taskRunner != null)
+            taskRunner.shutdown();
+        // Released before returning so a following start acquires the router afresh
+        new RouterStopper(lease.getAndSet(null), i2pSession, socketManager, false).run();
         return true;
     }
 
     @Override
     public boolean gracefulShutdown() {
         updateStatus(SensorStatus.GRACEFULLY_SHUTTING_DOWN);
+        saveWarmStartSnapshot();
+        if(supervisor != null && supervisor.shutdown())
+            supervisor = null;
+        // Queued sends are left to complete
+        release(true);
+        if(taskRunner != null)
+            taskRunner.shutdown();
         // will teardown in 11 minutes or less
-        new Thread(new RouterGracefulStopper()).start();
+        new Thread(new RouterStopper(lease.getAndSet(null), i2pSession, socketManager, true)).start();
         return true;
     }
 
     private class RouterStarter implements Runnable {
+        private final RouterLease l;
+
+        private RouterStarter(RouterLease l) {
+            this.l = l;
+        }
+
         public void run() {
-            RouterLaunch.main(null);
-            List<RouterContext> routerContexts = RouterContext.listContexts();
-            routerContext = routerContexts.get(0);
-            router = routerContext.router();
-            // Override hidden mode even when in I2P defined 'strict' countries
-            router.saveConfig(Router.PROP_HIDDEN, properties.getProperty("hidden"));
-            router.setKillVMOnEnd(false);
-            routerContext.addShutdownTask(new RouterStopper());
-            // Hard code to INFO for now for troubleshooting; need to move to configuration
-            routerContext.logManager().setDefaultLimit(Log.STR_INFO);
-            routerContext.logManager().setFileSize(100000000); // 100 MB
+            // Launches the router unless another sensor in this JVM already has
+            RouterContext ctx = I2PRouterUtil.acquireRouter(tenant, properties, new I2PRouterUtil.RestartListener() {
+                @Override
+                public void routerRestarting(String requestedBy) {
+                    LOG.info("Shared I2P Router restarting at the request of tenant "+requestedBy+".");
+                    updateStatus(SensorStatus.RESTARTING);
+                }
+            });
+            if(!l.acquired()) {
+                // Start abandoned or sensor shut down while launching
+                return;
+            }
+            router = ctx.router();
+            routerContext = ctx;
+            routerContext.addShutdownTask(new Runnable() {
+                @Override
+                public void run() {
+                    // Only the current start's session is this router's to destroy
+                    if(lease.compareAndSet(l, null))
+                        new RouterStopper(l, i2pSession, socketManager, false).run();
+                    else
+                        l.release(false);
+                }
+            });
         }
     }
 
+    /**
+     * Destroys the session and socket manager taken when stopping began, then releases the lease.
+     */
     private class RouterStopper implements Runnable {
+        private final RouterLease l;
+        private final I2PSession session;
+        private final I2PSocketManager manager;
+        private final boolean graceful;
+
+        private RouterStopper(RouterLease l, I2PSession session, I2PSocketManager manager, boolean graceful) {
+            this.l = l;
+            this.session = session;
+            this.manager = manager;
+            this.graceful = graceful;
+        }
+
         public void run() {
-            LOG.info("I2P router stopping...");
-            try {
-                if (i2pSession != null)
-                    i2pSession.destroySession();
-            } catch (I2PSessionException e) {
-                LOG.warning("Can't destroy I2P session.: "+e.getLocalizedMessage());
-            }
+            LOG.info("I2P router "+(graceful ? "gracefully " : "")+"stopping...");
+            detach(l, session, manager, graceful);
+            updateStatus(graceful ? SensorStatus.GRACEFULLY_SHUTDOWN : SensorStatus.SHUTDOWN);
+            LOG.info("I2P router "+(graceful ? "gracefully " : "")+"stopped.");
+        }
+    }
 
-            if (socketManager != null)
-                socketManager.destroySocketManager();
+    private void detach(RouterLease l, I2PSession session, I2PSocketManager manager, boolean graceful) {
+        try {
+            if (session != null)
+                session.destroySession();
+        } catch (I2PSessionException e) {
+            LOG.warning("Can't destroy I2P session.: "+e.getLocalizedMessage());
+        }
 
-            if(router != null) {
-                router.shutdown(Router.EXIT_HARD);
-            }
-            updateStatus(SensorStatus.SHUTDOWN);
-            LOG.info("I2P router stopped.");
+        if (manager != null)
+            manager.destroySocketManager();
+        for(I2PSocketManager m : shardManagers) {
+            if(shardManagers.remove(m))
+                m.destroySocketManager();
         }
+
+        // The router stops once no other sensor is using it
+        if(l != null)
+            l.release(graceful);
     }
 
-    private class RouterGracefulStopper implements Runnable {
-        public void run() {
-            LOG.info("I2P router gracefully stopping...");
+    /**
+     * One acquisition of the shared router, released at most once. Released before the
+     * acquisition completes, it is released as soon as it does.
+     */
+    private static class RouterLease {
+        private final String tenant;
+        private boolean acquired = false;
+        private boolean released = false;
 
-            try {
-                if (i2pSession != null)
-                    i2pSession.destroySession();
-            } catch (I2PSessionException e) {
-                LOG.warning("Can't destroy I2P session.: "+e.getLocalizedMessage());
-            }
+        private RouterLease(String tenant) {
+            this.tenant = tenant;
+        }
 
-            if (socketManager != null)
-                socketManager.destroySocketManager();
+        /**
+         * @return false if released while acquiring; the router reference is then given back
+         */
+        private boolean acquired() {
+            synchronized (this) {
+                if(!released) {
+                    acquired = true;
+                    return true;
+                }
+            }
+            I2PRouterUtil.releaseRouter(tenant, false);
+            return false;
+        }
 
-            if(router != null) {
-                router.shutdownGracefully(Router.EXIT_GRACEFUL);
+        private void release(boolean graceful) {
+            synchronized (this) {
+                if(released)
+                    return;
+                released = true;
+                if(!acquired)
+                    return;
             }
-            updateStatus(SensorStatus.GRACEFULLY_SHUTDOWN);
-            LOG.info("I2P router gracefully stopped.");
+            // Not under the lock: shutting the router down runs its shutdown tasks, which release leases
+            I2PRouterUtil.releaseRouter(tenant, graceful);
         }
     }
 
@@ -739,14 +1842,158 @@ public class I2PSensor extends BaseSensor implements I2PSessionMuxedListener {
             if (I2CP_PARAMETERS.contains(entry.getKey()))
                 opts.put(entry.getKey(), entry.getValue());
         }
+        // Options in i2cp.config override the sensor's properties
+        Properties config = i2cpOptions(I2PConfigWatcher.load(getI2CPConfigFile()));
+        opts.putAll(config);
+        i2cpConfig = config;
         return opts;
     }
 
+    /**
+     * @return the I2CP options among the properties
+     */
+    private static Properties i2cpOptions(Properties p) {
+        Properties opts = new Properties();
+        for (Map.Entry<Object, Object> entry : p.entrySet()) {
+            if (I2CP_PARAMETERS.contains(entry.getKey()))
+                opts.put(entry.getKey(), entry.getValue());
+        }
+        return opts;
+    }
+
+    private File getI2CPConfigFile() {
+        return new File(i2pBaseDir, I2PConfigWatcher.I2CP_CONFIG_FILE_NAME);
+    }
+
+    /**
+     * Apply changed inbound.* and outbound.* tunnel options to the live session and its shards;
+     * the router reconfigures the sessions' tunnel pools without a restart. They are kept in the
+     * sensor's properties for the next session.
+     * Options a shard overrides with 1m5.sensors.i2p.shards.&lt;i&gt;.* are left as they are on that shard.
+     * Other I2CP options, e.g. the domain socket, only take effect on the next start.
+     *
+     * @param options I2CP options, unknown and unchanged ones are ignored
+     * @return true if the session was updated
+     */
+    public synchronized boolean updateI2CPOptions(Properties options) {
+        Properties changed = applyI2CPOptions(options);
+        if(changed == null)
+            return false;
+        // Keep them for the next session
+        properties.putAll(changed);
+        return true;
+    }
+
+    /**
+     * Apply i2cp.config as it now reads, as {@link #updateI2CPOptions(Properties)} does. An option removed
+     * from the file goes back to the sensor's own setting or, without one, to the router's default.
+     * The file's options are not kept in the sensor's properties: the file is read again on the next start.
+     *
+     * @param config the options in i2cp.config
+     * @return true if the session was updated
+     */
+    public synchronized boolean reloadI2CPConfig(Properties config) {
+        Properties current = i2cpOptions(config);
+        Properties options = new Properties();
+        for(String key : i2cpConfig.stringPropertyNames()) {
+            String value = properties.getProperty(key, I2CP_DEFAULTS.get(key));
+            if(!current.containsKey(key) && value != null)
+                options.setProperty(key, value);
+        }
+        options.putAll(current);
+        i2cpConfig = current;
+        return applyI2CPOptions(options) != null;
+    }
+
+    /**
+     * @return the options changed on any session or null if none
+     */
+    private Properties applyI2CPOptions(Properties options) {
+        if(i2pSession == null || i2pSession.isClosed()) {
+            LOG.warning("No open I2P session to update options on.");
+            return null;
+        }
+        Properties changed = new Properties();
+        SessionShards s = shards;
+        for(I2PSession session : s == null ? Collections.singletonList(i2pSession) : s.getSessions()) {
+            // Shard-specific overrides win over the options shared by every session
+            Properties overrides = shardOptions(s == null ? 0 : s.getShard(session));
+            Properties current = session.getOptions();
+            Properties sessionChanged = new Properties();
+            for (Map.Entry<Object, Object> entry : options.entrySet()) {
+                String key = (String)entry.getKey();
+                if (!I2CP_PARAMETERS.contains(key) || !(key.startsWith("inbound.") || key.startsWith("outbound."))
+                        || overrides.containsKey(key))
+                    continue;
+                if (current == null || !entry.getValue().equals(current.getProperty(key)))
+                    sessionChanged.put(key, entry.getValue());
+            }
+            if(sessionChanged.isEmpty())
+                continue;
+            Properties updated = new Properties();
+            if(current != null)
+                updated.putAll(current);
+            updated.putAll(sessionChanged);
+            session.updateOptions(updated);
+            changed.putAll(sessionChanged);
+        }
+        if(changed.isEmpty())
+            return null;
+        LOG.info("Updated I2CP options: "+changed);
+        return changed;
+    }
+
+    /**
+     * Re-merge router.config and apply settings that changed to the running router.
+     */
+    public synchronized void reloadRouterConfig() {
+        Properties previous = routerConfig;
+        mergeRouterConfig(null);
+        if(previous == null || routerConfig == null || router == null)
+            return;
+        Map<String, String> changed = new HashMap<>();
+        List<String> removed = new ArrayList<>();
+        diff(previous, routerConfig, changed, removed);
+        if(changed.isEmpty() && removed.isEmpty())
+            return;
+        if(router.saveConfig(changed, removed)) {
+            LOG.info("Applied router configuration; changed: "+changed.keySet()+", removed: "+removed);
+        } else {
+            LOG.warning("Unable to apply router configuration changes.");
+        }
+    }
+
+    /**
+     * @param changed receives the settings added or changed from previous to current
+     * @param removed receives the settings in previous but not in current
+     */
+    static void diff(Properties previous, Properties current, Map<String, String> changed, List<String> removed) {
+        for (Map.Entry<Object, Object> entry : current.entrySet()) {
+            if (!entry.getValue().equals(previous.get(entry.getKey())))
+                changed.put((String)entry.getKey(), (String)entry.getValue());
+        }
+        for (Object key : previous.keySet()) {
+            if (!current.containsKey(key))
+                removed.add((String)key);
+        }
+    }
+
     private File getDestinationKeyFile() {
-        return new File(i2pDir, DEST_KEY_FILE_NAME);
+        return new File(tenantDir, DEST_KEY_FILE_NAME);
+    }
+
+    /**
+     * Record the time from launch until the router first reports a connected status.
+     */
+    void recordNetworkConnected() {
+        if(networkConnectedMs >= 0 || launchedAt < 0 || !isNetworkConnected())
+            return;
+        networkConnectedMs = System.currentTimeMillis() - launchedAt;
+        LOG.info("Time to NETWORK_CONNECTED: "+networkConnectedMs+" ms ("+(warmStarted ? "warm" : "cold")+" start).");
     }
 
     private void reportRouterStatus() {
+        recordNetworkConnected();
 
         switch (getRouterStatus()) {
             case UNKNOWN:
@@ -771,41 +2018,42 @@ public class I2PSensor extends BaseSensor implements I2PSessionMuxedListener {
                 break;
             case OK:
                 LOG.info("Connected to I2P Network.");
-                restartAttempts = 0; // Reset restart attempts
+                recovered();
                 updateStatus(SensorStatus.NETWORK_CONNECTED);
                 break;
             case IPV4_DISABLED_IPV6_OK:
                 LOG.info("IPV4 Disabled but IPV6 OK: Connected to I2P Network.");
-                restartAttempts = 0; // Reset restart attempts
+                recovered();
                 updateStatus(SensorStatus.NETWORK_CONNECTED);
                 break;
             case IPV4_FIREWALLED_IPV6_OK:
                 LOG.info("IPV4 Firewalled but IPV6 OK: Connected to I2P Network.");
-                restartAttempts = 0; // Reset restart attempts
+                recovered();
                 updateStatus(SensorStatus.NETWORK_CONNECTED);
                 break;
             case IPV4_SNAT_IPV6_OK:
                 LOG.info("IPV4 SNAT but IPV6 OK: Connected to I2P Network.");
-                restartAttempts = 0; // Reset restart attempts
+                recovered();
                 updateStatus(SensorStatus.NETWORK_CONNECTED);
                 break;
             case IPV4_UNKNOWN_IPV6_OK:
                 LOG.info("IPV4 Testing but IPV6 OK: Connected to I2P Network.");
-                restartAttempts = 0; // Reset restart attempts
+                recovered();
                 updateStatus(SensorStatus.NETWORK_CONNECTED);
                 break;
             case IPV4_OK_IPV6_FIREWALLED:
                 LOG.info("IPV6 Firewalled but IPV4 OK: Connected to I2P Network.");
-                restartAttempts = 0; // Reset restart attempts
+                recovered();
                 updateStatus(SensorStatus.NETWORK_CONNECTED);
                 break;
             case IPV4_OK_IPV6_UNKNOWN:
                 LOG.info("IPV6 Testing but IPV4 OK: Connected to I2P Network.");
-                restartAttempts = 0; // Reset restart attempts
+                recovered();
                 updateStatus(SensorStatus.NETWORK_CONNECTED);
                 break;
             case IPV4_DISABLED_IPV6_FIREWALLED:
                 LOG.warning("IPV4 Disabled but IPV6 Firewalled. Connected to I2P network.");
+                recovered();
                 updateStatus(SensorStatus.NETWORK_CONNECTED);
                 break;
             case DISCONNECTED:
@@ -840,70 +2088,163 @@ public class I2PSensor extends BaseSensor implements I2PSessionMuxedListener {
         }
     }
 
+    /**
+     * Called by the {@link RouterStatsCollector} on the first sample that sees a new router status,
+     * so status events are raised without waiting for the next status check.
+     */
+    void routerStatusChanged(CommSystemFacade.Status previous, CommSystemFacade.Status current) {
+        i2pRouterStatus = current;
+        if(previous != null)
+            LOG.info("I2P Router status changed: "+previous.name()+" -> "+current.name());
+        reportRouterStatus();
+    }
+
+    /**
+     * @return inbound admission control, to manage the denylist; null if disabled
+     */
+    public InboundAdmission getAdmission() {
+        return admission;
+    }
+
+    /**
+     * @return the local address book or null if disabled
+     */
+    public AddressBook getAddressBook() {
+        return addressBook;
+    }
+
+    /**
+     * Add names from an address book subscription feed in hosts.txt format; known names are kept.
+     * @return number of names added
+     */
+    public int updateAddressBook(Reader feed) throws IOException {
+        AddressBook book = addressBook;
+        if(book == null)
+            return 0;
+        int added = book.update(feed);
+        LOG.info("Address book subscription update added "+added+" names: "+book);
+        return added;
+    }
+
+    /**
+     * @return sampled router statistics or null if not collecting
+     */
+    public RouterStatsCollector getRouterStats() {
+        return routerStats;
+    }
+
+    private void recovered() {
+        RestartSupervisor s = supervisor;
+        if(s != null)
+            s.connected();
+        DurableOutbox o = outbox;
+        if(o != null && o.getPending() > 0)
+            o.replay();
+    }
+
     private CommSystemFacade.Status getRouterStatus() {
         return routerContext.commSystem().getStatus();
     }
 
+    /**
+     * @return true if the router reports a status treated as connected by {@link #reportRouterStatus()}
+     */
+    boolean isNetworkConnected() {
+        RouterContext ctx = routerContext;
+        if(ctx == null || ctx.commSystem() == null)
+            return false;
+        switch (ctx.commSystem().getStatus()) {
+            case OK:
+            case IPV4_DISABLED_IPV6_OK:
+            case IPV4_FIREWALLED_IPV6_OK:
+            case IPV4_SNAT_IPV6_OK:
+            case IPV4_UNKNOWN_IPV6_OK:
+            case IPV4_OK_IPV6_FIREWALLED:
+            case IPV4_OK_IPV6_UNKNOWN:
+            case IPV4_DISABLED_IPV6_FIREWALLED:
+                return true;
+            default:
+                return false;
+        }
+    }
+
     public void checkRouterStats() {
         if(i2pRouterStatus==null) {
             i2pRouterStatus = getRouterStatus();
         }
         reportRouterStatus();
-        LOG.info("I2P Statistics:\n\tRouter Status: "+getRouterStatus().name());
+        if(rawSessions != null)
+            rawSessions.purge();
+        if(outbox != null && outbox.getPending() > 0 && isNetworkConnected())
+            outbox.replay();
+        LOG.info("I2P Statistics:\n\tRouter Status: "+getRouterStatus().name()
+                +"\n\tOutbound Queue: "+outbound.getQueueDepth()+"/"+outbound.getQueueCapacity()
+                +(inbound == null ? "" : "\n\tInbound Queue: "+inbound.getQueueDepth()+", dropped: "+inbound.getDropped())
+                +(admission == null ? "" : "\n\t"+admission)
+                +(duplicates == null ? "" : "\n\t"+duplicates)
+                +"\n\t"+verifier+", verified/s: "+String.format("%.1f", verifier.getVerifiedPerSecondSinceLastReport())
+                +"\n\t"+destinationCache
+                +"\n\t"+supervisor
+                +(outbox == null ? "" : "\n\t"+outbox)
+                +(routerStats == null ? "" : "\n\t"+routerStats));
     }
 
     /**
      *  Load defaults from internal router.config on classpath,
      *  then add props from i2pDir/router.config overriding any from internal router.config,
      *  then override these with the supplied overrides if not null which would likely come from 3rd party app (not yet supported),
-     *  then write back to i2pDir/router.config.
+     *  then write back to i2pDir/router.config if the merged result differs from it.
      *
      *  @param overrides local overrides or null
+     *  @return true if router.config was written
      */
-    private void mergeRouterConfig(Properties overrides) {
+    private boolean mergeRouterConfig(Properties overrides) {
         Properties props = new OrderedProperties();
+        Properties existing = new OrderedProperties();
         File f = new File(i2pBaseDir,"router.config");
-        boolean i2pBaseRouterConfigIsNew = false;
-        if(!f.exists()) {
-            if(!f.mkdir()) {
-                LOG.warning("While merging router.config files, unable to create router.config in i2pBaseDirectory: "+i2pBaseDir);
-            } else {
-                i2pBaseRouterConfigIsNew = true;
-            }
-        }
-        InputStream i2pBaseRouterConfig = null;
         try {
             props.putAll(Config.loadFromClasspath("router.config"));
 
-            if(!i2pBaseRouterConfigIsNew) {
-                i2pBaseRouterConfig = new FileInputStream(f);
-                DataHelper.loadProps(props, i2pBaseRouterConfig);
+            if(f.isFile()) {
+                DataHelper.loadProps(existing, f);
+                props.putAll(existing);
             }
 
             // override with user settings
             if (overrides != null)
                 props.putAll(overrides);
 
+            routerConfig = props;
+            if(f.isFile() && props.equals(existing)) {
+                LOG.fine("router.config unchanged.");
+                return false;
+            }
             DataHelper.storeProps(props, f);
+            return true;
         } catch (Exception e) {
             LOG.warning("Exception caught while merging router.config properties: "+e.getLocalizedMessage());
-        } finally {
-            if (i2pBaseRouterConfig != null) try {
-                i2pBaseRouterConfig.close();
-            } catch (IOException ioe) {
-            }
+            return false;
         }
     }
 
     /**
-     *  Copy all certificates found in resources/io/onemfive/core/sensors/i2p/bote/certificates
-     *  into i2pBaseDir/certificates
+     *  Copy all certificates found in resources/io/onemfive/i2p/certificates
+     *  into i2pBaseDir/certificates.
+     *  When the bundled manifest is present only missing or changed certificates are written;
+     *  otherwise every certificate is copied.
      *
      *  @param reseedCertificates destination directory for reseed certificates
      *  @param sslCertificates destination directory for ssl certificates
      */
     private boolean copyCertificatesToBaseDir(File reseedCertificates, File sslCertificates) {
         final String path = "io/onemfive/i2p";
+        if(isTest || !SystemVersion.isAndroid()) {
+            Properties manifest = CertificateExtractor.loadManifest();
+            if(manifest != null) {
+                return new CertificateExtractor(reseedCertificates.getParentFile()).extract(manifest);
+            }
+            LOG.info("No certificate manifest found; copying all certificates.");
+        }
         // Android apps are doing this within their startup as unable to extract these files from jars
         if(!isTest) {
             if(!SystemVersion.isAndroid()) {
@@ -939,18 +2280,16 @@ public class I2PSensor extends BaseSensor implements I2PSessionMuxedListener {
                                 if (!f.exists() && f.createNewFile()) fileReadyToSave = true;
                                 else if (f.exists() && f.delete() && f.createNewFile()) fileReadyToSave = true;
                                 if (fileReadyToSave) {
-                                    FileOutputStream fos = new FileOutputStream(f);
-                                    byte[] byteArray = new byte[1024];
-                                    int i;
-                                    InputStream is = getClass().getClassLoader().getResourceAsStream(name);
-                                    //While the input stream has bytes
-                                    while ((i = is.read(byteArray)) > 0) {
-                                        //Write the bytes to the output stream
-                                        fos.write(byteArray, 0, i);
+                                    try (InputStream is = getClass().getClassLoader().getResourceAsStream(name);
+                                         FileOutputStream fos = new FileOutputStream(f)) {
+                                        byte[] byteArray = new byte[16 * 1024];
+                                        int i;
+                                        //While the input stream has bytes
+                                        while ((i = is.read(byteArray)) > 0) {
+                                            //Write the bytes to the output stream
+                                            fos.write(byteArray, 0, i);
+                                        }
                                     }
-                                    //Close streams to prevent errors
-                                    is.close();
-                                    fos.close();
                                     f = null;
                                 } else {
                                     LOG.warning("Unable to save file from 1M5 jar and is required: " + name);
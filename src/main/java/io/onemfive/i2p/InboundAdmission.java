@@ -0,0 +1,506 @@
+package io.onemfive.i2p;
+
+import net.i2p.data.Base32;
+import net.i2p.data.Base64;
+import net.i2p.data.Destination;
+import net.i2p.data.Hash;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Cheap checks on every inbound datagram on the session callback thread, before it is queued,
+ * dissected or verified: a size cap, a denylist of sender hashes, a token bucket per sender hash
+ * and a global inbound byte budget. Only datagrams passing the sender's checks are charged to the
+ * budget, so denylisted and rate limited senders can't use it up.
+ *
+ * The sender of a signed datagram is the destination it starts with, hashed without checking
+ * the signature; raw datagrams are attributed through their session token. As the sender is
+ * unverified a forger can spend another sender's allowance, but can't get it denylisted: strikes
+ * are only counted against a second bucket per sender charged by {@link #verified(Hash)} once a
+ * datagram has verified, so only the sender's own traffic over its limit counts. While a sender
+ * is over its unverified limit one datagram per probe interval is let through as a probe; it is
+ * delivered if the sender is within its verified allowance, i.e. the limit was spent by forgeries. Enough strikes within the strike
+ * window denylist the sender for the configured period.
+ *
+ * Once the configured number of senders is tracked, and none has gone idle, senders not
+ * tracked share a single overflow bucket with one sender's allowance, so a flood of forged
+ * senders can't fill the table and escape per-sender limiting.
+ *
+ * @author objectorange
+ */
+public class InboundAdmission {
+
+    private static final Logger LOG = Logger.getLogger(InboundAdmission.class.getName());
+
+    // Public key and signing public key of a destination, then the certificate type and length
+    private static final int DESTINATION_KEYS_LENGTH = 384;
+    private static final int DESTINATION_MIN_LENGTH = DESTINATION_KEYS_LENGTH + 3;
+    private static final long PERMANENT = Long.MAX_VALUE;
+
+    private static final ThreadLocal<MessageDigest> SHA256 = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    private final int maxDatagramBytes;
+    private final TokenBucket budget;
+    private final double senderRate;
+    private final double senderBurst;
+    private final int maxSenders;
+    private final long probeIntervalMs;
+    private final int strikeLimit;
+    private final long strikeWindowMs;
+    private final long denylistMs;
+    private final RawDatagramSessions rawSessions;
+
+    private final ConcurrentMap<Hash, Sender> senders = new ConcurrentHashMap<>();
+    // Shared by senders that can't be tracked while the table is full
+    private final TokenBucket overflow;
+    // Hash to the time the entry expires
+    private final ConcurrentMap<Hash, Long> denylist = new ConcurrentHashMap<>();
+    private volatile long lastSweepAt = 0L;
+
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong droppedOversize = new AtomicLong();
+    private final AtomicLong droppedMalformed = new AtomicLong();
+    private final AtomicLong droppedBudget = new AtomicLong();
+    private final AtomicLong droppedDenylisted = new AtomicLong();
+    private final AtomicLong droppedRateLimited = new AtomicLong();
+    private final AtomicLong droppedOverflow = new AtomicLong();
+    private final AtomicLong probes = new AtomicLong();
+    private final AtomicLong autoDenylisted = new AtomicLong();
+
+    /**
+     * @param maxBytesPerSecond global inbound byte budget, 0 for none
+     * @param senderRate datagrams per second allowed from each sender, 0 for no limit
+     * @param senderBurst datagrams a sender may send at once after being idle
+     * @param rawSessions raw datagram sessions to attribute raw datagrams, may be null
+     */
+    public InboundAdmission(int maxDatagramBytes, long maxBytesPerSecond, double senderRate, double senderBurst,
+                            int maxSenders, long probeIntervalMs, int strikeLimit, long strikeWindowMs,
+                            long denylistMs, RawDatagramSessions rawSessions) {
+        this.maxDatagramBytes = maxDatagramBytes;
+        this.budget = maxBytesPerSecond > 0 ? new TokenBucket(maxBytesPerSecond, maxBytesPerSecond, 0L) : null;
+        this.senderRate = senderRate;
+        this.senderBurst = Math.max(1, senderBurst);
+        this.maxSenders = maxSenders;
+        this.probeIntervalMs = probeIntervalMs;
+        this.strikeLimit = strikeLimit;
+        this.strikeWindowMs = strikeWindowMs;
+        this.denylistMs = denylistMs;
+        this.rawSessions = rawSessions;
+        this.overflow = new TokenBucket(senderRate, this.senderBurst, 0L);
+    }
+
+    /**
+     * From the 1m5.sensors.i2p.admission.* properties, including the permanent denylist in
+     * 1m5.sensors.i2p.admission.denylist: comma separated base64 hashes or b32 addresses.
+     */
+    public static InboundAdmission fromProperties(Properties p, RawDatagramSessions rawSessions) {
+        InboundAdmission admission = new InboundAdmission(
+                Integer.parseInt(p.getProperty("1m5.sensors.i2p.admission.maxDatagramBytes",
+                        String.valueOf(RawDatagramSessions.TOKEN_LENGTH + I2PSensor.MAX_DATAGRAM_PAYLOAD + 2048))),
+                Long.parseLong(p.getProperty("1m5.sensors.i2p.admission.maxBytesPerSecond", String.valueOf(16 * 1024 * 1024))),
+                Double.parseDouble(p.getProperty("1m5.sensors.i2p.admission.senderRate", "1000")),
+                Double.parseDouble(p.getProperty("1m5.sensors.i2p.admission.senderBurst", "2000")),
+                Integer.parseInt(p.getProperty("1m5.sensors.i2p.admission.maxSenders", "8192")),
+                Long.parseLong(p.getProperty("1m5.sensors.i2p.admission.probeIntervalMs", "1000")),
+                Integer.parseInt(p.getProperty("1m5.sensors.i2p.admission.strikes", "5")),
+                Long.parseLong(p.getProperty("1m5.sensors.i2p.admission.strikeWindowMs", String.valueOf(60 * 1000))),
+                Long.parseLong(p.getProperty("1m5.sensors.i2p.admission.denylistMs", String.valueOf(10 * 60 * 1000))),
+                rawSessions);
+        String configured = p.getProperty("1m5.sensors.i2p.admission.denylist");
+        if(configured != null) {
+            for(String entry : configured.split(",")) {
+                Hash h = parseHash(entry.trim());
+                if(h == null) {
+                    if(!entry.trim().isEmpty())
+                        LOG.warning("Ignoring invalid denylist entry: "+entry.trim());
+                    continue;
+                }
+                admission.denylist(h, PERMANENT);
+            }
+        }
+        return admission;
+    }
+
+    /**
+     * Decide on the calling thread whether the datagram may be processed.
+     * Marks the datagram as a probe when it is let through although its sender is over its limit.
+     * @return false if the datagram is to be dropped
+     */
+    public boolean admit(InboundDatagram d) {
+        return admit(d, System.currentTimeMillis());
+    }
+
+    boolean admit(InboundDatagram d, long now) {
+        if(d.msg.length > maxDatagramBytes) {
+            droppedOversize.incrementAndGet();
+            return false;
+        }
+        Hash sender = senderOf(d);
+        if(sender == null) {
+            if(DatagramVerifier.isSigned(d)) {
+                droppedMalformed.incrementAndGet();
+                return false;
+            }
+            // Raw datagram with an unknown token; dropped when processed
+            return charge(d, now);
+        }
+        if(isDenylisted(sender, now)) {
+            droppedDenylisted.incrementAndGet();
+            return false;
+        }
+        if(senderRate > 0) {
+            Sender s = tracked(sender, now);
+            if(s == null) {
+                if(!overflow.take(1, now)) {
+                    droppedOverflow.incrementAndGet();
+                    return false;
+                }
+            } else if(!s.bucket.take(1, now)) {
+                if(!s.probe(now, probeIntervalMs)) {
+                    droppedRateLimited.incrementAndGet();
+                    return false;
+                }
+                d.probe = true;
+            }
+        }
+        if(!charge(d, now))
+            return false;
+        if(d.probe)
+            probes.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Charge the datagram to the global byte budget.
+     */
+    private boolean charge(InboundDatagram d, long now) {
+        if(budget != null && !budget.take(d.msg.length, now)) {
+            droppedBudget.incrementAndGet();
+            d.probe = false;
+            return false;
+        }
+        admitted.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * A datagram from the sender verified, or was attributed through its raw session token.
+     * Charges the sender's verified allowance; a sender over it gets a strike and is denylisted
+     * once it reaches the strike limit within the strike window.
+     * @return false if the sender itself is over its limit; a probe from it is then dropped
+     */
+    public boolean verified(Hash sender) {
+        return verified(sender, System.currentTimeMillis());
+    }
+
+    boolean verified(Hash sender, long now) {
+        Sender s = senders.get(sender);
+        if(s == null || s.verified.take(1, now))
+            return true;
+        if(strikeLimit <= 0 || !s.strike(now, strikeWindowMs, strikeLimit))
+            return false;
+        denylist(sender, now + denylistMs);
+        autoDenylisted.incrementAndGet();
+        LOG.warning("Sender "+sender.toBase64()+" exceeded its inbound rate limit "+strikeLimit
+                +" times; denylisted for "+denylistMs+"ms.");
+        return false;
+    }
+
+    /**
+     * @param expiresAt time in ms the entry expires, Long.MAX_VALUE for never
+     */
+    public void denylist(Hash sender, long expiresAt) {
+        denylist.put(sender, expiresAt);
+        senders.remove(sender);
+    }
+
+    public boolean allow(Hash sender) {
+        return denylist.remove(sender) != null;
+    }
+
+    public boolean isDenylisted(Hash sender) {
+        return isDenylisted(sender, System.currentTimeMillis());
+    }
+
+    private boolean isDenylisted(Hash sender, long now) {
+        if(denylist.isEmpty())
+            return false;
+        Long expiresAt = denylist.get(sender);
+        if(expiresAt == null)
+            return false;
+        if(expiresAt <= now) {
+            denylist.remove(sender, expiresAt);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Hash of the destination a signed datagram starts with, or of the sender a raw datagram's token is bound to.
+     * @return null if it can't be determined
+     */
+    private Hash senderOf(InboundDatagram d) {
+        if(!DatagramVerifier.isSigned(d)) {
+            Destination sender = rawSessions == null ? null : rawSessions.sender(d.msg);
+            return sender == null ? null : sender.getHash();
+        }
+        byte[] msg = d.msg;
+        if(msg.length < DESTINATION_MIN_LENGTH)
+            return null;
+        int certLength = ((msg[DESTINATION_KEYS_LENGTH + 1] & 0xff) << 8) | (msg[DESTINATION_KEYS_LENGTH + 2] & 0xff);
+        int length = DESTINATION_MIN_LENGTH + certLength;
+        if(msg.length < length)
+            return null;
+        MessageDigest sha256 = SHA256.get();
+        sha256.update(msg, 0, length);
+        return new Hash(sha256.digest());
+    }
+
+    /**
+     * @return the sender's state or null if too many senders are tracked to add it; it then shares the overflow bucket
+     */
+    private Sender tracked(Hash hash, long now) {
+        Sender s = senders.get(hash);
+        if(s != null)
+            return s;
+        if(senders.size() >= maxSenders) {
+            sweep(now);
+            if(senders.size() >= maxSenders)
+                return null;
+        }
+        Sender created = new Sender(new TokenBucket(senderRate, senderBurst, now), new TokenBucket(senderRate, senderBurst, now));
+        s = senders.putIfAbsent(hash, created);
+        return s == null ? created : s;
+    }
+
+    /**
+     * Forget senders whose buckets have refilled and that have no recent strikes; at most once a second.
+     */
+    private void sweep(long now) {
+        if(now - lastSweepAt < 1000)
+            return;
+        lastSweepAt = now;
+        for(Iterator<Map.Entry<Hash, Sender>> i = senders.entrySet().iterator(); i.hasNext();) {
+            if(i.next().getValue().idle(now, strikeWindowMs))
+                i.remove();
+        }
+    }
+
+    private static Hash parseHash(String entry) {
+        byte[] bytes;
+        if(entry.endsWith(".b32.i2p"))
+            bytes = Base32.decode(entry.substring(0, entry.length() - ".b32.i2p".length()));
+        else
+            bytes = Base64.decode(entry);
+        return bytes == null || bytes.length != Hash.HASH_LENGTH ? null : new Hash(bytes);
+    }
+
+    public long getAdmitted() {
+        return admitted.get();
+    }
+
+    public long getDroppedOversize() {
+        return droppedOversize.get();
+    }
+
+    public long getDroppedMalformed() {
+        return droppedMalformed.get();
+    }
+
+    public long getDroppedBudget() {
+        return droppedBudget.get();
+    }
+
+    public long getDroppedDenylisted() {
+        return droppedDenylisted.get();
+    }
+
+    public long getDroppedRateLimited() {
+        return droppedRateLimited.get();
+    }
+
+    /**
+     * @return datagrams from untracked senders dropped by the shared overflow bucket
+     */
+    public long getDroppedOverflow() {
+        return droppedOverflow.get();
+    }
+
+    public long getDropped() {
+        return droppedOversize.get() + droppedMalformed.get() + droppedBudget.get()
+                + droppedDenylisted.get() + droppedRateLimited.get() + droppedOverflow.get();
+    }
+
+    public long getProbes() {
+        return probes.get();
+    }
+
+    public long getAutoDenylisted() {
+        return autoDenylisted.get();
+    }
+
+    public int getDenylistSize() {
+        return denylist.size();
+    }
+
+    public int getTrackedSenders() {
+        return senders.size();
+    }
+
+    /**
+     * Register the admission counters and denylist size as gauges named admission.*.
+     */
+    public void registerGauges(SensorMetrics metrics) {
+        metrics.registerGauge("admission.admitted", new SensorMetrics.Gauge() {
+            @Override
+            public long value() {
+                return getAdmitted();
+            }
+        });
+        metrics.registerGauge("admission.droppedOversize", new SensorMetrics.Gauge() {
+            @Override
+            public long value() {
+                return getDroppedOversize();
+            }
+        });
+        metrics.registerGauge("admission.droppedMalformed", new SensorMetrics.Gauge() {
+            @Override
+            public long value() {
+                return getDroppedMalformed();
+            }
+        });
+        metrics.registerGauge("admission.droppedBudget", new SensorMetrics.Gauge() {
+            @Override
+            public long value() {
+                return getDroppedBudget();
+            }
+        });
+        metrics.registerGauge("admission.droppedDenylisted", new SensorMetrics.Gauge() {
+            @Override
+            public long value() {
+                return getDroppedDenylisted();
+            }
+        });
+        metrics.registerGauge("admission.droppedRateLimited", new SensorMetrics.Gauge() {
+            @Override
+            public long value() {
+                return getDroppedRateLimited();
+            }
+        });
+        metrics.registerGauge("admission.droppedOverflow", new SensorMetrics.Gauge() {
+            @Override
+            public long value() {
+                return getDroppedOverflow();
+            }
+        });
+        metrics.registerGauge("admission.autoDenylisted", new SensorMetrics.Gauge() {
+            @Override
+            public long value() {
+                return getAutoDenylisted();
+            }
+        });
+        metrics.registerGauge("admission.denylistSize", new SensorMetrics.Gauge() {
+            @Override
+            public long value() {
+                return getDenylistSize();
+            }
+        });
+    }
+
+    @Override
+    public String toString() {
+        return "InboundAdmission[admitted="+admitted.get()+", oversize="+droppedOversize.get()
+                +", malformed="+droppedMalformed.get()+", overBudget="+droppedBudget.get()
+                +", denylisted="+droppedDenylisted.get()+", rateLimited="+droppedRateLimited.get()+", overflow="+droppedOverflow.get()
+                +", probes="+probes.get()+", autoDenylisted="+autoDenylisted.get()
+                +", denylist="+denylist.size()+", senders="+senders.size()+"]";
+    }
+
+    private static class TokenBucket {
+        private final double ratePerMs;
+        private final double capacity;
+        private double tokens;
+        private long refilledAt;
+
+        private TokenBucket(double ratePerSecond, double capacity, long now) {
+            this.ratePerMs = ratePerSecond / 1000;
+            this.capacity = capacity;
+            this.tokens = capacity;
+            this.refilledAt = now;
+        }
+
+        private synchronized boolean take(double n, long now) {
+            refill(now);
+            if(tokens < n)
+                return false;
+            tokens -= n;
+            return true;
+        }
+
+        private synchronized boolean full(long now) {
+            refill(now);
+            return tokens >= capacity;
+        }
+
+        private void refill(long now) {
+            if(now > refilledAt) {
+                tokens = Math.min(capacity, tokens + (now - refilledAt) * ratePerMs);
+                refilledAt = now;
+            }
+        }
+    }
+
+    private static class Sender {
+        // Charged on arrival, before the sender is known to be genuine
+        private final TokenBucket bucket;
+        // Charged once verified; strikes are only counted against this one
+        private final TokenBucket verified;
+        private long lastProbeAt = 0L;
+        private int strikes = 0;
+        private long firstStrikeAt = 0L;
+
+        private Sender(TokenBucket bucket, TokenBucket verified) {
+            this.bucket = bucket;
+            this.verified = verified;
+        }
+
+        private synchronized boolean probe(long now, long intervalMs) {
+            if(now - lastProbeAt < intervalMs)
+                return false;
+            lastProbeAt = now;
+            return true;
+        }
+
+        /**
+         * @return true when the strike limit is reached
+         */
+        private synchronized boolean strike(long now, long windowMs, int limit) {
+            if(strikes == 0 || now - firstStrikeAt > windowMs) {
+                strikes = 0;
+                firstStrikeAt = now;
+            }
+            return ++strikes >= limit;
+        }
+
+        private synchronized boolean idle(long now, long windowMs) {
+            return (strikes == 0 || now - firstStrikeAt > windowMs) && bucket.full(now) && verified.full(now);
+        }
+    }
+}
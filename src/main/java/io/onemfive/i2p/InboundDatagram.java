@@ -0,0 +1,32 @@
+package io.onemfive.i2p;
+
+import net.i2p.data.Destination;
+
+/**
+ * Datagram received from the I2P session awaiting processing.
+ * Sender and payload are filled in once the datagram has been verified.
+ *
+ * @author objectorange
+ */
+public class InboundDatagram {
+
+    final byte[] msg;
+    final int proto;
+    final int toPort;
+    // System.nanoTime() when taken from the session
+    final long receivedAt = System.nanoTime();
+    // Set by InboundAdmission when let through although the sender is over its rate limit
+    boolean probe = false;
+
+    // Set by DatagramVerifier
+    volatile boolean verified = false;
+    volatile Destination sender;
+    volatile byte[] payload;
+    volatile Exception error;
+
+    public InboundDatagram(byte[] msg, int proto, int toPort) {
+        this.msg = msg;
+        this.proto = proto;
+        this.toPort = toPort;
+    }
+}
@@ -0,0 +1,143 @@
+package io.onemfive.i2p;
+
+import io.onemfive.data.Envelope;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Moves inbound datagram processing off the I2CP session callback thread.
+ *
+ * The callback thread only receives the message from the session and enqueues it.
+ * Worker threads drain the queue in batches, verify the batch's signatures in parallel
+ * through the {@link DatagramVerifier}, decode each datagram into an Envelope and hand
+ * the batch's envelopes to the bus together.
+ *
+ * @author objectorange
+ */
+public class InboundDispatcher {
+
+    private static final Logger LOG = Logger.getLogger(InboundDispatcher.class.getName());
+
+    private final I2PSensor sensor;
+    private final DatagramVerifier verifier;
+    private final BlockingQueue<InboundDatagram> queue;
+    private final int maxBatch;
+    private final Thread[] workers;
+    private volatile boolean running = false;
+
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    public InboundDispatcher(I2PSensor sensor, DatagramVerifier verifier, int workerCount, int capacity, int maxBatch) {
+        this.sensor = sensor;
+        this.verifier = verifier;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.maxBatch = maxBatch;
+        this.workers = new Thread[workerCount];
+    }
+
+    public void start() {
+        running = true;
+        OutboundPipeline.NamedThreadFactory factory = new OutboundPipeline.NamedThreadFactory("I2PSensor-Inbound");
+        for(int i=0; i<workers.length; i++) {
+            workers[i] = factory.newThread(new Worker());
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Called on the session callback thread; never blocks.
+     * @return false if the queue is full and the datagram was dropped
+     */
+    public boolean dispatch(InboundDatagram datagram) {
+        if(queue.offer(datagram)) {
+            enqueued.incrementAndGet();
+            return true;
+        }
+        dropped.incrementAndGet();
+        LOG.warning("Inbound queue full; dropping datagram of "+datagram.msg.length+" bytes.");
+        return false;
+    }
+
+    public void shutdown() {
+        running = false;
+        for(Thread worker : workers) {
+            if(worker != null)
+                worker.interrupt();
+        }
+        queue.clear();
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public long getEnqueued() {
+        return enqueued.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Register the queue depth and datagrams dropped as gauges named inbound.*.
+     */
+    public void registerGauges(SensorMetrics metrics) {
+        metrics.registerGauge("inbound.queueDepth", new SensorMetrics.Gauge() {
+            @Override
+            public long value() {
+                return getQueueDepth();
+            }
+        });
+        metrics.registerGauge("inbound.dropped", new SensorMetrics.Gauge() {
+            @Override
+            public long value() {
+                return getDropped();
+            }
+        });
+    }
+
+    private class Worker implements Runnable {
+        @Override
+        public void run() {
+            List<InboundDatagram> batch = new ArrayList<>(maxBatch);
+            List<Envelope> envelopes = new ArrayList<>(maxBatch);
+            List<InboundDatagram> delivered = new ArrayList<>(maxBatch);
+            while(running) {
+                try {
+                    batch.add(queue.take());
+                } catch (InterruptedException e) {
+                    break;
+                }
+                queue.drainTo(batch, maxBatch - 1);
+                try {
+                    if(verifier != null)
+                        verifier.verify(batch);
+                    for(InboundDatagram d : batch) {
+                        Envelope e = sensor.process(d);
+                        if(e != null) {
+                            envelopes.add(e);
+                            delivered.add(d);
+                        }
+                    }
+                    sensor.deliver(envelopes);
+                    for(InboundDatagram d : delivered) {
+                        sensor.getMetrics().inboundToBus.since(d.receivedAt);
+                    }
+                } catch (Exception e) {
+                    LOG.severe("Error handing inbound batch to bus: "+e.getLocalizedMessage());
+                } finally {
+                    batch.clear();
+                    envelopes.clear();
+                    delivered.clear();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package io.onemfive.i2p;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with power-of-two microsecond buckets.
+ * Recording is a handful of atomic increments so it can stay on in production;
+ * percentiles are accurate to within a factor of two.
+ *
+ * @author objectorange
+ */
+public class LatencyHistogram {
+
+    // Bucket i holds latencies below 2^i microseconds; the last bucket is unbounded
+    private static final int BUCKETS = 40;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    public void record(long nanos) {
+        if(nanos < 0)
+            nanos = 0;
+        long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+        int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        buckets.incrementAndGet(bucket);
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        long max;
+        while(nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {
+            // retry
+        }
+    }
+
+    /**
+     * Record time elapsed since the supplied {@link System#nanoTime()} value.
+     */
+    public void since(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMeanMicros() {
+        long c = count.get();
+        return c == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalNanos.get() / c);
+    }
+
+    public long getTotalMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(totalNanos.get());
+    }
+
+    public long getMaxMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(maxNanos.get());
+    }
+
+    /**
+     * @param percentile 0-100
+     * @return upper bound in microseconds of the bucket holding the percentile
+     */
+    public long getPercentileMicros(double percentile) {
+        long c = count.get();
+        if(c == 0)
+            return 0;
+        long target = (long)Math.ceil(c * percentile / 100.0);
+        long seen = 0;
+        for(int i=0; i<BUCKETS; i++) {
+            seen += buckets.get(i);
+            if(seen >= target)
+                return i == BUCKETS - 1 ? getMaxMicros() : 1L << i;
+        }
+        return getMaxMicros();
+    }
+}
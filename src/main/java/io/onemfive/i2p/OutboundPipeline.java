@@ -0,0 +1,222 @@
+package io.onemfive.i2p;
+
+import io.onemfive.data.Envelope;
+import io.onemfive.data.util.DLC;
+import io.onemfive.sensors.SensorRequest;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Bounded outbound queue drained by a pool of workers so that callers of
+ * {@link I2PSensor#send(Envelope)} are not held up by lookups, signing
+ * and I2CP writes for slow peers.
+ *
+ * When the queue is full the configured {@link RejectionPolicy} decides whether
+ * the envelope is rejected, sent on the caller's thread, or the caller waits for room.
+ * Once the pipeline is shut down every policy rejects new envelopes. Envelopes still queued
+ * by {@link #shutdownNow()} fail: their futures complete with false and their callbacks are
+ * notified on the shutting down thread.
+ *
+ * @author objectorange
+ */
+public class OutboundPipeline {
+
+    private static final Logger LOG = Logger.getLogger(OutboundPipeline.class.getName());
+
+    public enum RejectionPolicy {
+        /** Reject immediately so the caller can re-route or retry */
+        REJECT,
+        /** Send on the caller's thread, slowing the producer down */
+        CALLER_RUNS,
+        /** Wait up to the block timeout for room in the queue */
+        BLOCK
+    }
+
+    /**
+     * Notified on the worker thread once an envelope has been sent or has failed,
+     * or on the thread shutting the pipeline down if it was still queued.
+     */
+    public interface SendCallback {
+        void completed(Envelope envelope, boolean sent);
+    }
+
+    private final I2PSensor sensor;
+    private final ThreadPoolExecutor executor;
+    private final BlockingQueue<Runnable> queue;
+    private final int capacity;
+
+    public OutboundPipeline(I2PSensor sensor, int workers, int capacity, RejectionPolicy policy, final long blockTimeoutMs) {
+        this.sensor = sensor;
+        this.capacity = capacity;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        RejectedExecutionHandler handler;
+        switch (policy) {
+            case CALLER_RUNS: handler = new RejectedExecutionHandler() {
+                @Override
+                public void rejectedExecution(Runnable r, ThreadPoolExecutor e) {
+                    // CallerRunsPolicy silently drops the task once shut down, leaving its future incomplete
+                    if(e.isShutdown())
+                        throw new RejectedExecutionException("Outbound pipeline shut down.");
+                    r.run();
+                }
+            }; break;
+            case BLOCK: handler = new RejectedExecutionHandler() {
+                @Override
+                public void rejectedExecution(Runnable r, ThreadPoolExecutor e) {
+                    try {
+                        if(e.isShutdown())
+                            throw new RejectedExecutionException("Outbound pipeline shut down.");
+                        if(!e.getQueue().offer(r, blockTimeoutMs, TimeUnit.MILLISECONDS))
+                            throw new RejectedExecutionException("Outbound queue full after waiting "+blockTimeoutMs+" ms.");
+                        // Shut down while waiting: no worker may be left to take it, and shutdownNow may have drained already
+                        if(e.isShutdown() && e.getQueue().remove(r))
+                            throw new RejectedExecutionException("Outbound pipeline shut down.");
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        throw new RejectedExecutionException("Interrupted waiting for outbound queue.");
+                    }
+                }
+            }; break;
+            default: handler = new ThreadPoolExecutor.AbortPolicy();
+        }
+        this.executor = new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS, queue, new NamedThreadFactory("I2PSensor-Outbound"), handler);
+    }
+
+    /**
+     * Queue the envelope for sending.
+     *
+     * @param envelope envelope containing a SensorRequest
+     * @param callback optional completion callback; may be null
+     * @return future completing with the result of {@link I2PSensor#sendNow(Envelope)}
+     * @throws RejectedExecutionException if the queue is full and the policy rejects,
+     * or the pipeline has been shut down
+     */
+    public Future<Boolean> submit(final Envelope envelope, final SendCallback callback) {
+        QueuedSend task = new QueuedSend(envelope, callback);
+        executor.execute(task);
+        return task;
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public int getQueueCapacity() {
+        return capacity;
+    }
+
+    public int getActiveSends() {
+        return executor.getActiveCount();
+    }
+
+    public boolean isShutdown() {
+        return executor.isShutdown();
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Stop sending; envelopes not yet sent fail.
+     * @return number of queued envelopes failed
+     */
+    public int shutdownNow() {
+        int failed = 0;
+        for(Runnable r : executor.shutdownNow()) {
+            if(r instanceof QueuedSend) {
+                ((QueuedSend)r).abandon();
+                failed++;
+            }
+        }
+        if(failed > 0)
+            LOG.warning("Outbound pipeline shut down; failed "+failed+" queued envelopes.");
+        return failed;
+    }
+
+    /**
+     * Register the queue depth and sends in progress as gauges named outbound.*.
+     */
+    public void registerGauges(SensorMetrics metrics) {
+        metrics.registerGauge("outbound.queueDepth", new SensorMetrics.Gauge() {
+            @Override
+            public long value() {
+                return getQueueDepth();
+            }
+        });
+        metrics.registerGauge("outbound.activeSends", new SensorMetrics.Gauge() {
+            @Override
+            public long value() {
+                return getActiveSends();
+            }
+        });
+    }
+
+    private class QueuedSend extends FutureTask<Boolean> {
+        private final Envelope envelope;
+        private final SendCallback callback;
+
+        private QueuedSend(final Envelope envelope, final SendCallback callback) {
+            super(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    boolean sent = false;
+                    try {
+                        sent = sensor.sendNow(envelope);
+                    } catch (Exception e) {
+                        LOG.warning("Exception sending queued envelope: "+e.getLocalizedMessage());
+                    } finally {
+                        complete(callback, envelope, sent);
+                    }
+                    return sent;
+                }
+            });
+            this.envelope = envelope;
+            this.callback = callback;
+        }
+
+        /**
+         * Fail the envelope without sending it.
+         */
+        private void abandon() {
+            SensorRequest request = (SensorRequest)DLC.getData(SensorRequest.class, envelope);
+            if(request != null) {
+                request.errorCode = SensorRequest.SENDING_FAILED;
+                request.errorMessage = "Sensor shut down before sending.";
+            }
+            set(false);
+            complete(callback, envelope, false);
+        }
+    }
+
+    private static void complete(SendCallback callback, Envelope envelope, boolean sent) {
+        if(callback == null)
+            return;
+        try {
+            callback.completed(envelope, sent);
+        } catch (Exception e) {
+            LOG.warning("Send callback threw: "+e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Daemon threads with a readable name prefix.
+     */
+    static class NamedThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, prefix + "-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package io.onemfive.i2p;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Conversions between message content and datagram payload bytes.
+ * Text is always UTF-8 regardless of the platform default charset.
+ *
+ * Binary content is marked by a leading {@link #BINARY} byte, which never occurs in UTF-8,
+ * so a payload is delivered as the kind it was sent as whatever its bytes happen to be:
+ * a String for text and a byte[] for binary.
+ *
+ * @author objectorange
+ */
+public class Payloads {
+
+    /**
+     * Leads binary payloads; text payloads are plain UTF-8.
+     */
+    public static final byte BINARY = (byte)0xFF;
+
+    public static byte[] encode(String content) {
+        return content.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the bytes marked as binary
+     */
+    public static byte[] encode(byte[] content) {
+        byte[] payload = new byte[content.length + 1];
+        payload[0] = BINARY;
+        System.arraycopy(content, 0, payload, 1, content.length);
+        return payload;
+    }
+
+    /**
+     * @return the remaining bytes of the buffer marked as binary
+     */
+    public static byte[] encode(ByteBuffer content) {
+        byte[] payload = new byte[content.remaining() + 1];
+        payload[0] = BINARY;
+        content.duplicate().get(payload, 1, content.remaining());
+        return payload;
+    }
+
+    public static boolean isBinary(byte[] payload, int offset, int length) {
+        return length > 0 && payload[offset] == BINARY;
+    }
+
+    /**
+     * Decode the payload as the kind it was sent as.
+     * @return byte[] if marked as binary, otherwise the UTF-8 text as a String
+     */
+    public static Object decode(byte[] payload, int offset, int length) {
+        if(isBinary(payload, offset, length))
+            return Arrays.copyOfRange(payload, offset + 1, offset + length);
+        return new String(payload, offset, length, StandardCharsets.UTF_8);
+    }
+}
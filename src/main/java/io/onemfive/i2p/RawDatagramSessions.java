@@ -0,0 +1,297 @@
+package io.onemfive.i2p;
+
+import net.i2p.data.Base64;
+import net.i2p.data.Destination;
+import net.i2p.data.Hash;
+
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Session tokens allowing peers whose identity has already been established
+ * to exchange raw (unsigned) datagrams instead of signed repliable datagrams.
+ *
+ * The handshake runs over the signed path: the sender offers a random token in a
+ * signed datagram, the recipient binds the token to the verified sender Destination
+ * and accepts it. Afterwards the sender prefixes raw datagrams with the token and
+ * the recipient maps it back to the sender. I2P's end-to-end encryption keeps the
+ * token secret between the two destinations.
+ *
+ * Tokens expire after a TTL, after which the sender falls back to the signed path
+ * and offers a new token.
+ *
+ * A raw datagram carries no sender, so a recipient that no longer knows a token, e.g.
+ * after restarting, can't tell anyone. Instead the sender keeps confirming its token:
+ * once the last accept is older than the refresh interval the same token is offered
+ * again, rebinding it if the recipient lost it, and the token is only used while an
+ * accept has been seen within the refresh interval plus {@link #REFRESH_ANSWER_MS}.
+ * Datagrams a restarted recipient can't attribute are thus bounded to that window.
+ *
+ * Recipients bind at most {@link #MAX_TOKENS_PER_SENDER} tokens per sender and a
+ * configured number in total; offers beyond that are not accepted and the sender
+ * stays on the signed path.
+ *
+ * Handshake payload: type (1) | token (16)
+ *
+ * @author objectorange
+ */
+public class RawDatagramSessions {
+
+    public static final int TOKEN_LENGTH = 16;
+    public static final byte OFFER = 1;
+    public static final byte ACCEPT = 2;
+
+    // Resend an unanswered offer after this long
+    private static final long OFFER_RETRY_MS = 60 * 1000L;
+    // Time allowed for a refresh to be accepted, and between repeated refreshes
+    static final long REFRESH_ANSWER_MS = 10 * 1000L;
+    // Current token and its replacement
+    static final int MAX_TOKENS_PER_SENDER = 2;
+    // Inbound tokens outlive the sender's TTL so a sender never uses a token we already dropped
+    private static final int INBOUND_GRACE = 2;
+
+    private final SecureRandom random = new SecureRandom();
+    private final long ttlMs;
+    private final long refreshMs;
+    private final int maxInbound;
+
+    // Outbound: tokens we offered, keyed by recipient hash
+    private final Map<String, OutboundToken> outbound = new ConcurrentHashMap<>();
+    // Inbound: tokens peers offered us, keyed by base64 token
+    private final Map<String, InboundToken> inbound = new ConcurrentHashMap<>();
+    // Inbound tokens by sender hash, oldest first; guarded by this
+    private final Map<Hash, Deque<String>> bySender = new HashMap<>();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * @param refreshMs confirm an accepted token with the recipient this often
+     * @param maxInbound tokens bound for all senders together
+     */
+    public RawDatagramSessions(long ttlMs, long refreshMs, int maxInbound) {
+        this.ttlMs = ttlMs;
+        this.refreshMs = refreshMs;
+        this.maxInbound = maxInbound;
+    }
+
+    /**
+     * @param recipientHash base64 hash of the recipient Destination
+     * @return accepted, unexpired token to prefix raw datagrams with, or null to use the signed path
+     */
+    public byte[] activeToken(String recipientHash) {
+        OutboundToken t = outbound.get(recipientHash);
+        if(t == null || t.acceptedAt == 0L)
+            return null;
+        long now = System.currentTimeMillis();
+        if(now - t.createdAt > ttlMs) {
+            outbound.remove(recipientHash);
+            return null;
+        }
+        // Not confirmed lately; the recipient may have lost the token
+        if(now - t.acceptedAt > refreshMs + REFRESH_ANSWER_MS)
+            return null;
+        return t.token;
+    }
+
+    /**
+     * Create a handshake offer for the recipient if none is active or outstanding,
+     * or an offer of the active token again if it is due to be confirmed.
+     * @return handshake payload to send signed on the handshake port, or null if not needed
+     */
+    public byte[] offer(String recipientHash) {
+        long now = System.currentTimeMillis();
+        OutboundToken t = outbound.get(recipientHash);
+        if(t != null) {
+            boolean expired = now - t.createdAt > ttlMs;
+            boolean unanswered = t.acceptedAt == 0L && now - t.createdAt > OFFER_RETRY_MS;
+            if(!expired && !unanswered) {
+                if(t.acceptedAt != 0L && now - t.acceptedAt > refreshMs && t.refresh(now))
+                    return handshake(OFFER, t.token);
+                return null;
+            }
+        }
+        byte[] token = new byte[TOKEN_LENGTH];
+        random.nextBytes(token);
+        outbound.put(recipientHash, new OutboundToken(token, now));
+        return handshake(OFFER, token);
+    }
+
+    /**
+     * Bind an offered token to the verified sender, or renew it if already bound to the sender.
+     * @return handshake payload accepting the token, to be sent back signed, or null if not accepted
+     */
+    public synchronized byte[] accept(Destination sender, byte[] token) {
+        String key = Base64.encode(token);
+        Hash hash = sender.calculateHash();
+        long now = System.currentTimeMillis();
+        InboundToken existing = inbound.get(key);
+        if(existing != null) {
+            if(!existing.sender.calculateHash().equals(hash)) {
+                rejected.incrementAndGet();
+                return null;
+            }
+            inbound.put(key, new InboundToken(sender, now));
+            return handshake(ACCEPT, token);
+        }
+        Deque<String> tokens = bySender.get(hash);
+        if(tokens == null) {
+            tokens = new ArrayDeque<>();
+            bySender.put(hash, tokens);
+        }
+        // Forget tokens that expired in the meantime
+        for(Iterator<String> i = tokens.iterator(); i.hasNext();) {
+            if(!inbound.containsKey(i.next()))
+                i.remove();
+        }
+        while(tokens.size() >= MAX_TOKENS_PER_SENDER) {
+            inbound.remove(tokens.removeFirst());
+        }
+        if(inbound.size() >= maxInbound) {
+            purge();
+            if(inbound.size() >= maxInbound) {
+                if(tokens.isEmpty())
+                    bySender.remove(hash);
+                rejected.incrementAndGet();
+                return null;
+            }
+        }
+        inbound.put(key, new InboundToken(sender, now));
+        tokens.addLast(key);
+        return handshake(ACCEPT, token);
+    }
+
+    /**
+     * Mark our offer to the recipient as accepted if the token matches.
+     */
+    public void accepted(String recipientHash, byte[] token) {
+        OutboundToken t = outbound.get(recipientHash);
+        if(t != null && Arrays.equals(t.token, token))
+            t.acceptedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * @param datagram raw datagram starting with a token
+     * @return sender the token was bound to, or null if unknown or expired
+     */
+    public Destination sender(byte[] datagram) {
+        if(datagram.length < TOKEN_LENGTH)
+            return null;
+        String key = Base64.encode(datagram, 0, TOKEN_LENGTH);
+        InboundToken t = inbound.get(key);
+        if(t == null)
+            return null;
+        if(System.currentTimeMillis() - t.createdAt > INBOUND_GRACE * ttlMs) {
+            inbound.remove(key);
+            return null;
+        }
+        return t.sender;
+    }
+
+    /**
+     * Drop expired tokens.
+     */
+    public synchronized void purge() {
+        long now = System.currentTimeMillis();
+        for(Iterator<OutboundToken> i = outbound.values().iterator(); i.hasNext();) {
+            if(now - i.next().createdAt > ttlMs) i.remove();
+        }
+        for(Iterator<InboundToken> i = inbound.values().iterator(); i.hasNext();) {
+            if(now - i.next().createdAt > INBOUND_GRACE * ttlMs) i.remove();
+        }
+        for(Iterator<Deque<String>> i = bySender.values().iterator(); i.hasNext();) {
+            Deque<String> tokens = i.next();
+            for(Iterator<String> k = tokens.iterator(); k.hasNext();) {
+                if(!inbound.containsKey(k.next()))
+                    k.remove();
+            }
+            if(tokens.isEmpty())
+                i.remove();
+        }
+    }
+
+    public synchronized void clear() {
+        outbound.clear();
+        inbound.clear();
+        bySender.clear();
+    }
+
+    public int getInboundTokens() {
+        return inbound.size();
+    }
+
+    /**
+     * @return offers not accepted because the sender or all senders hold too many tokens
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * Write token and payload into the supplied buffer.
+     * @return number of bytes written
+     */
+    public static int prefix(byte[] token, byte[] payload, byte[] buffer) {
+        System.arraycopy(token, 0, buffer, 0, TOKEN_LENGTH);
+        System.arraycopy(payload, 0, buffer, TOKEN_LENGTH, payload.length);
+        return TOKEN_LENGTH + payload.length;
+    }
+
+    private static byte[] handshake(byte type, byte[] token) {
+        byte[] msg = new byte[1 + TOKEN_LENGTH];
+        msg[0] = type;
+        System.arraycopy(token, 0, msg, 1, TOKEN_LENGTH);
+        return msg;
+    }
+
+    /**
+     * Register the inbound tokens held and offers rejected as gauges named raw.*.
+     */
+    public void registerGauges(SensorMetrics metrics) {
+        metrics.registerGauge("raw.inboundTokens", new SensorMetrics.Gauge() {
+            @Override
+            public long value() {
+                return getInboundTokens();
+            }
+        });
+        metrics.registerGauge("raw.rejectedOffers", new SensorMetrics.Gauge() {
+            @Override
+            public long value() {
+                return getRejected();
+            }
+        });
+    }
+
+    private static class OutboundToken {
+        private final byte[] token;
+        private final long createdAt;
+        // Last time the recipient accepted the token, 0 if never
+        private volatile long acceptedAt = 0L;
+        private long refreshSentAt = 0L;
+
+        private OutboundToken(byte[] token, long createdAt) {
+            this.token = token;
+            this.createdAt = createdAt;
+        }
+
+        /**
+         * @return true if a refresh is to be sent now, at most once per answer period
+         */
+        private synchronized boolean refresh(long now) {
+            if(now - refreshSentAt < REFRESH_ANSWER_MS)
+                return false;
+            refreshSentAt = now;
+            return true;
+        }
+    }
+
+    private static class InboundToken {
+        private final Destination sender;
+        private final long createdAt;
+
+        private InboundToken(Destination sender, long createdAt) {
+            this.sender = sender;
+            this.createdAt = createdAt;
+        }
+    }
+}
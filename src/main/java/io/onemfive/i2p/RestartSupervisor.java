@@ -0,0 +1,273 @@
+package io.onemfive.i2p;
+
+import io.onemfive.data.Envelope;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Recovers the {@link I2PSensor}'s router off the caller's thread.
+ *
+ * A restart request moves the supervisor from RUNNING to RECOVERING and schedules a soft
+ * restart after an exponentially growing, jittered delay. If the network is not connected
+ * again within the recovery timeout the next attempt is scheduled, escalating to a hard
+ * restart after the configured number of soft attempts.
+ * Envelopes sent while recovering are held in memory, up to a bound, and sent once the
+ * sensor reports it is connected again.
+ *
+ * @author objectorange
+ */
+public class RestartSupervisor {
+
+    private static final Logger LOG = Logger.getLogger(RestartSupervisor.class.getName());
+
+    public enum State {RUNNING, RECOVERING}
+
+    private final I2PSensor sensor;
+    private final long baseDelayMs;
+    private final long maxDelayMs;
+    private final long recoveryTimeoutMs;
+    private final long pollMs;
+    private final int hardRestartAfter;
+    private final BlockingQueue<Envelope> held;
+    private final Random random = new Random();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            new OutboundPipeline.NamedThreadFactory("I2PSensor-Supervisor"));
+    private volatile Thread supervisorThread;
+
+    private volatile State state = State.RUNNING;
+    private int attempts = 0;
+    private long attemptStartedAt;
+    private long recoveringSince;
+
+    private final AtomicLong restarts = new AtomicLong();
+    private final AtomicLong heldTotal = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    public RestartSupervisor(I2PSensor sensor, long baseDelayMs, long maxDelayMs, long recoveryTimeoutMs,
+                             long pollMs, int hardRestartAfter, int maxHeld) {
+        this.sensor = sensor;
+        this.baseDelayMs = baseDelayMs;
+        this.maxDelayMs = maxDelayMs;
+        this.recoveryTimeoutMs = recoveryTimeoutMs;
+        this.pollMs = pollMs;
+        this.hardRestartAfter = hardRestartAfter;
+        this.held = new ArrayBlockingQueue<>(maxHeld);
+    }
+
+    /**
+     * Request recovery; returns immediately. Ignored if recovery is already under way.
+     */
+    public synchronized void requestRestart(String reason) {
+        if(state == State.RECOVERING) {
+            LOG.fine("Restart requested while recovering; ignoring: "+reason);
+            return;
+        }
+        state = State.RECOVERING;
+        recoveringSince = System.currentTimeMillis();
+        LOG.warning("I2P Sensor recovering: "+reason);
+        scheduleAttempt();
+    }
+
+    /**
+     * The sensor reports the network is connected; ends recovery and sends held envelopes.
+     */
+    public void connected() {
+        synchronized (this) {
+            if(state != State.RECOVERING) {
+                attempts = 0;
+                return;
+            }
+            state = State.RUNNING;
+            LOG.info("I2P Sensor recovered after "+attempts+" attempt(s) in "
+                    +(System.currentTimeMillis() - recoveringSince)+" ms; sending "+held.size()+" held envelopes.");
+            attempts = 0;
+        }
+        scheduleDrain();
+    }
+
+    public boolean isRecovering() {
+        return state == State.RECOVERING;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * Hold an envelope until recovery completes.
+     * @return false if recovery already ended or too many envelopes are held
+     */
+    public boolean hold(Envelope envelope) {
+        if(state != State.RECOVERING)
+            return false;
+        if(held.offer(envelope)) {
+            heldTotal.incrementAndGet();
+            // Recovery may have completed between the check and the offer
+            if(state != State.RECOVERING)
+                scheduleDrain();
+            return true;
+        }
+        dropped.incrementAndGet();
+        LOG.warning("Too many envelopes held during recovery; rejecting envelope.");
+        return false;
+    }
+
+    public int getHeld() {
+        return held.size();
+    }
+
+    public long getRestarts() {
+        return restarts.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Stop supervising. A no-op on the supervisor's own thread, i.e. during a hard restart.
+     * @return true if stopped
+     */
+    public boolean shutdown() {
+        if(Thread.currentThread() == supervisorThread)
+            return false;
+        int lost = held.size();
+        held.clear();
+        if(lost > 0)
+            LOG.warning("Discarding "+lost+" envelopes held for recovery.");
+        scheduler.shutdownNow();
+        return true;
+    }
+
+    /**
+     * Register the envelopes held and restarts as gauges named supervisor.*.
+     */
+    public void registerGauges(SensorMetrics metrics) {
+        metrics.registerGauge("supervisor.held", new SensorMetrics.Gauge() {
+            @Override
+            public long value() {
+                return getHeld();
+            }
+        });
+        metrics.registerGauge("supervisor.restarts", new SensorMetrics.Gauge() {
+            @Override
+            public long value() {
+                return getRestarts();
+            }
+        });
+    }
+
+    @Override
+    public String toString() {
+        return "RestartSupervisor[state="+state.name()+", restarts="+restarts.get()+", held="+held.size()
+                +", heldTotal="+heldTotal.get()+", dropped="+dropped.get()+"]";
+    }
+
+    /**
+     * Delay before the given attempt: base * 2^attempt capped at max, less up to 50% jitter
+     * so many nodes restarting together do not hit the network in lock step; never above max.
+     */
+    long delayFor(int attempt) {
+        long delay = baseDelayMs << Math.min(attempt, 20);
+        if(delay <= 0 || delay > maxDelayMs)
+            delay = maxDelayMs;
+        return delay - (long)(random.nextDouble() * (delay / 2));
+    }
+
+    private void scheduleAttempt() {
+        long delay = delayFor(attempts);
+        LOG.info("Scheduling I2P Router restart attempt "+(attempts + 1)+" in "+delay+" ms.");
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                attempt();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void attempt() {
+        supervisorThread = Thread.currentThread();
+        boolean hard;
+        synchronized (this) {
+            if(state != State.RECOVERING)
+                return;
+            attempts++;
+            hard = attempts > hardRestartAfter;
+            attemptStartedAt = System.currentTimeMillis();
+        }
+        restarts.incrementAndGet();
+        try {
+            if(!sensor.restartNow(hard))
+                LOG.warning("I2P Router "+(hard ? "hard" : "soft")+" restart attempt "+attempts+" failed.");
+        } catch (Exception e) {
+            LOG.warning("I2P Router restart attempt "+attempts+" threw: "+e.getLocalizedMessage());
+        }
+        poll();
+    }
+
+    private void poll() {
+        synchronized (this) {
+            if(state != State.RECOVERING)
+                return;
+        }
+        if(sensor.isNetworkConnected()) {
+            connected();
+            return;
+        }
+        if(System.currentTimeMillis() - attemptStartedAt >= recoveryTimeoutMs) {
+            LOG.warning("I2P Router not connected "+recoveryTimeoutMs+" ms after restart attempt "+attempts+".");
+            synchronized (this) {
+                if(state == State.RECOVERING)
+                    scheduleAttempt();
+            }
+            return;
+        }
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                poll();
+            }
+        }, pollMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void scheduleDrain() {
+        try {
+            scheduler.execute(new Runnable() {
+                @Override
+                public void run() {
+                    drain();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            LOG.warning("Supervisor stopped; unable to send "+held.size()+" held envelopes.");
+        }
+    }
+
+    private void drain() {
+        List<Envelope> batch = new ArrayList<>();
+        held.drainTo(batch);
+        int failed = 0;
+        for(Envelope e : batch) {
+            try {
+                if(!sensor.send(e))
+                    failed++;
+            } catch (Exception ex) {
+                failed++;
+                LOG.warning("Error sending held envelope: "+ex.getLocalizedMessage());
+            }
+        }
+        if(!batch.isEmpty())
+            LOG.info("Sent "+(batch.size() - failed)+" of "+batch.size()+" envelopes held during recovery.");
+    }
+}
@@ -0,0 +1,162 @@
+package io.onemfive.i2p;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Logger;
+
+/**
+ * Reference counted tenants of a shared router, launched when the first tenant acquires it
+ * and shut down when the last one releases it.
+ *
+ * The launch runs on the acquiring tenant's thread outside the pool's lock; tenants acquiring
+ * while it is under way wait on its future, while releases and queries by other tenants go ahead.
+ *
+ * @param <R> the router
+ * @author objectorange
+ */
+abstract class RouterPool<R> {
+
+    private static final Logger LOG = Logger.getLogger(RouterPool.class.getName());
+
+    // Guarded by this
+    private R router;
+    private FutureTask<R> launching;
+    private final Map<String, Integer> tenants = new TreeMap<>();
+    private final Map<String, I2PRouterUtil.RestartListener> listeners = new TreeMap<>();
+
+    /**
+     * Launch a router and wait until it is running.
+     */
+    protected abstract R launch(Properties properties);
+
+    protected abstract boolean isRunning(R router);
+
+    protected abstract void shutdown(R router, boolean graceful);
+
+    /**
+     * Attach a tenant, launching the router if no tenant holds it or it has stopped.
+     * @throws RuntimeException thrown by the launch; the tenant is not attached then
+     */
+    R acquire(String tenant, final Properties properties, I2PRouterUtil.RestartListener listener) {
+        FutureTask<R> launch;
+        boolean launcher = false;
+        synchronized (this) {
+            Integer refs = tenants.get(tenant);
+            tenants.put(tenant, refs == null ? 1 : refs + 1);
+            if(listener != null)
+                listeners.put(tenant, listener);
+            if(launching == null && (router == null || !isRunning(router))) {
+                if(router != null)
+                    LOG.warning("Shared I2P Router stopped with tenants "+tenants.keySet()+" attached; relaunching...");
+                router = null;
+                launching = new FutureTask<>(new Callable<R>() {
+                    @Override
+                    public R call() {
+                        return launch(properties);
+                    }
+                });
+                launcher = true;
+            }
+            launch = launching;
+            if(launch == null) {
+                LOG.info("Tenant "+tenant+" attached to shared I2P Router; tenants: "+tenants.keySet());
+                return router;
+            }
+        }
+        if(launcher)
+            launch.run();
+        R launched;
+        try {
+            launched = await(launch);
+        } catch (ExecutionException e) {
+            synchronized (this) {
+                if(launching == launch)
+                    launching = null;
+            }
+            release(tenant, false);
+            Throwable cause = e.getCause();
+            throw cause instanceof RuntimeException ? (RuntimeException)cause : new IllegalStateException(cause);
+        }
+        synchronized (this) {
+            if(launching == launch) {
+                launching = null;
+                router = launched;
+            }
+            LOG.info("Tenant "+tenant+" attached to shared I2P Router; tenants: "+tenants.keySet());
+        }
+        return launched;
+    }
+
+    /**
+     * Detach a tenant; the router is shut down when no tenant is left.
+     * @return true if the router was shut down
+     */
+    synchronized boolean release(String tenant, boolean graceful) {
+        Integer refs = tenants.get(tenant);
+        if(refs == null) {
+            LOG.warning("Tenant "+tenant+" released the shared I2P Router without holding it.");
+            return false;
+        }
+        if(refs > 1)
+            tenants.put(tenant, refs - 1);
+        else {
+            tenants.remove(tenant);
+            listeners.remove(tenant);
+        }
+        if(!tenants.isEmpty()) {
+            LOG.info("Tenant "+tenant+" released shared I2P Router; tenants remaining: "+tenants.keySet());
+            return false;
+        }
+        R r = router;
+        router = null;
+        if(r == null)
+            return false;
+        LOG.info("Last tenant released shared I2P Router; shutting it down"+(graceful ? " gracefully." : "."));
+        shutdown(r, graceful);
+        return true;
+    }
+
+    /**
+     * @return the router or null if none is launched
+     */
+    synchronized R current() {
+        return router;
+    }
+
+    /**
+     * @return restart listeners of every tenant but the one given
+     */
+    synchronized List<I2PRouterUtil.RestartListener> listenersExcept(String tenant) {
+        List<I2PRouterUtil.RestartListener> others = new ArrayList<>();
+        for(Map.Entry<String, I2PRouterUtil.RestartListener> e : listeners.entrySet()) {
+            if(!e.getKey().equals(tenant))
+                others.add(e.getValue());
+        }
+        return others;
+    }
+
+    synchronized Set<String> getTenants() {
+        return new TreeSet<>(tenants.keySet());
+    }
+
+    /**
+     * Wait for the launch without giving up on interrupt, as the tenant is counted until it returns.
+     */
+    private static <R> R await(FutureTask<R> launch) throws ExecutionException {
+        boolean interrupted = false;
+        try {
+            while(true) {
+                try {
+                    return launch.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if(interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+}
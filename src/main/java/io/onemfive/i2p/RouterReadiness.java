@@ -0,0 +1,131 @@
+package io.onemfive.i2p;
+
+import net.i2p.router.CommSystemFacade;
+import net.i2p.router.RouterContext;
+
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+/**
+ * Waits until the embedded I2P router is usable for an I2CP session rather
+ * than for a fixed warm-up period.
+ *
+ * The router is polled through phases, each logged with the time it took to reach:
+ * <ol>
+ *     <li>CONTEXT - the RouterContext exists</li>
+ *     <li>ALIVE - the router reports it is alive</li>
+ *     <li>NETWORK - the comm system has a usable status and enough active peers</li>
+ *     <li>NETDB - the netDb knows enough routers to build tunnels</li>
+ *     <li>TUNNELS - exploratory tunnels are built in both directions</li>
+ * </ol>
+ * Waiting is bounded; on timeout the caller proceeds as it did with the fixed wait.
+ *
+ * @author objectorange
+ */
+public class RouterReadiness {
+
+    private static final Logger LOG = Logger.getLogger(RouterReadiness.class.getName());
+
+    public enum Phase {STARTING, CONTEXT, ALIVE, NETWORK, NETDB, TUNNELS}
+
+    private final I2PSensor sensor;
+    private final long maxWaitMs;
+    private final long pollMs;
+    private final int minActivePeers;
+    private final int minKnownRouters;
+
+    private Phase phase = Phase.STARTING;
+    // Milliseconds from the start of waiting until each phase was reached; -1 if not reached
+    private final long[] reachedAfterMs = new long[Phase.values().length];
+
+    public RouterReadiness(I2PSensor sensor, long maxWaitMs, long pollMs, int minActivePeers, int minKnownRouters) {
+        this.sensor = sensor;
+        this.maxWaitMs = maxWaitMs;
+        this.pollMs = pollMs;
+        this.minActivePeers = minActivePeers;
+        this.minKnownRouters = minKnownRouters;
+        Arrays.fill(reachedAfterMs, -1L);
+    }
+
+    /**
+     * Block until the router reaches {@link Phase#TUNNELS} or the upper bound passes.
+     * @return true if the router is ready, false if the wait timed out
+     */
+    public boolean await() throws InterruptedException {
+        long start = System.currentTimeMillis();
+        long phaseStart = start;
+        long deadline = start + maxWaitMs;
+        reachedAfterMs[Phase.STARTING.ordinal()] = 0L;
+        while(true) {
+            Phase reached = poll();
+            while(phase.ordinal() < reached.ordinal()) {
+                phase = Phase.values()[phase.ordinal() + 1];
+                long now = System.currentTimeMillis();
+                reachedAfterMs[phase.ordinal()] = now - start;
+                LOG.info("I2P Router reached phase "+phase.name()+" in "+(now - phaseStart)+" ms ("+(now - start)+" ms total).");
+                phaseStart = now;
+            }
+            if(phase == Phase.TUNNELS) {
+                LOG.info("I2P Router ready in "+(System.currentTimeMillis() - start)+" ms.");
+                return true;
+            }
+            if(System.currentTimeMillis() >= deadline) {
+                LOG.warning("I2P Router not ready after "+maxWaitMs+" ms; last phase reached: "+phase.name()+". Continuing anyway.");
+                return false;
+            }
+            Thread.sleep(pollMs);
+        }
+    }
+
+    public Phase getPhase() {
+        return phase;
+    }
+
+    /**
+     * @return milliseconds from the start of waiting until the phase was reached or -1 if it was not
+     */
+    public long getMillisTo(Phase p) {
+        return reachedAfterMs[p.ordinal()];
+    }
+
+    /**
+     * Evaluate the sensor's router once.
+     * @return the furthest consecutive phase the router currently satisfies
+     */
+    Phase poll() {
+        Phase reached = evaluate(sensor.getRouterContext());
+        sensor.recordNetworkConnected();
+        return reached;
+    }
+
+    private Phase evaluate(RouterContext ctx) {
+        if(ctx == null)
+            return Phase.STARTING;
+        try {
+            if(ctx.router() == null || !ctx.router().isAlive())
+                return Phase.CONTEXT;
+            return evaluate(ctx.commSystem().getStatus(), ctx.commSystem().countActivePeers(),
+                    ctx.netDb().getKnownRouters(),
+                    ctx.tunnelManager().getFreeTunnelCount(), ctx.tunnelManager().getOutboundTunnelCount());
+        } catch (RuntimeException e) {
+            // Router subsystems may not be initialized yet
+            LOG.fine("Router not yet queryable: "+e.getLocalizedMessage());
+            return Phase.CONTEXT;
+        }
+    }
+
+    /**
+     * @return the furthest consecutive phase an alive router with these counts satisfies
+     */
+    Phase evaluate(CommSystemFacade.Status status, int activePeers, int knownRouters, int inboundTunnels, int outboundTunnels) {
+        if(status == CommSystemFacade.Status.DISCONNECTED
+                || status == CommSystemFacade.Status.HOSED
+                || activePeers < minActivePeers)
+            return Phase.ALIVE;
+        if(knownRouters < minKnownRouters)
+            return Phase.NETWORK;
+        if(inboundTunnels < 1 || outboundTunnels < 1)
+            return Phase.NETDB;
+        return Phase.TUNNELS;
+    }
+}
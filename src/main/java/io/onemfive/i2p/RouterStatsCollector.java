@@ -0,0 +1,161 @@
+package io.onemfive.i2p;
+
+import io.onemfive.core.util.tasks.TaskRunner;
+import io.onemfive.sensors.SensorTask;
+import net.i2p.router.CommSystemFacade;
+import net.i2p.router.RouterContext;
+
+import java.util.*;
+import java.util.logging.Logger;
+
+/**
+ * Samples router statistics into fixed-size {@link StatsRing}s at a short interval
+ * (1 second by default) and reports router status changes to the {@link I2PSensor}
+ * as soon as they are sampled rather than at the next status check.
+ *
+ * Percentiles over a sliding window are available per statistic and, for the
+ * configured window, as gauges in the sensor's metrics.
+ *
+ * @author objectorange
+ */
+public class RouterStatsCollector extends SensorTask {
+
+    private static final Logger LOG = Logger.getLogger(RouterStatsCollector.class.getName());
+
+    public static final String BANDWIDTH_IN_BPS = "bandwidth.inBps";
+    public static final String BANDWIDTH_OUT_BPS = "bandwidth.outBps";
+    public static final String PEERS_ACTIVE = "peers.active";
+    public static final String TUNNELS_INBOUND = "tunnels.inbound";
+    public static final String TUNNELS_OUTBOUND = "tunnels.outbound";
+    public static final String TUNNELS_INBOUND_CLIENT = "tunnels.inboundClient";
+    public static final String TUNNELS_OUTBOUND_CLIENT = "tunnels.outboundClient";
+    public static final String TUNNELS_BUILD_SUCCESS_PCT = "tunnels.buildSuccessPct";
+    public static final String TUNNELS_PARTICIPATING = "tunnels.participating";
+    public static final String JOB_QUEUE_LAG_MS = "jobQueue.lagMs";
+
+    private static final String[] STATS = {
+            BANDWIDTH_IN_BPS, BANDWIDTH_OUT_BPS, PEERS_ACTIVE,
+            TUNNELS_INBOUND, TUNNELS_OUTBOUND, TUNNELS_INBOUND_CLIENT, TUNNELS_OUTBOUND_CLIENT,
+            TUNNELS_BUILD_SUCCESS_PCT, TUNNELS_PARTICIPATING, JOB_QUEUE_LAG_MS
+    };
+
+    private I2PSensor sensor;
+    private final long windowMs;
+    // Same order as STATS
+    private final StatsRing[] rings = new StatsRing[STATS.length];
+    private final Map<String, StatsRing> byName = new LinkedHashMap<>();
+    private CommSystemFacade.Status lastStatus;
+
+    public RouterStatsCollector(String taskName, TaskRunner taskRunner, I2PSensor sensor, Properties p) {
+        super(taskName, taskRunner);
+        super.periodicity = Math.max(1000L, Long.parseLong(p.getProperty("1m5.sensors.i2p.stats.intervalMs", "1000")));
+        this.sensor = sensor;
+        this.windowMs = Long.parseLong(p.getProperty("1m5.sensors.i2p.stats.windowMs", "60000"));
+        // Default keeps an hour at the default interval
+        int capacity = Integer.parseInt(p.getProperty("1m5.sensors.i2p.stats.capacity", "3600"));
+        for(int i=0; i<STATS.length; i++) {
+            rings[i] = new StatsRing(capacity);
+            byName.put(STATS[i], rings[i]);
+        }
+    }
+
+    @Override
+    public Boolean execute() {
+        RouterContext ctx = sensor.getRouterContext();
+        if(ctx == null)
+            return true;
+        long now = System.currentTimeMillis();
+        try {
+            if(ctx.commSystem() != null) {
+                CommSystemFacade.Status status = ctx.commSystem().getStatus();
+                if(status != lastStatus) {
+                    CommSystemFacade.Status previous = lastStatus;
+                    lastStatus = status;
+                    sensor.routerStatusChanged(previous, status);
+                }
+                rings[2].record(now, ctx.commSystem().countActivePeers());
+            }
+            if(ctx.bandwidthLimiter() != null) {
+                rings[0].record(now, (long)ctx.bandwidthLimiter().getReceiveBps());
+                rings[1].record(now, (long)ctx.bandwidthLimiter().getSendBps());
+            }
+            if(ctx.tunnelManager() != null) {
+                rings[3].record(now, ctx.tunnelManager().getFreeTunnelCount());
+                rings[4].record(now, ctx.tunnelManager().getOutboundTunnelCount());
+                rings[5].record(now, ctx.tunnelManager().getInboundClientTunnelCount());
+                rings[6].record(now, ctx.tunnelManager().getOutboundClientTunnelCount());
+                rings[8].record(now, ctx.tunnelManager().getParticipatingCount());
+            }
+            double buildSuccess = TunnelAutoTuner.buildSuccessRate(ctx);
+            if(buildSuccess >= 0)
+                rings[7].record(now, Math.round(buildSuccess * 100));
+            if(ctx.jobQueue() != null)
+                rings[9].record(now, ctx.jobQueue().getMaxLag());
+        } catch (Exception e) {
+            // The router may be restarting
+            LOG.fine("Unable to sample router statistics: "+e.getLocalizedMessage());
+        }
+        return true;
+    }
+
+    /**
+     * @return the statistic's ring or null if there is no such statistic
+     */
+    public StatsRing getStat(String name) {
+        return byName.get(name);
+    }
+
+    public Set<String> getStatNames() {
+        return Collections.unmodifiableSet(byName.keySet());
+    }
+
+    /**
+     * @param windowMs length of the window ending now
+     * @param percentile 0 to 100
+     */
+    public long getPercentile(String name, long windowMs, double percentile) {
+        StatsRing r = byName.get(name);
+        return r == null ? 0 : r.percentile(System.currentTimeMillis(), windowMs, percentile);
+    }
+
+    /**
+     * Register the latest value, and median and 95th percentile over the configured window,
+     * of each statistic as gauges named router.&lt;stat&gt;, router.&lt;stat&gt;.p50 and router.&lt;stat&gt;.p95.
+     */
+    public void registerGauges(SensorMetrics metrics) {
+        for(Map.Entry<String, StatsRing> e : byName.entrySet()) {
+            final StatsRing r = e.getValue();
+            metrics.registerGauge("router." + e.getKey(), new SensorMetrics.Gauge() {
+                @Override
+                public long value() {
+                    return r.latest();
+                }
+            });
+            metrics.registerGauge("router." + e.getKey() + ".p50", new SensorMetrics.Gauge() {
+                @Override
+                public long value() {
+                    return r.percentile(System.currentTimeMillis(), windowMs, 50);
+                }
+            });
+            metrics.registerGauge("router." + e.getKey() + ".p95", new SensorMetrics.Gauge() {
+                @Override
+                public long value() {
+                    return r.percentile(System.currentTimeMillis(), windowMs, 95);
+                }
+            });
+        }
+    }
+
+    @Override
+    public String toString() {
+        long now = System.currentTimeMillis();
+        StringBuilder sb = new StringBuilder("RouterStats[window="+windowMs+"ms");
+        for(Map.Entry<String, StatsRing> e : byName.entrySet()) {
+            StatsRing r = e.getValue();
+            sb.append(", ").append(e.getKey()).append("=").append(r.latest())
+                    .append(" (p50 ").append(r.percentile(now, windowMs, 50))
+                    .append(", p95 ").append(r.percentile(now, windowMs, 95)).append(")");
+        }
+        return sb.append("]").toString();
+    }
+}
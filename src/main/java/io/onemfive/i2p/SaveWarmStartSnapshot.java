@@ -0,0 +1,21 @@
+package io.onemfive.i2p;
+
+import io.onemfive.core.util.tasks.TaskRunner;
+import io.onemfive.sensors.SensorTask;
+
+public class SaveWarmStartSnapshot extends SensorTask {
+
+    private I2PSensor sensor;
+
+    public SaveWarmStartSnapshot(String taskName, TaskRunner taskRunner, I2PSensor sensor, long periodicity) {
+        super(taskName, taskRunner);
+        super.periodicity = periodicity;
+        this.sensor = sensor;
+    }
+
+    @Override
+    public Boolean execute() {
+        sensor.saveWarmStartSnapshot();
+        return true;
+    }
+}
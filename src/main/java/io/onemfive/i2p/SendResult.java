@@ -0,0 +1,53 @@
+package io.onemfive.i2p;
+
+import io.onemfive.data.DID;
+
+/**
+ * Outcome of sending to a single recipient when one envelope is sent to many.
+ * Error codes are those of {@link io.onemfive.sensors.SensorRequest}.
+ * Updated by the sending thread and, on timeout, by the caller, so access is synchronized.
+ *
+ * @author objectorange
+ */
+public class SendResult {
+
+    private final DID recipient;
+    private boolean sent = false;
+    private int errorCode = -1;
+    private String errorMessage;
+    // Once failed, e.g. timed out by the caller, a send completing late doesn't mark it sent
+    private boolean failed = false;
+
+    public SendResult(DID recipient) {
+        this.recipient = recipient;
+    }
+
+    public DID getRecipient() {
+        return recipient;
+    }
+
+    public synchronized boolean isSent() {
+        return sent;
+    }
+
+    synchronized void setSent(boolean sent) {
+        if(failed)
+            return;
+        this.sent = sent;
+    }
+
+    public synchronized int getErrorCode() {
+        return errorCode;
+    }
+
+    public synchronized String getErrorMessage() {
+        return errorMessage;
+    }
+
+    synchronized void fail(int errorCode, String errorMessage) {
+        this.sent = false;
+        this.failed = true;
+        this.errorCode = errorCode;
+        this.errorMessage = errorMessage;
+    }
+}
@@ -0,0 +1,188 @@
+package io.onemfive.i2p;
+
+import io.onemfive.core.ServiceRequest;
+import io.onemfive.sensors.SensorRequest;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Hot-path counters, latency histograms and gauges for the {@link I2PSensor},
+ * available as a snapshot and over JMX.
+ *
+ * @author objectorange
+ */
+public class SensorMetrics implements SensorMetricsMXBean {
+
+    private static final Logger LOG = Logger.getLogger(SensorMetrics.class.getName());
+
+    /**
+     * Value read when a snapshot is taken, e.g. a queue depth.
+     */
+    public interface Gauge {
+        long value();
+    }
+
+    private final AtomicLong messagesSent = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong messagesReceived = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final ConcurrentMap<String, AtomicLong> errors = new ConcurrentHashMap<>();
+
+    public final LatencyHistogram lookup = new LatencyHistogram();
+    public final LatencyHistogram sign = new LatencyHistogram();
+    public final LatencyHistogram sendMessage = new LatencyHistogram();
+    public final LatencyHistogram inboundToBus = new LatencyHistogram();
+
+    private final Map<String, LatencyHistogram> histograms = new TreeMap<>();
+    private final ConcurrentMap<String, Gauge> gauges = new ConcurrentHashMap<>();
+
+    private ObjectName objectName;
+
+    public SensorMetrics() {
+        histograms.put("lookup", lookup);
+        histograms.put("sign", sign);
+        histograms.put("sendMessage", sendMessage);
+        histograms.put("inboundToBus", inboundToBus);
+    }
+
+    public void sent(int bytes) {
+        messagesSent.incrementAndGet();
+        bytesSent.addAndGet(bytes);
+    }
+
+    public void received(int bytes) {
+        messagesReceived.incrementAndGet();
+        bytesReceived.addAndGet(bytes);
+    }
+
+    /**
+     * Count an error by SensorRequest error code.
+     */
+    public void error(int errorCode) {
+        error(errorName(errorCode));
+    }
+
+    /**
+     * Count an error by name, e.g. for inbound failures without a request error code.
+     */
+    public void error(String name) {
+        AtomicLong counter = errors.get(name);
+        if(counter == null) {
+            AtomicLong created = new AtomicLong();
+            counter = errors.putIfAbsent(name, created);
+            if(counter == null)
+                counter = created;
+        }
+        counter.incrementAndGet();
+    }
+
+    public void registerGauge(String name, Gauge gauge) {
+        gauges.put(name, gauge);
+    }
+
+    @Override
+    public long getMessagesSent() {
+        return messagesSent.get();
+    }
+
+    @Override
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    @Override
+    public long getMessagesReceived() {
+        return messagesReceived.get();
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    @Override
+    public Map<String, Long> getErrors() {
+        Map<String, Long> m = new TreeMap<>();
+        for(Map.Entry<String, AtomicLong> e : errors.entrySet()) {
+            m.put(e.getKey(), e.getValue().get());
+        }
+        return m;
+    }
+
+    /**
+     * @return point in time copy of every counter, histogram summary (microseconds) and gauge
+     */
+    @Override
+    public Map<String, Long> getSnapshot() {
+        Map<String, Long> m = new TreeMap<>();
+        m.put("sent.messages", messagesSent.get());
+        m.put("sent.bytes", bytesSent.get());
+        m.put("received.messages", messagesReceived.get());
+        m.put("received.bytes", bytesReceived.get());
+        for(Map.Entry<String, Long> e : getErrors().entrySet()) {
+            m.put("errors." + e.getKey(), e.getValue());
+        }
+        for(Map.Entry<String, LatencyHistogram> e : histograms.entrySet()) {
+            LatencyHistogram h = e.getValue();
+            m.put(e.getKey() + ".count", h.getCount());
+            m.put(e.getKey() + ".meanMicros", h.getMeanMicros());
+            m.put(e.getKey() + ".p50Micros", h.getPercentileMicros(50));
+            m.put(e.getKey() + ".p99Micros", h.getPercentileMicros(99));
+            m.put(e.getKey() + ".maxMicros", h.getMaxMicros());
+        }
+        for(Map.Entry<String, Gauge> e : gauges.entrySet()) {
+            try {
+                m.put(e.getKey(), e.getValue().value());
+            } catch (Exception ex) {
+                LOG.fine("Gauge "+e.getKey()+" unavailable: "+ex.getLocalizedMessage());
+            }
+        }
+        return m;
+    }
+
+    /**
+     * Register with the platform MBean server.
+     * @param name value of the ObjectName's name key distinguishing sensors in one JVM
+     */
+    public void registerMBean(String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            objectName = new ObjectName("io.onemfive.i2p:type=I2PSensor,name=" + ObjectName.quote(name));
+            if(server.isRegistered(objectName))
+                server.unregisterMBean(objectName);
+            server.registerMBean(this, objectName);
+        } catch (Exception e) {
+            LOG.warning("Unable to register I2P Sensor metrics with JMX: "+e.getLocalizedMessage());
+            objectName = null;
+        }
+    }
+
+    public void unregisterMBean() {
+        if(objectName == null)
+            return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (Exception e) {
+            LOG.warning("Unable to unregister I2P Sensor metrics from JMX: "+e.getLocalizedMessage());
+        }
+        objectName = null;
+    }
+
+    private static String errorName(int errorCode) {
+        if(errorCode == ServiceRequest.REQUEST_REQUIRED) return "REQUEST_REQUIRED";
+        if(errorCode == SensorRequest.TO_PEER_REQUIRED) return "TO_PEER_REQUIRED";
+        if(errorCode == SensorRequest.TO_PEER_WRONG_NETWORK) return "TO_PEER_WRONG_NETWORK";
+        if(errorCode == SensorRequest.TO_PEER_NOT_FOUND) return "TO_PEER_NOT_FOUND";
+        if(errorCode == SensorRequest.NO_CONTENT) return "NO_CONTENT";
+        if(errorCode == SensorRequest.SENDING_FAILED) return "SENDING_FAILED";
+        return "ERROR_" + errorCode;
+    }
+}
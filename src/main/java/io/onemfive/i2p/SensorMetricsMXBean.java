@@ -0,0 +1,23 @@
+package io.onemfive.i2p;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link SensorMetrics}.
+ *
+ * @author objectorange
+ */
+public interface SensorMetricsMXBean {
+
+    long getMessagesSent();
+
+    long getBytesSent();
+
+    long getMessagesReceived();
+
+    long getBytesReceived();
+
+    Map<String, Long> getErrors();
+
+    Map<String, Long> getSnapshot();
+}
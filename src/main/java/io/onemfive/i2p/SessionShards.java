@@ -0,0 +1,111 @@
+package io.onemfive.i2p;
+
+import net.i2p.client.I2PSession;
+import net.i2p.data.Destination;
+
+import java.util.*;
+
+/**
+ * The I2P sessions a sensor sends from: the primary session and its shards, each with its own destination.
+ * Shards are sessions of their own by default, each with its own tunnel pools. As I2CP subsessions
+ * (1m5.sensors.i2p.shards.mode=subsessions) they only add destinations: the router runs subsessions
+ * on the primary session's tunnels, so that mode doesn't add tunnel capacity.
+ *
+ * Recipients are assigned to a session by consistent hashing on the recipient's
+ * destination hash, so a peer always sees the same source destination and adding
+ * a shard only moves about 1/N of the peers.
+ *
+ * The sensor's STATUS_DID event carries the primary session's NetworkPeer as its message;
+ * when sharded, the List of every shard's NetworkPeer, primary first, is the envelope's
+ * data for this class: DLC.getData(SessionShards.class, envelope).
+ *
+ * @author objectorange
+ */
+public class SessionShards {
+
+    private final int virtualNodes;
+    private final List<I2PSession> sessions = new ArrayList<>();
+    // Shard number each session was configured as; shards that failed to start leave gaps
+    private final Map<I2PSession, Integer> numbers = new HashMap<>();
+    // Replaced wholesale on change so selection needs no lock
+    private volatile TreeMap<Long, I2PSession> ring = new TreeMap<>();
+
+    /**
+     * @param virtualNodes points on the ring per session; more points give a more even spread
+     */
+    public SessionShards(int virtualNodes) {
+        this.virtualNodes = virtualNodes;
+    }
+
+    public synchronized void add(I2PSession session) {
+        add(session, sessions.size());
+    }
+
+    /**
+     * @param shard the shard number the session was configured as, 0 for the primary session
+     */
+    public synchronized void add(I2PSession session, int shard) {
+        sessions.add(session);
+        numbers.put(session, shard);
+        TreeMap<Long, I2PSession> updated = new TreeMap<>(ring);
+        String key = session.getMyDestination().calculateHash().toBase64();
+        for(int i=0; i<virtualNodes; i++) {
+            updated.put(hash(key + "#" + i), session);
+        }
+        ring = updated;
+    }
+
+    /**
+     * @return the session to send to the destination from
+     */
+    public I2PSession select(Destination to) {
+        return select(to.calculateHash().toBase64());
+    }
+
+    /**
+     * @param key base64 hash of the recipient's destination
+     */
+    public I2PSession select(String key) {
+        TreeMap<Long, I2PSession> r = ring;
+        if(r.isEmpty())
+            return null;
+        Map.Entry<Long, I2PSession> e = r.ceilingEntry(hash(key));
+        return e == null ? r.firstEntry().getValue() : e.getValue();
+    }
+
+    /**
+     * @return every session, primary first
+     */
+    public synchronized List<I2PSession> getSessions() {
+        return new ArrayList<>(sessions);
+    }
+
+    /**
+     * @return the shard number the session was added as or -1 if it is not one of these sessions
+     */
+    public synchronized int getShard(I2PSession session) {
+        Integer shard = numbers.get(session);
+        return shard == null ? -1 : shard;
+    }
+
+    public synchronized int size() {
+        return sessions.size();
+    }
+
+    /**
+     * 64-bit FNV-1a with a final avalanche so close keys spread over the ring.
+     */
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for(int i=0; i<key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
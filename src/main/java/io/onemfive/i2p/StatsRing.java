@@ -0,0 +1,93 @@
+package io.onemfive.i2p;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-size ring of timestamped samples of one statistic.
+ * Recording overwrites the oldest sample and allocates nothing;
+ * window queries sort a copy in a scratch array allocated once.
+ *
+ * @author objectorange
+ */
+public class StatsRing {
+
+    private final long[] times;
+    private final long[] values;
+    private final long[] scratch;
+    private int next = 0;
+    private int size = 0;
+
+    public StatsRing(int capacity) {
+        times = new long[capacity];
+        values = new long[capacity];
+        scratch = new long[capacity];
+    }
+
+    public synchronized void record(long timeMs, long value) {
+        times[next] = timeMs;
+        values[next] = value;
+        next = (next + 1) % times.length;
+        if(size < times.length)
+            size++;
+    }
+
+    /**
+     * @return most recent value, 0 if none
+     */
+    public synchronized long latest() {
+        return size == 0 ? 0 : values[(next - 1 + values.length) % values.length];
+    }
+
+    /**
+     * @param nowMs end of the window
+     * @param windowMs length of the window ending now
+     * @param percentile 0 to 100
+     * @return nearest-rank percentile of samples in the window, 0 if none
+     */
+    public synchronized long percentile(long nowMs, long windowMs, double percentile) {
+        int n = window(nowMs, windowMs);
+        if(n == 0)
+            return 0;
+        Arrays.sort(scratch, 0, n);
+        int rank = (int)Math.ceil(percentile / 100 * n) - 1;
+        return scratch[Math.max(0, Math.min(n - 1, rank))];
+    }
+
+    /**
+     * @return mean of samples in the window ending now, 0 if none
+     */
+    public synchronized long mean(long nowMs, long windowMs) {
+        int n = window(nowMs, windowMs);
+        if(n == 0)
+            return 0;
+        long total = 0;
+        for(int i=0; i<n; i++) {
+            total += scratch[i];
+        }
+        return total / n;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return times.length;
+    }
+
+    /**
+     * Copy samples newer than nowMs - windowMs into scratch, newest first.
+     * @return number copied
+     */
+    private int window(long nowMs, long windowMs) {
+        long since = nowMs - windowMs;
+        int n = 0;
+        for(int i=1; i<=size; i++) {
+            int idx = (next - i + times.length) % times.length;
+            if(times[idx] <= since)
+                break;
+            scratch[n++] = values[idx];
+        }
+        return n;
+    }
+}
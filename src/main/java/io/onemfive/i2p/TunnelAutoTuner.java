@@ -0,0 +1,239 @@
+package io.onemfive.i2p;
+
+import io.onemfive.core.util.tasks.TaskRunner;
+import io.onemfive.sensors.SensorTask;
+import net.i2p.router.RouterContext;
+import net.i2p.stat.Rate;
+import net.i2p.stat.RateStat;
+
+import java.util.Properties;
+import java.util.logging.Logger;
+
+/**
+ * Adjusts the session's tunnel quantity and backup quantity to the measured load.
+ *
+ * Each interval samples outbound queue utilization and failure rate since the previous interval,
+ * and from the router the mean round trip of tunnel tests and the client tunnel build
+ * success rate. Tunnel test times are used for latency rather than the time spent in
+ * sendMessage, which mostly measures the local I2CP queue and so reacts to local CPU stalls.
+ * The router only keeps test times across all its tunnels, exploratory tunnels included,
+ * so they measure the router's view of the network rather than this session's tunnels.
+ * With no successful test in the period, e.g. just after start or when every test fails,
+ * the latency is unknown and never counts towards fewer tunnels.
+ * A change is only made after the same reading persists for several consecutive intervals,
+ * and moves one step at a time within the configured bounds.
+ * Backup tunnels are added rather than more tunnels when failures or build rejections are high,
+ * as more tunnels means more builds.
+ *
+ * @author objectorange
+ */
+public class TunnelAutoTuner extends SensorTask {
+
+    private static final Logger LOG = Logger.getLogger(TunnelAutoTuner.class.getName());
+
+    private static final long BUILD_RATE_PERIOD = 10 * 60 * 1000L;
+    private static final long TUNNEL_TEST_RATE_PERIOD = 60 * 1000L;
+
+    public enum Direction {HOLD, UP, DOWN}
+
+    /**
+     * Load measured over one interval.
+     */
+    public static class Sample {
+        final double queueUtilization;
+        // -1 if unknown
+        final long tunnelTestMs;
+        final double failureRate;
+        // -1 if unknown
+        final double buildSuccessRate;
+
+        public Sample(double queueUtilization, long tunnelTestMs, double failureRate, double buildSuccessRate) {
+            this.queueUtilization = queueUtilization;
+            this.tunnelTestMs = tunnelTestMs;
+            this.failureRate = failureRate;
+            this.buildSuccessRate = buildSuccessRate;
+        }
+
+        @Override
+        public String toString() {
+            return "queue="+String.format("%.2f", queueUtilization)+", tunnelTestMs="+(tunnelTestMs < 0 ? "n/a" : String.valueOf(tunnelTestMs))
+                    +", failureRate="+String.format("%.3f", failureRate)
+                    +", buildSuccess="+(buildSuccessRate < 0 ? "n/a" : String.format("%.2f", buildSuccessRate));
+        }
+    }
+
+    private I2PSensor sensor;
+
+    private final int minQuantity;
+    private final int maxQuantity;
+    private final int minBackupQuantity;
+    private final int maxBackupQuantity;
+    private final int stableIntervals;
+    private final double highQueue;
+    private final double lowQueue;
+    private final long highTunnelTestMs;
+    private final long lowTunnelTestMs;
+    private final double highFailureRate;
+    private final double minBuildSuccess;
+
+    private int quantity;
+    private int backupQuantity;
+    private Direction pending = Direction.HOLD;
+    private int pendingCount = 0;
+
+    // Totals at the previous interval
+    private long lastSent;
+    private long lastFailed;
+    private boolean sampled = false;
+
+    public TunnelAutoTuner(String taskName, TaskRunner taskRunner, I2PSensor sensor, Properties p) {
+        super(taskName, taskRunner);
+        super.periodicity = Long.parseLong(p.getProperty("1m5.sensors.i2p.autotune.intervalMs", "60000"));
+        this.sensor = sensor;
+        minQuantity = Integer.parseInt(p.getProperty("1m5.sensors.i2p.autotune.minQuantity", "1"));
+        maxQuantity = Integer.parseInt(p.getProperty("1m5.sensors.i2p.autotune.maxQuantity", "6"));
+        minBackupQuantity = Integer.parseInt(p.getProperty("1m5.sensors.i2p.autotune.minBackupQuantity", "0"));
+        maxBackupQuantity = Integer.parseInt(p.getProperty("1m5.sensors.i2p.autotune.maxBackupQuantity", "2"));
+        stableIntervals = Integer.parseInt(p.getProperty("1m5.sensors.i2p.autotune.stableIntervals", "3"));
+        highQueue = Double.parseDouble(p.getProperty("1m5.sensors.i2p.autotune.highQueue", "0.5"));
+        lowQueue = Double.parseDouble(p.getProperty("1m5.sensors.i2p.autotune.lowQueue", "0.1"));
+        highTunnelTestMs = Long.parseLong(p.getProperty("1m5.sensors.i2p.autotune.highTunnelTestMs", "5000"));
+        lowTunnelTestMs = Long.parseLong(p.getProperty("1m5.sensors.i2p.autotune.lowTunnelTestMs", "1500"));
+        highFailureRate = Double.parseDouble(p.getProperty("1m5.sensors.i2p.autotune.highFailureRate", "0.05"));
+        minBuildSuccess = Double.parseDouble(p.getProperty("1m5.sensors.i2p.autotune.minBuildSuccess", "0.6"));
+        quantity = Integer.parseInt(p.getProperty("inbound.quantity", "2"));
+        backupQuantity = Integer.parseInt(p.getProperty("inbound.backupQuantity", "0"));
+    }
+
+    @Override
+    public Boolean execute() {
+        // Options may also have been changed through i2cp.config
+        Properties current = sensor.getSessionOptions();
+        if(current != null) {
+            quantity = Integer.parseInt(current.getProperty("inbound.quantity", String.valueOf(quantity)));
+            backupQuantity = Integer.parseInt(current.getProperty("inbound.backupQuantity", String.valueOf(backupQuantity)));
+        }
+        Sample sample = sample();
+        if(sample == null)
+            return true;
+        Direction direction = evaluate(sample);
+        if(direction == Direction.HOLD)
+            return true;
+        int newQuantity = clamp(quantity, minQuantity, maxQuantity);
+        int newBackupQuantity = clamp(backupQuantity, minBackupQuantity, maxBackupQuantity);
+        if(direction == Direction.UP) {
+            if(sample.failureRate >= highFailureRate
+                    || (sample.buildSuccessRate >= 0 && sample.buildSuccessRate < minBuildSuccess)) {
+                newBackupQuantity = Math.min(maxBackupQuantity, newBackupQuantity + 1);
+            } else {
+                newQuantity = Math.min(maxQuantity, newQuantity + 1);
+            }
+        } else {
+            newQuantity = Math.max(minQuantity, newQuantity - 1);
+            newBackupQuantity = Math.max(minBackupQuantity, newBackupQuantity - 1);
+        }
+        if(newQuantity == quantity && newBackupQuantity == backupQuantity) {
+            LOG.fine("Tunnel auto-tuner at bounds; holding quantity="+quantity+", backupQuantity="+backupQuantity);
+            return true;
+        }
+        Properties options = new Properties();
+        options.setProperty("inbound.quantity", String.valueOf(newQuantity));
+        options.setProperty("outbound.quantity", String.valueOf(newQuantity));
+        options.setProperty("inbound.backupQuantity", String.valueOf(newBackupQuantity));
+        options.setProperty("outbound.backupQuantity", String.valueOf(newBackupQuantity));
+        LOG.info("Tunnel auto-tuner "+direction.name()+": quantity "+quantity+" -> "+newQuantity
+                +", backupQuantity "+backupQuantity+" -> "+newBackupQuantity+" ("+sample+")");
+        if(sensor.updateI2CPOptions(options)) {
+            quantity = newQuantity;
+            backupQuantity = newBackupQuantity;
+        }
+        return true;
+    }
+
+    /**
+     * Classify the sample and apply hysteresis.
+     * @return the direction to move once it has been seen for the configured number of consecutive intervals
+     */
+    Direction evaluate(Sample sample) {
+        Direction reading = Direction.HOLD;
+        if(sample.queueUtilization >= highQueue
+                || sample.tunnelTestMs >= highTunnelTestMs
+                || sample.failureRate >= highFailureRate) {
+            reading = Direction.UP;
+        } else if(sample.queueUtilization <= lowQueue
+                && sample.tunnelTestMs >= 0 && sample.tunnelTestMs <= lowTunnelTestMs
+                && sample.failureRate < highFailureRate / 2) {
+            reading = Direction.DOWN;
+        }
+        if(reading == Direction.HOLD || reading != pending) {
+            pending = reading;
+            pendingCount = reading == Direction.HOLD ? 0 : 1;
+        } else {
+            pendingCount++;
+        }
+        if(pending != Direction.HOLD && pendingCount >= stableIntervals) {
+            // Start counting afresh after each change
+            pending = Direction.HOLD;
+            pendingCount = 0;
+            return reading;
+        }
+        return Direction.HOLD;
+    }
+
+    private Sample sample() {
+        SensorMetrics metrics = sensor.getMetrics();
+        long sent = metrics.getMessagesSent();
+        Long failed = metrics.getErrors().get("SENDING_FAILED");
+        long failedNow = failed == null ? 0 : failed;
+
+        long sentDelta = sent - lastSent;
+        long failedDelta = failedNow - lastFailed;
+        boolean first = !sampled;
+        sampled = true;
+        lastSent = sent;
+        lastFailed = failedNow;
+        if(first)
+            return null;
+
+        RouterContext ctx = sensor.getRouterContext();
+        double queue = sensor.getOutboundQueueUtilization();
+        double failureRate = sentDelta + failedDelta == 0 ? 0 : (double)failedDelta / (sentDelta + failedDelta);
+        return new Sample(queue, tunnelTestMs(ctx), failureRate, buildSuccessRate(ctx));
+    }
+
+    /**
+     * @return mean round trip in ms of successful tunnel tests, exploratory and client, over the last full rate period, -1 if unknown
+     */
+    static long tunnelTestMs(RouterContext ctx) {
+        if(ctx == null || ctx.statManager() == null)
+            return -1;
+        RateStat rs = ctx.statManager().getRate("tunnel.testSuccessTime");
+        Rate r = rs == null ? null : rs.getRate(TUNNEL_TEST_RATE_PERIOD);
+        if(r == null || r.getLastEventCount() == 0)
+            return -1;
+        return Math.round(r.getLastTotalValue() / r.getLastEventCount());
+    }
+
+    /**
+     * @return client tunnel build success over the last full rate period, -1 if unknown
+     */
+    static double buildSuccessRate(RouterContext ctx) {
+        if(ctx == null || ctx.statManager() == null)
+            return -1;
+        long success = lastEventCount(ctx, "tunnel.buildClientSuccess");
+        long failed = lastEventCount(ctx, "tunnel.buildClientReject") + lastEventCount(ctx, "tunnel.buildClientExpire");
+        return success + failed == 0 ? -1 : (double)success / (success + failed);
+    }
+
+    private static long lastEventCount(RouterContext ctx, String stat) {
+        RateStat rs = ctx.statManager().getRate(stat);
+        if(rs == null)
+            return 0;
+        Rate r = rs.getRate(BUILD_RATE_PERIOD);
+        return r == null ? 0 : r.getLastEventCount();
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
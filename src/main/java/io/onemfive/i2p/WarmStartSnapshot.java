@@ -0,0 +1,342 @@
+package io.onemfive.i2p;
+
+import net.i2p.data.DataFormatException;
+import net.i2p.data.Destination;
+import net.i2p.data.Hash;
+import net.i2p.data.LeaseSet;
+import net.i2p.data.router.RouterInfo;
+import net.i2p.router.RouterContext;
+import net.i2p.router.peermanager.ProfileOrganizer;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compact snapshot of router state used to warm start the router after a restart.
+ *
+ * Holds the RouterInfos of the best profiled peers, the destinations of the peers
+ * the sensor talked to most recently and their leasesets. RouterInfos are written
+ * into the router's netDb directory before launch so the router loads them as if
+ * they had been persisted; destinations go straight into the {@link DestinationCache}
+ * and unexpired leasesets are stored in the netDb once the router is up.
+ *
+ * Without a usable snapshot the destinations in the bundled built-in-peers.txt are used.
+ *
+ * @author objectorange
+ */
+public class WarmStartSnapshot {
+
+    private static final Logger LOG = Logger.getLogger(WarmStartSnapshot.class.getName());
+
+    public static final String FILE_NAME = "warmstart.dat";
+    public static final String BUILT_IN_PEERS = "io/onemfive/i2p/network/built-in-peers.txt";
+
+    private static final int MAGIC = 0x314d3557; // 1M5W
+    private static final int VERSION = 1;
+    // Guards against allocating on a corrupt length
+    private static final int MAX_ENTRY_LENGTH = 64 * 1024;
+
+    private final File file;
+    private final int maxRouters;
+    private final int maxDestinations;
+    private final long maxAgeMs;
+
+    private final List<byte[]> routerInfos = new ArrayList<>();
+    private final List<byte[]> destinations = new ArrayList<>();
+    private final List<byte[]> leaseSets = new ArrayList<>();
+    private long savedAt = 0L;
+    private boolean loaded = false;
+
+    /**
+     * @param file snapshot file, usually {@link #FILE_NAME} in the i2p base directory
+     * @param maxRouters maximum number of RouterInfos saved
+     * @param maxDestinations maximum number of peer destinations and leasesets saved
+     * @param maxAgeMs snapshots older than this are ignored on load
+     */
+    public WarmStartSnapshot(File file, int maxRouters, int maxDestinations, long maxAgeMs) {
+        this.file = file;
+        this.maxRouters = maxRouters;
+        this.maxDestinations = maxDestinations;
+        this.maxAgeMs = maxAgeMs;
+    }
+
+    /**
+     * @return true if a snapshot young enough to use was read
+     */
+    public boolean load() {
+        if(!file.isFile())
+            return false;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+            if(in.readInt() != MAGIC || in.readInt() != VERSION) {
+                LOG.warning("Ignoring warm start snapshot with unknown format: "+file);
+                return false;
+            }
+            savedAt = in.readLong();
+            if(System.currentTimeMillis() - savedAt > maxAgeMs) {
+                LOG.info("Ignoring warm start snapshot older than "+maxAgeMs+" ms.");
+                return false;
+            }
+            readEntries(in, routerInfos);
+            readEntries(in, destinations);
+            readEntries(in, leaseSets);
+        } catch (IOException e) {
+            LOG.warning("Unable to read warm start snapshot "+file+": "+e.getLocalizedMessage());
+            routerInfos.clear();
+            destinations.clear();
+            leaseSets.clear();
+            return false;
+        }
+        loaded = true;
+        LOG.info("Loaded warm start snapshot from "+(System.currentTimeMillis() - savedAt)/1000+" s ago: "
+                +routerInfos.size()+" routers, "+destinations.size()+" destinations, "+leaseSets.size()+" leasesets.");
+        return true;
+    }
+
+    /**
+     * Write the RouterInfos into the router's netDb directory where missing.
+     * Must be called before the router launches.
+     * @param netDbDir the router's netDb directory
+     * @return number of RouterInfos written
+     */
+    public int preloadRouterInfos(File netDbDir) {
+        int written = 0;
+        for(byte[] data : routerInfos) {
+            try {
+                RouterInfo ri = new RouterInfo();
+                ri.readBytes(new ByteArrayInputStream(data));
+                String b64 = ri.getHash().toBase64();
+                // Same layout the router persists its netDb in
+                File dir = new File(netDbDir, "r" + b64.charAt(0));
+                File f = new File(dir, "routerInfo-" + b64 + ".dat");
+                if(f.exists())
+                    continue;
+                if(!dir.exists() && !dir.mkdirs()) {
+                    LOG.warning("Unable to create netDb directory "+dir);
+                    return written;
+                }
+                try (OutputStream out = new FileOutputStream(f)) {
+                    out.write(data);
+                }
+                written++;
+            } catch (DataFormatException | IOException e) {
+                LOG.fine("Skipping RouterInfo from warm start snapshot: "+e.getLocalizedMessage());
+            }
+        }
+        return written;
+    }
+
+    /**
+     * @return number of RouterInfos persisted in the netDb directory
+     */
+    public static int countRouterInfos(File netDbDir) {
+        File[] dirs = netDbDir.listFiles();
+        if(dirs == null)
+            return 0;
+        int count = 0;
+        for(File dir : dirs) {
+            String[] names = dir.isDirectory() ? dir.list() : null;
+            if(names == null)
+                continue;
+            for(String name : names) {
+                if(name.startsWith("routerInfo-"))
+                    count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return number of destinations added to the cache
+     */
+    public int preloadDestinations(DestinationCache cache) {
+        int added = 0;
+        for(byte[] data : destinations) {
+            try {
+                Destination d = new Destination();
+                d.fromByteArray(data);
+                cache.put(d);
+                added++;
+            } catch (DataFormatException e) {
+                LOG.fine("Skipping destination from warm start snapshot: "+e.getLocalizedMessage());
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Store the snapshot's unexpired leasesets in the netDb.
+     * @return number of leasesets stored
+     */
+    public int restoreLeaseSets(RouterContext ctx) {
+        long now = System.currentTimeMillis();
+        int stored = 0;
+        for(byte[] data : leaseSets) {
+            try {
+                LeaseSet ls = new LeaseSet();
+                ls.readBytes(new ByteArrayInputStream(data));
+                if(ls.getLatestLeaseDate() <= now)
+                    continue;
+                ctx.netDb().store(ls.getHash(), ls);
+                stored++;
+            } catch (DataFormatException | IOException | IllegalArgumentException e) {
+                LOG.fine("Skipping leaseset from warm start snapshot: "+e.getLocalizedMessage());
+            }
+        }
+        return stored;
+    }
+
+    /**
+     * Snapshot the router's current state, replacing the file atomically.
+     * Never throws as it runs first on shutdown.
+     * @return true if saved
+     */
+    public boolean save(RouterContext ctx, DestinationCache cache) {
+        if(ctx == null || ctx.netDb() == null)
+            return false;
+        try {
+            return write(ctx, cache);
+        } catch (RuntimeException e) {
+            LOG.warning("Unable to save warm start snapshot "+file+": "+e);
+            return false;
+        }
+    }
+
+    private boolean write(RouterContext ctx, DestinationCache cache) {
+        long start = System.currentTimeMillis();
+        List<byte[]> ris = new ArrayList<>();
+        for(RouterInfo ri : rankRouters(ctx)) {
+            if(ris.size() >= maxRouters)
+                break;
+            byte[] data = ri.toByteArray();
+            if(data != null)
+                ris.add(data);
+        }
+        List<byte[]> dests = new ArrayList<>();
+        List<byte[]> lss = new ArrayList<>();
+        if(cache != null) {
+            for(Destination d : cache.recentDestinations(maxDestinations)) {
+                dests.add(d.toByteArray());
+                LeaseSet ls = ctx.netDb().lookupLeaseSetLocally(d.calculateHash());
+                if(ls != null && ls.getLatestLeaseDate() > start)
+                    lss.add(ls.toByteArray());
+            }
+        }
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tmp))))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(start);
+                writeEntries(out, ris);
+                writeEntries(out, dests);
+                writeEntries(out, lss);
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            LOG.warning("Unable to save warm start snapshot "+file+": "+e.getLocalizedMessage());
+            return false;
+        }
+        LOG.info("Saved warm start snapshot in "+(System.currentTimeMillis() - start)+" ms: "
+                +ris.size()+" routers, "+dests.size()+" destinations, "+lss.size()+" leasesets.");
+        return true;
+    }
+
+    /**
+     * Cold start fallback: seed the cache with the bundled built-in peers.
+     * @return number of destinations added
+     */
+    public static int preloadBuiltInPeers(DestinationCache cache) {
+        InputStream in = WarmStartSnapshot.class.getClassLoader().getResourceAsStream(BUILT_IN_PEERS);
+        if(in == null)
+            return 0;
+        int added = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while((line = reader.readLine()) != null) {
+                line = line.trim();
+                if(line.isEmpty() || line.startsWith("#"))
+                    continue;
+                try {
+                    cache.put(new Destination(line));
+                    added++;
+                } catch (DataFormatException e) {
+                    LOG.warning("Invalid built-in peer destination: "+e.getLocalizedMessage());
+                }
+            }
+        } catch (IOException e) {
+            LOG.warning("Unable to read built-in peers: "+e.getLocalizedMessage());
+        }
+        return added;
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    public long getSavedAt() {
+        return savedAt;
+    }
+
+    /**
+     * Fast peers first, then high capacity peers, then the rest by most recently published.
+     * Ranks are read once before sorting as the profile organizer reorganizes concurrently,
+     * which would otherwise give the sort inconsistent comparisons.
+     */
+    private static List<RouterInfo> rankRouters(RouterContext ctx) {
+        List<RouterInfo> routers = new ArrayList<>(ctx.netDb().getRouters());
+        ProfileOrganizer profiles = ctx.profileOrganizer();
+        final Map<Hash, Integer> ranks = new HashMap<>();
+        for(RouterInfo ri : routers) {
+            Hash h = ri.getHash();
+            int rank = 0;
+            if(profiles != null) {
+                if(profiles.isFast(h))
+                    rank = 2;
+                else if(profiles.isHighCapacity(h))
+                    rank = 1;
+            }
+            ranks.put(h, rank);
+        }
+        Collections.sort(routers, new Comparator<RouterInfo>() {
+            @Override
+            public int compare(RouterInfo a, RouterInfo b) {
+                int rank = ranks.get(b.getHash()) - ranks.get(a.getHash());
+                if(rank != 0)
+                    return rank;
+                return Long.compare(b.getDate(), a.getDate());
+            }
+        });
+        return routers;
+    }
+
+    private static void readEntries(DataInputStream in, List<byte[]> entries) throws IOException {
+        int count = in.readInt();
+        for(int i=0; i<count; i++) {
+            int length = in.readInt();
+            if(length < 0 || length > MAX_ENTRY_LENGTH)
+                throw new IOException("Invalid entry length "+length);
+            byte[] data = new byte[length];
+            in.readFully(data);
+            entries.add(data);
+        }
+    }
+
+    private static void writeEntries(DataOutputStream out, List<byte[]> entries) throws IOException {
+        out.writeInt(entries.size());
+        for(byte[] data : entries) {
+            out.writeInt(data.length);
+            out.write(data);
+        }
+    }
+}
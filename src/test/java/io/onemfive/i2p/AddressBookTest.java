@@ -0,0 +1,61 @@
+package io.onemfive.i2p;
+
+import net.i2p.data.Destination;
+import org.junit.Test;
+
+import java.io.StringReader;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author objectorange
+ */
+public class AddressBookTest {
+
+    @Test
+    public void resolvesBundledNamesAndB32() {
+        AddressBook book = AddressBook.load(null);
+        Destination d = book.lookup("tc.i2p");
+        assertNotNull(d);
+        assertSame(d, book.lookup("TC.i2p"));
+        assertEquals(d, book.lookup(d.toBase32()));
+        assertNull(book.lookup("unknown-name.i2p"));
+    }
+
+    @Test
+    public void subscriptionsAddButNeverReplace() throws Exception {
+        AddressBook book = AddressBook.load(null);
+        String tc = book.lookup("tc.i2p").toBase64();
+        String dyad = book.lookup("dyad.i2p").toBase64();
+        int size = book.size();
+        int added = book.update(new StringReader("# feed\ntc.i2p=" + dyad + "\nnew-name.i2p=" + dyad + "#!date=1\n"));
+        assertEquals(1, added);
+        assertEquals(tc, book.lookup("tc.i2p").toBase64());
+        assertEquals(dyad, book.lookup("new-name.i2p").toBase64());
+        // Shares dyad.i2p's b32
+        assertEquals(size + 1, book.size());
+
+        String oldB32 = book.lookup("tc.i2p").toBase32();
+        assertTrue(book.put("tc.i2p", dyad, true));
+        assertEquals(dyad, book.lookup("tc.i2p").toBase64());
+        assertNull(book.lookup(oldB32));
+    }
+
+    @Test
+    public void sharedB32IsKeptWhileANameRefersToIt() {
+        AddressBook book = AddressBook.load(null);
+        Destination dyad = book.lookup("dyad.i2p");
+        String tc = book.lookup("tc.i2p").toBase64();
+        assertTrue(book.put("new-name.i2p", dyad.toBase64(), false));
+        assertTrue(book.remove("new-name.i2p"));
+        assertEquals(dyad, book.lookup(dyad.toBase32()));
+
+        // Overriding a name that shares the destination with another
+        assertTrue(book.put("new-name.i2p", dyad.toBase64(), false));
+        assertTrue(book.put("new-name.i2p", tc, true));
+        assertEquals(dyad, book.lookup(dyad.toBase32()));
+
+        assertTrue(book.remove("dyad.i2p"));
+        assertNull(book.lookup(dyad.toBase32()));
+    }
+}
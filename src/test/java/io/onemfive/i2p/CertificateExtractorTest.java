@@ -0,0 +1,42 @@
+package io.onemfive.i2p;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.net.URL;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author objectorange
+ */
+public class CertificateExtractorTest {
+
+    /**
+     * The manifest is maintained by hand; it must list every bundled certificate with its current hash.
+     */
+    @Test
+    public void manifestMatchesBundledCertificates() throws Exception {
+        Properties manifest = CertificateExtractor.loadManifest();
+        assertNotNull(manifest);
+        URL url = getClass().getClassLoader().getResource(CertificateExtractor.CERTIFICATES_PATH);
+        assertNotNull(url);
+        File dir = new File(url.toURI());
+        Set<String> bundled = new TreeSet<>();
+        for(String type : new String[]{"reseed", "ssl"}) {
+            File[] certificates = new File(dir, type).listFiles();
+            assertNotNull(certificates);
+            for(File f : certificates) {
+                bundled.add(type + "/" + f.getName());
+            }
+        }
+        assertEquals(bundled, new TreeSet<>(manifest.stringPropertyNames()));
+        for(String path : bundled) {
+            assertEquals(path, manifest.getProperty(path).trim().toLowerCase(),
+                    CertificateExtractor.sha256(new File(dir, path)));
+        }
+    }
+}
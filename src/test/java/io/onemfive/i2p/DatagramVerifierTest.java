@@ -0,0 +1,89 @@
+package io.onemfive.i2p;
+
+import net.i2p.client.I2PSession;
+import net.i2p.client.datagram.I2PDatagramMaker;
+import net.i2p.crypto.SigType;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author objectorange
+ */
+public class DatagramVerifierTest {
+
+    private static InboundDatagram signed(I2PSession session, byte[] payload) {
+        byte[] msg = new I2PDatagramMaker(session).makeI2PDatagram(payload);
+        return new InboundDatagram(msg, I2PSession.PROTO_DATAGRAM, I2PSession.PORT_ANY);
+    }
+
+    /**
+     * Signed by the session but with the last payload byte altered afterwards.
+     */
+    private static InboundDatagram forged(I2PSession session, byte[] payload) {
+        byte[] msg = new I2PDatagramMaker(session).makeI2PDatagram(payload);
+        msg[msg.length - 1] ^= 0x01;
+        return new InboundDatagram(msg, I2PSession.PROTO_DATAGRAM, I2PSession.PORT_ANY);
+    }
+
+    private static void verifyBatch(int parallelism) throws Exception {
+        LoopbackNetwork network = new LoopbackNetwork(SigType.EdDSA_SHA512_Ed25519, 1);
+        DatagramVerifier verifier = new DatagramVerifier(parallelism, 16);
+        try {
+            I2PSession alice = network.newSession();
+            I2PSession bob = network.newSession();
+            List<InboundDatagram> batch = new ArrayList<>();
+            for(int i=0; i<12; i++) {
+                byte[] payload = new byte[]{(byte)i, 1, 2, 3};
+                batch.add(i % 3 == 2 ? forged(bob, payload) : signed(i % 3 == 0 ? alice : bob, payload));
+            }
+            InboundDatagram raw = new InboundDatagram(new byte[32], I2PSession.PROTO_DATAGRAM_RAW, I2PSensor.RAW_PORT);
+            batch.add(raw);
+
+            verifier.verify(batch);
+
+            InboundDatagram firstFromAlice = batch.get(0);
+            InboundDatagram firstFromBob = batch.get(1);
+            for(int i=0; i<12; i++) {
+                InboundDatagram d = batch.get(i);
+                if(i % 3 == 2) {
+                    assertFalse(d.verified);
+                    assertNotNull(d.error);
+                    assertNull(d.sender);
+                } else {
+                    assertTrue(d.verified);
+                    assertNull(d.error);
+                    assertArrayEquals(new byte[]{(byte)i, 1, 2, 3}, d.payload);
+                    // Repeat senders share one interned Destination
+                    assertSame((i % 3 == 0 ? firstFromAlice : firstFromBob).sender, d.sender);
+                }
+            }
+            assertEquals(alice.getMyDestination(), firstFromAlice.sender);
+            assertEquals(bob.getMyDestination(), firstFromBob.sender);
+            assertFalse(raw.verified);
+            assertNull(raw.error);
+            assertEquals(8, verifier.getVerified());
+            assertEquals(4, verifier.getFailed());
+
+            // Verified datagrams aren't verified again
+            verifier.verify(batch);
+            assertEquals(8, verifier.getVerified());
+        } finally {
+            verifier.shutdown();
+            network.shutdown();
+        }
+    }
+
+    @Test
+    public void batchesAreVerifiedOnTheCallingThread() throws Exception {
+        verifyBatch(1);
+    }
+
+    @Test
+    public void batchesAreVerifiedInParallel() throws Exception {
+        verifyBatch(4);
+    }
+}
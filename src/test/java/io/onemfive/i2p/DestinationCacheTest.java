@@ -0,0 +1,138 @@
+package io.onemfive.i2p;
+
+import net.i2p.client.I2PSession;
+import net.i2p.data.Base64;
+import net.i2p.data.Destination;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author objectorange
+ */
+public class DestinationCacheTest {
+
+    private static Destination destination(int n) throws Exception {
+        byte[] bytes = new byte[387];
+        Arrays.fill(bytes, 0, 384, (byte)n);
+        return new Destination(Base64.encode(bytes));
+    }
+
+    /**
+     * Session answering lookups from the given destination, counting them.
+     */
+    private static I2PSession session(final Destination answer, final AtomicInteger lookups) {
+        return (I2PSession) Proxy.newProxyInstance(I2PSession.class.getClassLoader(),
+                new Class<?>[]{I2PSession.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if("lookupDest".equals(method.getName())) {
+                            lookups.incrementAndGet();
+                            return answer;
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    @Test
+    public void capacityCountsDestinationsNotAddresses() throws Exception {
+        DestinationCache cache = new DestinationCache(4, 60000, 60000);
+        for(int i=1; i<=4; i++) {
+            cache.put(destination(i));
+        }
+        assertEquals(4, cache.size());
+        AtomicInteger lookups = new AtomicInteger();
+        I2PSession session = session(null, lookups);
+        for(int i=1; i<=4; i++) {
+            Destination d = destination(i);
+            assertEquals(d, cache.lookup(session, d.toBase32()));
+            assertEquals(d, cache.lookup(session, d.calculateHash().toBase64()));
+        }
+        assertEquals(0, lookups.get());
+        assertEquals(8, cache.getHits());
+    }
+
+    @Test
+    public void evictionRemovesEveryAddressOfTheDestination() throws Exception {
+        DestinationCache cache = new DestinationCache(2, 60000, 60000);
+        Destination first = destination(1);
+        AtomicInteger lookups = new AtomicInteger();
+        cache.lookup(session(first, lookups), "first.i2p");
+        cache.put(destination(2));
+        // Touch the first so the second is least recently used
+        assertEquals(first, cache.lookup(session(null, lookups), first.toBase32()));
+        cache.put(destination(3));
+        assertEquals(2, cache.size());
+        assertEquals(1, lookups.get());
+
+        Destination second = destination(2);
+        I2PSession none = session(null, lookups);
+        assertNull(cache.lookup(none, second.toBase32()));
+        assertNull(cache.lookup(none, second.calculateHash().toBase64()));
+        assertEquals(3, lookups.get());
+        // The failed lookups each take an entry, evicting the first under all its addresses
+        assertEquals(2, cache.size());
+        assertNull(cache.lookup(none, "first.i2p"));
+        assertNull(cache.lookup(none, first.toBase32()));
+        assertEquals(5, lookups.get());
+        List<Destination> recent = cache.recentDestinations(10);
+        assertTrue(recent.isEmpty());
+    }
+
+    @Test
+    public void destinationsAreNotDuplicatedAcrossAddresses() throws Exception {
+        DestinationCache cache = new DestinationCache(8, 60000, 60000);
+        Destination d = destination(1);
+        AtomicInteger lookups = new AtomicInteger();
+        cache.lookup(session(d, lookups), "one.i2p");
+        cache.lookup(session(d, lookups), "uno.i2p");
+        cache.put(d);
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.recentDestinations(10).size());
+        assertEquals(d, cache.lookup(session(null, lookups), "one.i2p"));
+        assertEquals(2, lookups.get());
+
+        // Invalidating any address forgets the destination under all of them
+        cache.invalidate(d.toBase32());
+        assertEquals(0, cache.size());
+        assertNull(cache.lookup(session(null, lookups), "uno.i2p"));
+        assertEquals(3, lookups.get());
+    }
+
+    @Test
+    public void failedLookupsExpireAfterTheNegativeTtl() throws Exception {
+        DestinationCache cache = new DestinationCache(8, 60000, 50);
+        AtomicInteger lookups = new AtomicInteger();
+        I2PSession none = session(null, lookups);
+        assertNull(cache.lookup(none, "missing.i2p"));
+        assertNull(cache.lookup(none, "missing.i2p"));
+        assertEquals(1, lookups.get());
+        assertEquals(1, cache.getNegativeHits());
+
+        Thread.sleep(100);
+        Destination d = destination(1);
+        assertEquals(d, cache.lookup(session(d, lookups), "missing.i2p"));
+        assertEquals(2, lookups.get());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void fullBase64DestinationsAreParsedLocally() throws Exception {
+        DestinationCache cache = new DestinationCache(8, 60000, 60000);
+        AtomicInteger lookups = new AtomicInteger();
+        Destination d = destination(1);
+        assertEquals(d, cache.lookup(session(null, lookups), d.toBase64()));
+        assertEquals(0, lookups.get());
+        assertEquals(1, cache.getLocalParses());
+        assertEquals(d, cache.lookup(session(null, lookups), d.toBase32()));
+        assertEquals(1, cache.size());
+    }
+}
@@ -0,0 +1,134 @@
+package io.onemfive.i2p;
+
+import net.i2p.crypto.SigType;
+import net.i2p.data.Base64;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeFalse;
+
+/**
+ * @author objectorange
+ */
+public class DestinationKeysTest {
+
+    private File dir;
+    private File keyFile;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("keys").toFile();
+        keyFile = new File(dir, "local.key");
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if(files != null) {
+            for(File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private static byte[] read(File f) throws IOException {
+        return Base64.decode(new String(Files.readAllBytes(f.toPath()), StandardCharsets.US_ASCII).trim());
+    }
+
+    @Test
+    public void missingKeysAreCreatedOnceOfTheConfiguredType() throws Exception {
+        DestinationKeys keys = new DestinationKeys(SigType.EdDSA_SHA512_Ed25519, true);
+        byte[] key = keys.loadOrCreate(keyFile);
+        assertEquals(SigType.EdDSA_SHA512_Ed25519, DestinationKeys.typeOf(key));
+        assertArrayEquals(key, read(keyFile));
+        assertArrayEquals(key, keys.loadOrCreate(keyFile));
+    }
+
+    @Test
+    public void keysOfAnotherTypeAreMigratedAndBackedUp() throws Exception {
+        byte[] old = new DestinationKeys(SigType.ECDSA_SHA256_P256, true).loadOrCreate(keyFile);
+
+        byte[] key = new DestinationKeys(SigType.EdDSA_SHA512_Ed25519, true).loadOrCreate(keyFile);
+        assertEquals(SigType.EdDSA_SHA512_Ed25519, DestinationKeys.typeOf(key));
+        assertArrayEquals(key, read(keyFile));
+        File backup = new File(dir, "local.key." + SigType.ECDSA_SHA256_P256.name());
+        assertTrue(backup.isFile());
+        assertArrayEquals(old, read(backup));
+    }
+
+    @Test
+    public void keysOfAnotherTypeAreKeptWhenMigrationIsDisabled() throws Exception {
+        byte[] old = new DestinationKeys(SigType.ECDSA_SHA256_P256, true).loadOrCreate(keyFile);
+
+        byte[] key = new DestinationKeys(SigType.EdDSA_SHA512_Ed25519, false).loadOrCreate(keyFile);
+        assertArrayEquals(old, key);
+        assertArrayEquals(old, read(keyFile));
+        assertEquals(1, dir.listFiles().length);
+    }
+
+    @Test
+    public void invalidKeysAreReplacedAndBackedUp() throws Exception {
+        Files.write(keyFile.toPath(), "not a key".getBytes(StandardCharsets.US_ASCII));
+
+        byte[] key = new DestinationKeys(SigType.EdDSA_SHA512_Ed25519, false).loadOrCreate(keyFile);
+        assertEquals(SigType.EdDSA_SHA512_Ed25519, DestinationKeys.typeOf(key));
+        assertTrue(new File(dir, "local.key.invalid").isFile());
+    }
+
+    @Test
+    public void unreadableKeysThrowAndAreKept() throws Exception {
+        byte[] old = new DestinationKeys(SigType.EdDSA_SHA512_Ed25519, true).loadOrCreate(keyFile);
+        assertTrue(keyFile.setReadable(false));
+        // Permissions don't stop a privileged user
+        assumeFalse(keyFile.canRead());
+        try {
+            new DestinationKeys(SigType.EdDSA_SHA512_Ed25519, true).loadOrCreate(keyFile);
+            fail("Unreadable key file loaded");
+        } catch (IOException e) {
+            // expected
+        } finally {
+            keyFile.setReadable(true);
+        }
+        assertArrayEquals(old, read(keyFile));
+        assertEquals(1, dir.listFiles().length);
+    }
+
+    @Test
+    public void migratingBackKeepsEarlierBackups() throws Exception {
+        byte[] first = new DestinationKeys(SigType.ECDSA_SHA256_P256, true).loadOrCreate(keyFile);
+        byte[] second = new DestinationKeys(SigType.EdDSA_SHA512_Ed25519, true).loadOrCreate(keyFile);
+        byte[] third = new DestinationKeys(SigType.ECDSA_SHA256_P256, true).loadOrCreate(keyFile);
+        new DestinationKeys(SigType.EdDSA_SHA512_Ed25519, true).loadOrCreate(keyFile);
+
+        assertArrayEquals(first, read(new File(dir, "local.key." + SigType.ECDSA_SHA256_P256.name())));
+        assertArrayEquals(second, read(new File(dir, "local.key." + SigType.EdDSA_SHA512_Ed25519.name())));
+        assertArrayEquals(third, read(new File(dir, "local.key." + SigType.ECDSA_SHA256_P256.name() + ".1")));
+    }
+
+    @Test
+    public void keysThatCantBeBackedUpAreKept() throws Exception {
+        byte[] old = new DestinationKeys(SigType.ECDSA_SHA256_P256, true).loadOrCreate(keyFile);
+        DestinationKeys keys = new DestinationKeys(SigType.EdDSA_SHA512_Ed25519, true) {
+            @Override
+            void move(File from, File to) throws IOException {
+                throw new IOException("Read-only file system");
+            }
+        };
+        try {
+            keys.loadOrCreate(keyFile);
+            fail("Key replaced without a backup");
+        } catch (IOException e) {
+            // expected
+        }
+        assertArrayEquals(old, read(keyFile));
+        assertEquals(1, dir.listFiles().length);
+    }
+}
@@ -0,0 +1,57 @@
+package io.onemfive.i2p;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author objectorange
+ */
+public class DuplicateFilterTest {
+
+    private static final byte[] ALICE = {1, 2, 3};
+    private static final byte[] BOB = {4, 5, 6};
+
+    private static long key(byte[] sender, String payload) {
+        byte[] b = Payloads.encode(payload);
+        return DuplicateFilter.key(sender, b, 0, b.length);
+    }
+
+    @Test
+    public void repeatsFromTheSameSenderAreSuppressed() {
+        DuplicateFilter f = new DuplicateFilter(1000, 100);
+        assertFalse(f.isDuplicate(key(ALICE, "hello"), 0));
+        assertTrue(f.isDuplicate(key(ALICE, "hello"), 10));
+        assertFalse(f.isDuplicate(key(BOB, "hello"), 20));
+        assertFalse(f.isDuplicate(key(ALICE, "hello again"), 30));
+        assertEquals(4, f.getChecked());
+        assertEquals(1, f.getSuppressed());
+        assertEquals(25.0, f.getSuppressionPct(), 0.001);
+        assertEquals(3, f.size());
+    }
+
+    @Test
+    public void keysAreRememberedForOneToTwoWindows() {
+        DuplicateFilter f = new DuplicateFilter(1000, 100);
+        assertFalse(f.isDuplicate(key(ALICE, "a"), 0));
+        // Rotated into the previous generation
+        assertTrue(f.isDuplicate(key(ALICE, "a"), 1500));
+        assertFalse(f.isDuplicate(key(ALICE, "b"), 1500));
+        // Both generations stale
+        assertFalse(f.isDuplicate(key(ALICE, "b"), 5000));
+        assertFalse(f.isDuplicate(key(ALICE, "a"), 5000));
+    }
+
+    @Test
+    public void fullGenerationsRotateEarly() {
+        DuplicateFilter f = new DuplicateFilter(60000, 4);
+        for(int i=0; i<12; i++) {
+            assertFalse(f.isDuplicate(key(ALICE, "m" + i), i));
+        }
+        assertEquals(2, f.getEarlyRotations());
+        assertEquals(8, f.size());
+        // Still within the previous generation
+        assertTrue(f.isDuplicate(key(ALICE, "m7"), 20));
+        assertFalse(f.isDuplicate(key(ALICE, "m0"), 20));
+    }
+}
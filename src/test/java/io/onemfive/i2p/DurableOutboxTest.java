@@ -0,0 +1,258 @@
+package io.onemfive.i2p;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author objectorange
+ */
+public class DurableOutboxTest {
+
+    private File dir;
+    private final List<String> sent = Collections.synchronizedList(new ArrayList<String>());
+    private volatile boolean connected = true;
+
+    private final DurableOutbox.Replayer replayer = new DurableOutbox.Replayer() {
+        @Override
+        public DurableOutbox.Outcome replay(String address, byte[] payload) {
+            if(!connected)
+                return DurableOutbox.Outcome.RETRY;
+            if(address.startsWith("unknown"))
+                return DurableOutbox.Outcome.REJECTED;
+            sent.add(address + ":" + new String(payload, StandardCharsets.UTF_8));
+            return DurableOutbox.Outcome.SENT;
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("outbox").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if(files != null) {
+            for(File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void survivesReopenUntilAcknowledged() throws Exception {
+        DurableOutbox outbox = new DurableOutbox(dir, 4096, 1, 2, false, replayer);
+        outbox.open();
+        outbox.append("peerA", "one".getBytes(StandardCharsets.UTF_8));
+        outbox.append("peerB", "two".getBytes(StandardCharsets.UTF_8));
+        outbox.close();
+
+        outbox = new DurableOutbox(dir, 4096, 1, 2, false, replayer);
+        outbox.open();
+        assertEquals(2, outbox.getPending());
+        outbox.replay();
+        awaitPending(outbox, 0);
+        assertEquals(2, outbox.getReplayed());
+        assertEquals("peerA:one", sent.get(0));
+        assertEquals("peerB:two", sent.get(1));
+        outbox.close();
+
+        outbox = new DurableOutbox(dir, 4096, 1, 2, false, replayer);
+        outbox.open();
+        assertEquals(0, outbox.getPending());
+        outbox.close();
+    }
+
+    @Test
+    public void failedReplayIsRetainedAndSegmentsCompacted() throws Exception {
+        DurableOutbox outbox = new DurableOutbox(dir, 64, 1, 2, false, replayer);
+        outbox.open();
+        for(int i=0; i<6; i++) {
+            outbox.append("peer", ("message" + i).getBytes(StandardCharsets.UTF_8));
+        }
+        assertTrue(outbox.getSegments() > 1);
+
+        connected = false;
+        outbox.replay();
+        Thread.sleep(200);
+        assertEquals(6, outbox.getPending());
+
+        connected = true;
+        outbox.replay();
+        awaitPending(outbox, 0);
+        for(int i=0; i<6; i++) {
+            assertEquals("peer:message" + i, sent.get(i));
+        }
+        assertEquals(1, outbox.getSegments());
+        outbox.close();
+    }
+
+    @Test
+    public void rejectedRecordsDoNotBlockReplayAndAreDeadLettered() throws Exception {
+        DurableOutbox outbox = new DurableOutbox(dir, 64, 1, 2, false, replayer);
+        outbox.open();
+        outbox.append("unknown", "lost".getBytes(StandardCharsets.UTF_8));
+        for(int i=0; i<3; i++) {
+            outbox.append("peer", ("message" + i).getBytes(StandardCharsets.UTF_8));
+        }
+        outbox.replay();
+        awaitPending(outbox, 1);
+        assertEquals(3, sent.size());
+        assertEquals(0, outbox.getDeadLettered());
+
+        outbox.replay();
+        awaitPending(outbox, 0);
+        assertEquals(1, outbox.getDeadLettered());
+        assertTrue(new File(dir, DurableOutbox.DEAD_LETTER_FILE).length() > 0);
+        assertEquals(1, outbox.getSegments());
+        outbox.close();
+    }
+
+    @Test
+    public void corruptRecordsAreSkippedAndAcknowledged() throws Exception {
+        DurableOutbox outbox = new DurableOutbox(dir, 4096, 1, 2, false, replayer);
+        outbox.open();
+        for(int i=0; i<3; i++) {
+            outbox.append("peer", ("message" + i).getBytes(StandardCharsets.UTF_8));
+        }
+        outbox.close();
+
+        // Flip a payload byte of the second record; each record is 8 + 10 + 4 + 8 bytes
+        File segment = null;
+        for(File f : dir.listFiles()) {
+            if(f.getName().startsWith("segment-"))
+                segment = f;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+            raf.seek(30 + 29);
+            raf.write('X');
+        }
+
+        outbox = new DurableOutbox(dir, 4096, 1, 2, false, replayer);
+        outbox.open();
+        assertEquals(2, outbox.getPending());
+        outbox.replay();
+        awaitPending(outbox, 0);
+        assertEquals("peer:message0", sent.get(0));
+        assertEquals("peer:message2", sent.get(1));
+        outbox.close();
+
+        // The watermark passed the corrupt record
+        outbox = new DurableOutbox(dir, 4096, 1, 2, false, replayer);
+        outbox.open();
+        assertEquals(0, outbox.getPending());
+        outbox.close();
+    }
+
+    @Test
+    public void replaysInOrderPerAddressAcrossConcurrentReplayers() throws Exception {
+        DurableOutbox outbox = new DurableOutbox(dir, 4096, 4, 2, false, new DurableOutbox.Replayer() {
+            private final Random random = new Random();
+            @Override
+            public DurableOutbox.Outcome replay(String address, byte[] payload) {
+                try {
+                    Thread.sleep(random.nextInt(5));
+                } catch (InterruptedException e) {
+                    return DurableOutbox.Outcome.RETRY;
+                }
+                return replayer.replay(address, payload);
+            }
+        });
+        outbox.open();
+        for(int i=0; i<10; i++) {
+            for(int p=0; p<4; p++) {
+                outbox.append("peer" + p, String.valueOf(i).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        outbox.replay();
+        awaitPending(outbox, 0);
+        assertEquals(40, sent.size());
+        for(int p=0; p<4; p++) {
+            int expected = 0;
+            for(String s : sent) {
+                if(s.startsWith("peer" + p + ":"))
+                    assertEquals("peer" + p + ":" + expected++, s);
+            }
+            assertEquals(10, expected);
+        }
+        outbox.close();
+    }
+
+    @Test
+    public void failedRecordHoldsBackLaterRecordsToItsAddressOnly() throws Exception {
+        final AtomicBoolean failFirst = new AtomicBoolean(true);
+        DurableOutbox outbox = new DurableOutbox(dir, 4096, 1, 2, false, new DurableOutbox.Replayer() {
+            @Override
+            public DurableOutbox.Outcome replay(String address, byte[] payload) {
+                if(address.equals("peerA") && failFirst.getAndSet(false))
+                    return DurableOutbox.Outcome.RETRY;
+                return replayer.replay(address, payload);
+            }
+        });
+        outbox.open();
+        outbox.append("peerA", "one".getBytes(StandardCharsets.UTF_8));
+        outbox.append("peerB", "two".getBytes(StandardCharsets.UTF_8));
+        outbox.append("peerA", "three".getBytes(StandardCharsets.UTF_8));
+        outbox.replay();
+        awaitPending(outbox, 2);
+        assertEquals(Collections.singletonList("peerB:two"), sent);
+
+        outbox.replay();
+        awaitPending(outbox, 0);
+        assertEquals(Arrays.asList("peerB:two", "peerA:one", "peerA:three"), sent);
+        outbox.close();
+    }
+
+    @Test
+    public void closeDuringReplayKeepsRecordsPending() throws Exception {
+        final CountDownLatch replaying = new CountDownLatch(1);
+        DurableOutbox outbox = new DurableOutbox(dir, 4096, 1, 2, false, new DurableOutbox.Replayer() {
+            @Override
+            public DurableOutbox.Outcome replay(String address, byte[] payload) {
+                replaying.countDown();
+                try {
+                    Thread.sleep(5000);
+                } catch (InterruptedException e) {
+                    return DurableOutbox.Outcome.RETRY;
+                }
+                return DurableOutbox.Outcome.SENT;
+            }
+        });
+        outbox.open();
+        outbox.append("peerA", "one".getBytes(StandardCharsets.UTF_8));
+        outbox.append("peerB", "two".getBytes(StandardCharsets.UTF_8));
+        outbox.replay();
+        assertTrue(replaying.await(5, TimeUnit.SECONDS));
+        outbox.close();
+        awaitPending(outbox, 2);
+        // Closed; neither replays nor throws
+        outbox.replay();
+        assertEquals(2, outbox.getPending());
+        assertEquals(0, outbox.getReplayed());
+    }
+
+    private static void awaitPending(DurableOutbox outbox, int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while(outbox.getPending() != expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, outbox.getPending());
+    }
+}
@@ -0,0 +1,73 @@
+package io.onemfive.i2p;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Round trips payloads through {@link DatagramFragmenter} and {@link FragmentReassembler}.
+ *
+ * @author objectorange
+ */
+public class FragmentReassemblerTest {
+
+    @Test
+    public void reassemblesOutOfOrderFragments() throws Exception {
+        DatagramFragmenter fragmenter = new DatagramFragmenter(1000);
+        FragmentReassembler reassembler = new FragmentReassembler(8, 1024 * 1024, 60 * 1000);
+        byte[] payload = new byte[4500];
+        new Random(1).nextBytes(payload);
+        byte[][] fragments = fragmenter.fragment(payload);
+        assertEquals(5, fragments.length);
+        byte[] result = null;
+        for(int i=fragments.length-1; i>=0; i--) {
+            assertNull(result);
+            result = reassembler.add("sender", fragments[i]);
+        }
+        assertArrayEquals(payload, result);
+        assertEquals(0, reassembler.pendingMessages());
+        assertEquals(0, reassembler.bufferedBytes());
+    }
+
+    @Test
+    public void evictsOldestWhenFull() throws Exception {
+        DatagramFragmenter fragmenter = new DatagramFragmenter(100);
+        FragmentReassembler reassembler = new FragmentReassembler(2, 1024 * 1024, 60 * 1000);
+        byte[][] first = fragmenter.fragment(new byte[300]);
+        reassembler.add("a", first[0]);
+        reassembler.add("b", fragmenter.fragment(new byte[300])[0]);
+        reassembler.add("c", fragmenter.fragment(new byte[300])[0]);
+        assertEquals(2, reassembler.pendingMessages());
+        assertEquals(1, reassembler.evictedMessages());
+        // Remaining fragments of the evicted message start a new partial message rather than completing it
+        assertNull(reassembler.add("a", first[1]));
+    }
+
+    @Test
+    public void ignoresDuplicateFragments() throws Exception {
+        DatagramFragmenter fragmenter = new DatagramFragmenter(100);
+        FragmentReassembler reassembler = new FragmentReassembler(8, 1024 * 1024, 60 * 1000);
+        byte[][] fragments = fragmenter.fragment(new byte[150]);
+        assertNull(reassembler.add("a", fragments[0]));
+        assertNull(reassembler.add("a", fragments[0]));
+        assertEquals(150, reassembler.add("a", fragments[1]).length);
+    }
+
+    @Test
+    public void tinyFragmentsAreChargedTheirOverhead() throws Exception {
+        FragmentReassembler reassembler = new FragmentReassembler(64, 10 * FragmentReassembler.FRAGMENT_OVERHEAD, 60 * 1000);
+        // Announce the largest count with one byte of data per fragment
+        for(int i=0; i<20; i++) {
+            byte[] fragment = new byte[DatagramFragmenter.HEADER_LENGTH + 1];
+            fragment[0] = (byte)DatagramFragmenter.VERSION;
+            fragment[4] = (byte)i;
+            fragment[7] = (byte)0xFF;
+            fragment[8] = (byte)0xFF;
+            assertNull(reassembler.add("a", fragment));
+        }
+        assertTrue(reassembler.bufferedBytes() <= 10 * FragmentReassembler.FRAGMENT_OVERHEAD);
+        assertTrue(reassembler.evictedMessages() > 0);
+    }
+}
@@ -0,0 +1,242 @@
+package io.onemfive.i2p;
+
+import io.onemfive.data.*;
+import io.onemfive.data.util.DLC;
+import io.onemfive.sensors.SensorManager;
+import io.onemfive.sensors.SensorRequest;
+import net.i2p.client.I2PSession;
+import net.i2p.crypto.SigType;
+import net.i2p.router.TunnelPoolSettings;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Sends between sensors attached to a {@link LoopbackNetwork}.
+ *
+ * @author objectorange
+ */
+public class I2PSensorTest {
+
+    private LoopbackNetwork network;
+    private final Map<I2PSensor, String> sensors = new LinkedHashMap<>();
+
+    @Before
+    public void setUp() {
+        network = new LoopbackNetwork(SigType.EdDSA_SHA512_Ed25519, 2);
+    }
+
+    @After
+    public void tearDown() {
+        for(I2PSensor s : sensors.keySet()) {
+            s.shutdown();
+        }
+        network.shutdown();
+    }
+
+    @Test
+    public void sendToAllSignsOnceAndReportsEachRecipient() throws Exception {
+        I2PSensor sender = attach(null);
+        List<BlockingQueue<Object>> inboxes = new ArrayList<>();
+        List<DID> recipients = new ArrayList<>();
+        for(int i=0; i<3; i++) {
+            BlockingQueue<Object> inbox = new LinkedBlockingQueue<>();
+            inboxes.add(inbox);
+            recipients.add(did(address(attach(inbox))));
+        }
+        recipients.add(1, did("unknown.i2p"));
+
+        List<SendResult> results = sender.sendToAll(envelope("Hello"), recipients);
+
+        assertEquals(4, results.size());
+        assertTrue(results.get(0).isSent());
+        assertFalse(results.get(1).isSent());
+        assertEquals(SensorRequest.TO_PEER_NOT_FOUND, results.get(1).getErrorCode());
+        assertTrue(results.get(2).isSent());
+        assertTrue(results.get(3).isSent());
+        assertEquals(1, sender.getMetrics().sign.getCount());
+        for(BlockingQueue<Object> inbox : inboxes) {
+            assertEquals("Hello", inbox.poll(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void sendToAllFragmentsOnceForEveryRecipient() throws Exception {
+        I2PSensor sender = attach(null);
+        List<BlockingQueue<Object>> inboxes = new ArrayList<>();
+        List<DID> recipients = new ArrayList<>();
+        for(int i=0; i<2; i++) {
+            BlockingQueue<Object> inbox = new LinkedBlockingQueue<>();
+            inboxes.add(inbox);
+            recipients.add(did(address(attach(inbox))));
+        }
+        char[] chars = new char[2 * I2PSensor.MAX_DATAGRAM_PAYLOAD + 100];
+        Arrays.fill(chars, 'x');
+        String content = new String(chars);
+
+        List<SendResult> results = sender.sendToAll(envelope(content), recipients);
+
+        for(SendResult r : results) {
+            assertTrue(r.getErrorMessage(), r.isSent());
+        }
+        long signed = sender.getMetrics().sign.getCount();
+        // One signature per fragment, shared by both recipients
+        assertTrue(signed >= 3);
+        for(BlockingQueue<Object> inbox : inboxes) {
+            assertEquals(content, inbox.poll(5, TimeUnit.SECONDS));
+        }
+        assertEquals(2 * signed, network.getDelivered());
+    }
+
+    @Test
+    public void sendToAllBeforeStartFailsEveryRecipient() {
+        I2PSensor sensor = new I2PSensor(null, Envelope.Sensitivity.MEDIUM, 100);
+        List<SendResult> results = sensor.sendToAll(envelope("Hello"),
+                Arrays.asList(did("a.i2p"), did("b.i2p")));
+        assertEquals(2, results.size());
+        for(SendResult r : results) {
+            assertFalse(r.isSent());
+            assertEquals(SensorRequest.SENDING_FAILED, r.getErrorCode());
+        }
+    }
+
+    @Test
+    public void updateI2CPOptionsLeavesShardOverrides() throws Exception {
+        Properties p = new Properties();
+        p.setProperty("1m5.sensors.i2p.shards.1.inbound.quantity", "5");
+        I2PSession primary = network.newSession();
+        I2PSession shard = network.newSession();
+        SessionShards shards = new SessionShards(16);
+        shards.add(primary, 0);
+        shards.add(shard, 1);
+        I2PSensor sensor = attach(p, primary, shards);
+
+        Properties options = new Properties();
+        options.setProperty("inbound.quantity", "3");
+        options.setProperty("outbound.quantity", "3");
+        options.setProperty("i2cp.unknown", "ignored");
+        assertTrue(sensor.updateI2CPOptions(options));
+
+        assertEquals("3", primary.getOptions().getProperty("inbound.quantity"));
+        assertEquals("3", primary.getOptions().getProperty("outbound.quantity"));
+        assertNull(shard.getOptions().getProperty("inbound.quantity"));
+        assertEquals("3", shard.getOptions().getProperty("outbound.quantity"));
+        assertNull(primary.getOptions().getProperty("i2cp.unknown"));
+        // Kept for the next session
+        assertEquals("3", p.getProperty("inbound.quantity"));
+        assertFalse(sensor.updateI2CPOptions(options));
+    }
+
+    @Test
+    public void reloadI2CPConfigRestoresRemovedOptions() throws Exception {
+        Properties p = new Properties();
+        p.setProperty("outbound.quantity", "4");
+        I2PSession session = network.newSession();
+        I2PSensor sensor = attach(p, session, null);
+
+        Properties config = new Properties();
+        config.setProperty("inbound.quantity", "6");
+        config.setProperty("outbound.quantity", "6");
+        assertTrue(sensor.reloadI2CPConfig(config));
+        assertEquals("6", session.getOptions().getProperty("inbound.quantity"));
+        assertEquals("6", session.getOptions().getProperty("outbound.quantity"));
+        // The file is read again on the next start
+        assertNull(p.getProperty("inbound.quantity"));
+        assertEquals("4", p.getProperty("outbound.quantity"));
+
+        assertTrue(sensor.reloadI2CPConfig(new Properties()));
+        // Back to the router's default, or the sensor's own setting
+        assertEquals(String.valueOf(TunnelPoolSettings.DEFAULT_QUANTITY), session.getOptions().getProperty("inbound.quantity"));
+        assertEquals("4", session.getOptions().getProperty("outbound.quantity"));
+        assertFalse(sensor.reloadI2CPConfig(new Properties()));
+    }
+
+    @Test
+    public void diffFindsChangedAndRemovedSettings() {
+        Properties previous = new Properties();
+        previous.setProperty("i2np.ntcp.port", "1000");
+        previous.setProperty("i2np.udp.port", "2000");
+        previous.setProperty("router.sharePercentage", "80");
+        Properties current = new Properties();
+        current.setProperty("i2np.ntcp.port", "1000");
+        current.setProperty("router.sharePercentage", "50");
+        current.setProperty("i2np.upnp.enable", "false");
+        Map<String, String> changed = new HashMap<>();
+        List<String> removed = new ArrayList<>();
+
+        I2PSensor.diff(previous, current, changed, removed);
+
+        assertEquals(2, changed.size());
+        assertEquals("50", changed.get("router.sharePercentage"));
+        assertEquals("false", changed.get("i2np.upnp.enable"));
+        assertEquals(Collections.singletonList("i2np.udp.port"), removed);
+    }
+
+    /**
+     * @param inbox receives the content of envelopes the sensor sends to the bus; may be null
+     */
+    private I2PSensor attach(final BlockingQueue<Object> inbox) throws Exception {
+        I2PSensor sensor = new I2PSensor(bus(inbox), Envelope.Sensitivity.MEDIUM, 100);
+        I2PSession session = network.newSession();
+        sensor.attach(new Properties(), session);
+        sensors.put(sensor, session.getMyDestination().toBase64());
+        return sensor;
+    }
+
+    private I2PSensor attach(Properties p, I2PSession session, SessionShards shards) {
+        I2PSensor sensor = new I2PSensor(bus(null), Envelope.Sensitivity.MEDIUM, 100);
+        sensor.attach(p, session, shards);
+        sensors.put(sensor, session.getMyDestination().toBase64());
+        return sensor;
+    }
+
+    private String address(I2PSensor sensor) {
+        return sensors.get(sensor);
+    }
+
+    private static SensorManager bus(final BlockingQueue<Object> inbox) {
+        return (SensorManager) Proxy.newProxyInstance(SensorManager.class.getClassLoader(),
+                new Class<?>[] {SensorManager.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        switch (method.getName()) {
+                            case "sendToBus":
+                                Envelope e = (Envelope)args[0];
+                                if(inbox != null && e.getMessage() instanceof EventMessage)
+                                    inbox.add(((EventMessage)e.getMessage()).getMessage());
+                                return true;
+                            case "hashCode": return System.identityHashCode(proxy);
+                            case "equals": return proxy == args[0];
+                            case "toString": return "I2PSensorTestBus";
+                        }
+                        return LoopbackNetwork.defaultValue(method.getReturnType());
+                    }
+                });
+    }
+
+    private static DID did(String address) {
+        NetworkPeer peer = new NetworkPeer(NetworkPeer.Network.I2P.name());
+        peer.setAddress(address);
+        DID did = new DID();
+        did.addPeer(peer);
+        return did;
+    }
+
+    private static Envelope envelope(String content) {
+        Envelope e = Envelope.documentFactory();
+        SensorRequest request = new SensorRequest();
+        request.content = content;
+        DLC.addData(SensorRequest.class, request, e);
+        return e;
+    }
+}
@@ -0,0 +1,155 @@
+package io.onemfive.i2p;
+
+import net.i2p.client.I2PSession;
+import net.i2p.data.Hash;
+import org.junit.Test;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author objectorange
+ */
+public class InboundAdmissionTest {
+
+    private static InboundAdmission admission(long maxBytesPerSecond) {
+        // 10/s with a burst of 5, probes every second, 2 strikes within a minute denylist for 10 seconds
+        return new InboundAdmission(1024, maxBytesPerSecond, 10, 5, 16, 1000, 2, 60000, 10000, null);
+    }
+
+    /**
+     * Signed datagram layout: a destination with a null certificate followed by the signature and payload.
+     */
+    private static InboundDatagram datagram(int sender, int length) {
+        byte[] msg = new byte[length];
+        Arrays.fill(msg, 0, Math.min(384, length), (byte)sender);
+        return new InboundDatagram(msg, I2PSession.PROTO_DATAGRAM, I2PSession.PORT_ANY);
+    }
+
+    private static Hash hash(int sender) throws Exception {
+        byte[] destination = new byte[387];
+        Arrays.fill(destination, 0, 384, (byte)sender);
+        return new Hash(MessageDigest.getInstance("SHA-256").digest(destination));
+    }
+
+    @Test
+    public void sendersAreLimitedIndependently() {
+        InboundAdmission a = admission(0);
+        long now = 1000000L;
+        for(int i=0; i<5; i++) {
+            assertTrue(a.admit(datagram(1, 500), now));
+        }
+        // First datagram over the limit is a probe; the rest are dropped until the next probe interval
+        InboundDatagram probe = datagram(1, 500);
+        assertTrue(a.admit(probe, now));
+        assertTrue(probe.probe);
+        assertFalse(a.admit(datagram(1, 500), now));
+        assertEquals(1, a.getDroppedRateLimited());
+        assertTrue(a.admit(datagram(2, 500), now));
+        // Refilled at 10/s
+        assertTrue(a.admit(datagram(1, 500), now + 100));
+        assertEquals(8, a.getAdmitted());
+    }
+
+    @Test
+    public void oversizeMalformedAndOverBudgetAreDropped() {
+        InboundAdmission a = admission(1000);
+        long now = 1000000L;
+        assertFalse(a.admit(datagram(1, 2048), now));
+        assertFalse(a.admit(datagram(1, 100), now));
+        assertTrue(a.admit(datagram(1, 600), now));
+        assertFalse(a.admit(datagram(2, 600), now));
+        assertTrue(a.admit(datagram(2, 600), now + 600));
+        assertEquals(1, a.getDroppedOversize());
+        assertEquals(1, a.getDroppedMalformed());
+        assertEquals(1, a.getDroppedBudget());
+        assertEquals(3, a.getDropped());
+    }
+
+    @Test
+    public void droppedSendersAreNotChargedToTheBudget() throws Exception {
+        InboundAdmission a = admission(1000);
+        long now = 1000000L;
+        a.denylist(hash(1), Long.MAX_VALUE);
+        for(int i=0; i<10; i++) {
+            assertFalse(a.admit(datagram(1, 500), now));
+        }
+        assertEquals(10, a.getDroppedDenylisted());
+        assertEquals(0, a.getDroppedBudget());
+        assertTrue(a.admit(datagram(2, 500), now));
+        assertTrue(a.admit(datagram(3, 500), now));
+    }
+
+    @Test
+    public void untrackedSendersShareTheOverflowBucket() {
+        InboundAdmission a = admission(0);
+        long now = 1000000L;
+        // Fill the table with senders that aren't idle
+        for(int i=1; i<=16; i++) {
+            assertTrue(a.admit(datagram(i, 500), now));
+        }
+        assertEquals(16, a.getTrackedSenders());
+        // New senders share one burst of 5
+        for(int i=17; i<22; i++) {
+            assertTrue(a.admit(datagram(i, 500), now));
+        }
+        assertFalse(a.admit(datagram(22, 500), now));
+        assertFalse(a.admit(datagram(17, 500), now));
+        assertEquals(2, a.getDroppedOverflow());
+        assertEquals(16, a.getTrackedSenders());
+    }
+
+    @Test
+    public void verifiedTrafficOverTheLimitDenylistsTheSender() throws Exception {
+        InboundAdmission a = admission(0);
+        Hash sender = hash(1);
+        long now = 1000000L;
+        for(int i=0; i<6; i++) {
+            a.admit(datagram(1, 500), now);
+        }
+        // The burst of 5 verifies within the allowance; the probe over it is a strike
+        for(int i=0; i<5; i++) {
+            assertTrue(a.verified(sender, now));
+        }
+        assertFalse(a.verified(sender, now));
+        assertFalse(a.isDenylisted(sender));
+        assertFalse(a.verified(sender, now));
+        assertTrue(a.isDenylisted(sender));
+        assertEquals(1, a.getAutoDenylisted());
+        assertFalse(a.admit(datagram(1, 500), now + 1));
+        assertEquals(1, a.getDroppedDenylisted());
+        assertTrue(a.admit(datagram(2, 500), now + 1));
+        // Expired
+        assertTrue(a.admit(datagram(1, 500), now + 20000));
+    }
+
+    @Test
+    public void forgedSenderIsNeverDenylisted() throws Exception {
+        // 2/s with a burst of 1, probes every second, 2 strikes within a minute denylist
+        InboundAdmission a = new InboundAdmission(1024, 0, 2, 1, 16, 1000, 2, 60000, 10000, null);
+        Hash victim = hash(1);
+        long start = 1000000L;
+        int delivered = 0;
+        for(int k=0; k<60; k++) {
+            long t = start + k * 1000;
+            // Forgeries carrying the victim's destination spend its allowance and never verify
+            a.admit(datagram(1, 500), t - 1);
+            // The victim's own traffic, once a second, only gets through as a probe
+            InboundDatagram genuine = datagram(1, 500);
+            assertTrue(a.admit(genuine, t));
+            assertTrue(genuine.probe);
+            if(a.verified(victim, t))
+                delivered++;
+            for(int i=0; i<50; i++) {
+                a.admit(datagram(1, 500), t + 1);
+            }
+        }
+        assertTrue(a.getDroppedRateLimited() > 0);
+        assertFalse(a.isDenylisted(victim));
+        assertEquals(0, a.getAutoDenylisted());
+        // Within its verified allowance, so its probes are delivered
+        assertEquals(60, delivered);
+    }
+}
@@ -0,0 +1,50 @@
+package io.onemfive.i2p;
+
+import net.i2p.client.I2PSession;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author objectorange
+ */
+public class InboundDispatcherTest {
+
+    private static InboundDatagram datagram() {
+        return new InboundDatagram(new byte[64], I2PSession.PROTO_DATAGRAM, I2PSession.PORT_ANY);
+    }
+
+    @Test
+    public void overflowIsDroppedAndCounted() {
+        // Not started, so nothing drains the queue
+        InboundDispatcher dispatcher = new InboundDispatcher(null, null, 1, 3, 16);
+        for(int i=0; i<3; i++) {
+            assertTrue(dispatcher.dispatch(datagram()));
+        }
+        assertFalse(dispatcher.dispatch(datagram()));
+        assertFalse(dispatcher.dispatch(datagram()));
+        assertEquals(3, dispatcher.getEnqueued());
+        assertEquals(2, dispatcher.getDropped());
+        assertEquals(3, dispatcher.getQueueDepth());
+    }
+
+    @Test
+    public void shutdownStopsTheWorkersAndClearsTheQueue() throws Exception {
+        InboundDispatcher dispatcher = new InboundDispatcher(null, null, 2, 8, 16);
+        for(int i=0; i<5; i++) {
+            dispatcher.dispatch(datagram());
+        }
+        dispatcher.shutdown();
+        assertEquals(0, dispatcher.getQueueDepth());
+
+        dispatcher.start();
+        dispatcher.shutdown();
+        // Stopped workers no longer take from the queue
+        Thread.sleep(100);
+        assertTrue(dispatcher.dispatch(datagram()));
+        Thread.sleep(100);
+        assertEquals(1, dispatcher.getQueueDepth());
+        assertEquals(6, dispatcher.getEnqueued());
+        assertEquals(0, dispatcher.getDropped());
+    }
+}
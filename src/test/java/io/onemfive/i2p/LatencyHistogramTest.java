@@ -0,0 +1,35 @@
+package io.onemfive.i2p;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author objectorange
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void percentilesWithinBucket() {
+        LatencyHistogram h = new LatencyHistogram();
+        for(int i=0; i<99; i++) {
+            h.record(TimeUnit.MICROSECONDS.toNanos(100));
+        }
+        h.record(TimeUnit.MILLISECONDS.toNanos(50));
+        assertEquals(100, h.getCount());
+        // 100us falls in the [64, 128) bucket
+        assertEquals(128, h.getPercentileMicros(50));
+        assertEquals(128, h.getPercentileMicros(99));
+        assertTrue(h.getPercentileMicros(100) >= 50000);
+        assertEquals(50000, h.getMaxMicros());
+    }
+
+    @Test
+    public void emptyHistogramReportsZero() {
+        LatencyHistogram h = new LatencyHistogram();
+        assertEquals(0, h.getPercentileMicros(99));
+        assertEquals(0, h.getMeanMicros());
+    }
+}
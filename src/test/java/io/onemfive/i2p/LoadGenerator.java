@@ -0,0 +1,285 @@
+package io.onemfive.i2p;
+
+import io.onemfive.data.*;
+import io.onemfive.data.util.DLC;
+import io.onemfive.sensors.SensorManager;
+import io.onemfive.sensors.SensorRequest;
+import net.i2p.crypto.SigType;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Offline capacity test: two or more {@link I2PSensor}s wired through a {@link LoopbackNetwork},
+ * each sending to the next at a fixed rate, measuring from send to the receiving sensor's
+ * sensorManager.sendToBus.
+ *
+ * Latency is measured from when each message was scheduled to be sent, so a sender falling
+ * behind the rate shows as latency rather than being hidden.
+ *
+ * Run with the test classpath:
+ * java io.onemfive.i2p.LoadGenerator [sensors=2] [rate=500] [payloadBytes=1024] [durationMs=10000]
+ * [sigType=EdDSA_SHA512_Ed25519] [lossRate=0] [drainMs=10000] [any 1m5.sensors.i2p.* property=value]
+ *
+ * @author objectorange
+ */
+public class LoadGenerator {
+
+    private final int sensors;
+    private final int ratePerSender;
+    private final int payloadBytes;
+    private final long durationMs;
+    private final long drainMs;
+    private final SigType sigType;
+    private final double lossRate;
+    private final Properties sensorProperties;
+
+    // Indexed by message sequence; -1 until received
+    private long[] latencies;
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private volatile long lastReceivedAt;
+
+    /**
+     * @param ratePerSender messages per second sent by each sensor
+     * @param sensorProperties properties each sensor is attached with
+     */
+    public LoadGenerator(int sensors, int ratePerSender, int payloadBytes, long durationMs, long drainMs,
+                         SigType sigType, double lossRate, Properties sensorProperties) {
+        if(sensors < 2)
+            throw new IllegalArgumentException("At least two sensors required.");
+        this.sensors = sensors;
+        this.ratePerSender = ratePerSender;
+        this.payloadBytes = payloadBytes;
+        this.durationMs = durationMs;
+        this.drainMs = drainMs;
+        this.sigType = sigType;
+        this.lossRate = lossRate;
+        this.sensorProperties = sensorProperties;
+    }
+
+    public static class Result {
+        public int scheduled;
+        public long sent;
+        public long failed;
+        public long received;
+        public long duplicates;
+        public long lost;
+        public double throughputPerSecond;
+        public long p50Micros;
+        public long p99Micros;
+        public long maxMicros;
+
+        @Override
+        public String toString() {
+            return "scheduled="+scheduled+", sent="+sent+", failed="+failed+", received="+received
+                    +", duplicates="+duplicates+", lost="+lost
+                    +" ("+String.format("%.2f", scheduled == 0 ? 0 : 100.0 * lost / scheduled)+"%)"
+                    +", throughput="+String.format("%.1f", throughputPerSecond)+"/s"
+                    +", p50="+p50Micros+"us, p99="+p99Micros+"us, max="+maxMicros+"us";
+        }
+    }
+
+    public Result run() throws Exception {
+        final int perSender = (int)(ratePerSender * durationMs / 1000);
+        final int total = perSender * sensors;
+        latencies = new long[total];
+        Arrays.fill(latencies, -1);
+        received.set(0);
+        duplicates.set(0);
+
+        LoopbackNetwork network = new LoopbackNetwork(sigType, Math.max(2, Runtime.getRuntime().availableProcessors()));
+        network.setLossRate(lossRate);
+        final List<I2PSensor> sensorList = new ArrayList<>();
+        final List<String> addresses = new ArrayList<>();
+        final AtomicLong sent = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        try {
+            for(int i=0; i<sensors; i++) {
+                I2PSensor sensor = new I2PSensor(bus(), Envelope.Sensitivity.MEDIUM, 100);
+                Properties p = new Properties();
+                p.putAll(sensorProperties);
+                net.i2p.client.I2PSession session = network.newSession();
+                sensor.attach(p, session);
+                sensorList.add(sensor);
+                addresses.add(session.getMyDestination().toBase64());
+            }
+            final char[] padding = new char[payloadBytes];
+            Arrays.fill(padding, 'x');
+            final long intervalNanos = TimeUnit.SECONDS.toNanos(1) / ratePerSender;
+            final long start = System.nanoTime();
+            List<Thread> senders = new ArrayList<>();
+            for(int i=0; i<sensors; i++) {
+                final int index = i;
+                Thread t = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        I2PSensor sensor = sensorList.get(index);
+                        String to = addresses.get((index + 1) % sensors);
+                        for(int k=0; k<perSender; k++) {
+                            long scheduledAt = start + k * intervalNanos;
+                            long wait;
+                            while((wait = scheduledAt - System.nanoTime()) > 0) {
+                                LockSupport.parkNanos(wait);
+                            }
+                            int seq = index * perSender + k;
+                            if(sensor.send(envelope(to, content(seq, scheduledAt, padding))))
+                                sent.incrementAndGet();
+                            else
+                                failed.incrementAndGet();
+                        }
+                    }
+                }, "LoadGenerator-" + i);
+                senders.add(t);
+                t.start();
+            }
+            for(Thread t : senders) {
+                t.join();
+            }
+            long deadline = System.currentTimeMillis() + drainMs;
+            while(received.get() < sent.get() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+
+            Result r = new Result();
+            r.scheduled = total;
+            r.sent = sent.get();
+            r.failed = failed.get();
+            r.received = received.get();
+            r.duplicates = duplicates.get();
+            r.lost = r.sent - r.received;
+            long elapsed = (lastReceivedAt == 0 ? System.nanoTime() : lastReceivedAt) - start;
+            r.throughputPerSecond = r.received / (elapsed / 1e9);
+            long[] measured = new long[(int)r.received];
+            int n = 0;
+            synchronized (latencies) {
+                for(long l : latencies) {
+                    if(l >= 0 && n < measured.length)
+                        measured[n++] = l;
+                }
+            }
+            Arrays.sort(measured, 0, n);
+            r.p50Micros = percentile(measured, n, 50);
+            r.p99Micros = percentile(measured, n, 99);
+            r.maxMicros = n == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(measured[n - 1]);
+            return r;
+        } finally {
+            for(I2PSensor s : sensorList) {
+                s.shutdown();
+            }
+            network.shutdown();
+        }
+    }
+
+    /**
+     * Sequence number and scheduled send time lead the content so the receiver can measure latency.
+     */
+    private String content(int seq, long scheduledAt, char[] padding) {
+        String header = seq + ":" + scheduledAt + ":";
+        return header + new String(padding, 0, Math.max(0, payloadBytes - header.length()));
+    }
+
+    private static Envelope envelope(String to, String content) {
+        Envelope e = Envelope.documentFactory();
+        SensorRequest request = new SensorRequest();
+        NetworkPeer toPeer = new NetworkPeer(NetworkPeer.Network.I2P.name());
+        toPeer.setAddress(to);
+        request.to = new DID();
+        request.to.addPeer(toPeer);
+        request.content = content;
+        DLC.addData(SensorRequest.class, request, e);
+        return e;
+    }
+
+    private void received(Envelope e) {
+        long now = System.nanoTime();
+        Object content = ((EventMessage)e.getMessage()).getMessage();
+        if(!(content instanceof String))
+            return;
+        String s = (String)content;
+        int a = s.indexOf(':');
+        int b = s.indexOf(':', a + 1);
+        if(a < 0 || b < 0)
+            return;
+        int seq = Integer.parseInt(s.substring(0, a));
+        long scheduledAt = Long.parseLong(s.substring(a + 1, b));
+        synchronized (latencies) {
+            if(latencies[seq] >= 0) {
+                duplicates.incrementAndGet();
+                return;
+            }
+            latencies[seq] = now - scheduledAt;
+        }
+        lastReceivedAt = now;
+        received.incrementAndGet();
+    }
+
+    /**
+     * Stand-in for the sensor manager recording envelopes sent to the bus.
+     */
+    private SensorManager bus() {
+        return (SensorManager) Proxy.newProxyInstance(SensorManager.class.getClassLoader(),
+                new Class<?>[] {SensorManager.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        switch (method.getName()) {
+                            case "sendToBus": received((Envelope)args[0]); return true;
+                            case "hashCode": return System.identityHashCode(proxy);
+                            case "equals": return proxy == args[0];
+                            case "toString": return "LoadGeneratorBus";
+                        }
+                        return LoopbackNetwork.defaultValue(method.getReturnType());
+                    }
+                });
+    }
+
+    private static long percentile(long[] sorted, int n, double percentile) {
+        if(n == 0)
+            return 0;
+        int rank = (int)Math.ceil(percentile / 100 * n) - 1;
+        return TimeUnit.NANOSECONDS.toMicros(sorted[Math.max(0, Math.min(n - 1, rank))]);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> a = new HashMap<>();
+        Properties sensorProperties = new Properties();
+        for(String arg : args) {
+            int eq = arg.indexOf('=');
+            if(eq < 0)
+                continue;
+            String key = arg.substring(0, eq);
+            String value = arg.substring(eq + 1);
+            if(key.startsWith("1m5."))
+                sensorProperties.setProperty(key, value);
+            else
+                a.put(key, value);
+        }
+        // Per-message INFO logging would dominate
+        Logger log = Logger.getLogger("io.onemfive.i2p");
+        log.setLevel(Level.parse(get(a, "logLevel", "WARNING")));
+        LoadGenerator generator = new LoadGenerator(
+                Integer.parseInt(get(a, "sensors", "2")),
+                Integer.parseInt(get(a, "rate", "500")),
+                Integer.parseInt(get(a, "payloadBytes", "1024")),
+                Long.parseLong(get(a, "durationMs", "10000")),
+                Long.parseLong(get(a, "drainMs", "10000")),
+                SigType.valueOf(get(a, "sigType", DestinationKeys.DEFAULT_SIG_TYPE.name())),
+                Double.parseDouble(get(a, "lossRate", "0")),
+                sensorProperties);
+        System.out.println("Load test: "+a+" "+sensorProperties);
+        System.out.println(generator.run());
+        System.exit(0);
+    }
+
+    private static String get(Map<String, String> args, String key, String defaultValue) {
+        String value = args.get(key);
+        return value == null ? defaultValue : value;
+    }
+}
@@ -0,0 +1,37 @@
+package io.onemfive.i2p;
+
+import net.i2p.crypto.SigType;
+import org.junit.Test;
+
+import java.util.Properties;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author objectorange
+ */
+public class LoadGeneratorTest {
+
+    @Test
+    public void everyMessageReachesTheBusOverLoopback() throws Exception {
+        LoadGenerator generator = new LoadGenerator(2, 100, 1024, 1000, 10000,
+                SigType.EdDSA_SHA512_Ed25519, 0, new Properties());
+        LoadGenerator.Result r = generator.run();
+        assertEquals(200, r.scheduled);
+        assertEquals(200, r.sent);
+        assertEquals(0, r.failed);
+        assertEquals(200, r.received);
+        assertEquals(0, r.lost);
+        assertTrue(r.p99Micros >= r.p50Micros);
+    }
+
+    @Test
+    public void lossIsReported() throws Exception {
+        LoadGenerator generator = new LoadGenerator(2, 100, 256, 1000, 2000,
+                SigType.EdDSA_SHA512_Ed25519, 0.5, new Properties());
+        LoadGenerator.Result r = generator.run();
+        assertEquals(200, r.sent);
+        assertTrue(r.lost > 0);
+        assertEquals(r.sent, r.received + r.lost);
+    }
+}
@@ -0,0 +1,214 @@
+package io.onemfive.i2p;
+
+import net.i2p.client.I2PClientFactory;
+import net.i2p.client.I2PSession;
+import net.i2p.client.I2PSessionMuxedListener;
+import net.i2p.crypto.SigType;
+import net.i2p.data.Destination;
+import net.i2p.data.PrivateKey;
+import net.i2p.data.SigningPrivateKey;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process stand-in for the I2P network: sessions with real destinations and signing keys
+ * whose messages are delivered to the listener of the recipient's session on a delivery thread,
+ * as the router would, without a router or network access.
+ *
+ * Sessions are dynamic proxies of {@link I2PSession}; methods not needed by the sensor
+ * return null, false or zero.
+ *
+ * @author objectorange
+ */
+public class LoopbackNetwork {
+
+    private final SigType sigType;
+    private final Map<Destination, Endpoint> endpoints = new ConcurrentHashMap<>();
+    private final ExecutorService delivery;
+    private final Random random = new Random();
+    private volatile double lossRate = 0;
+
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong lost = new AtomicLong();
+    private final AtomicLong undeliverable = new AtomicLong();
+
+    /**
+     * @param deliveryThreads threads calling session listeners, as the router's I2CP reader threads do
+     */
+    public LoopbackNetwork(SigType sigType, int deliveryThreads) {
+        this.sigType = sigType;
+        this.delivery = Executors.newFixedThreadPool(deliveryThreads, new OutboundPipeline.NamedThreadFactory("Loopback-Delivery"));
+    }
+
+    /**
+     * A connected session with a new destination.
+     */
+    public I2PSession newSession() throws Exception {
+        ByteArrayOutputStream key = new ByteArrayOutputStream();
+        Destination destination = I2PClientFactory.createClient().createDestination(key, sigType);
+        ByteArrayInputStream in = new ByteArrayInputStream(key.toByteArray());
+        Destination.create(in);
+        PrivateKey privateKey = new PrivateKey();
+        privateKey.readBytes(in);
+        SigningPrivateKey signingKey = new SigningPrivateKey(sigType);
+        signingKey.readBytes(in);
+        Endpoint endpoint = new Endpoint(destination, privateKey, signingKey);
+        endpoint.session = (I2PSession) Proxy.newProxyInstance(I2PSession.class.getClassLoader(),
+                new Class<?>[] {I2PSession.class}, endpoint);
+        endpoints.put(destination, endpoint);
+        return endpoint.session;
+    }
+
+    /**
+     * Fraction of messages silently dropped, as a congested tunnel would.
+     */
+    public void setLossRate(double lossRate) {
+        this.lossRate = lossRate;
+    }
+
+    public long getDelivered() {
+        return delivered.get();
+    }
+
+    public long getLost() {
+        return lost.get();
+    }
+
+    /**
+     * @return messages to destinations with no session or no listener
+     */
+    public long getUndeliverable() {
+        return undeliverable.get();
+    }
+
+    public void shutdown() {
+        delivery.shutdownNow();
+    }
+
+    private boolean send(final Endpoint from, Destination to, byte[] payload, int offset, int length,
+                         final int proto, final int fromPort, final int toPort) {
+        if(from.closed)
+            return false;
+        final Endpoint recipient = endpoints.get(to);
+        if(recipient == null || recipient.closed || recipient.listener == null) {
+            undeliverable.incrementAndGet();
+            return true;
+        }
+        if(lossRate > 0 && random.nextDouble() < lossRate) {
+            lost.incrementAndGet();
+            return true;
+        }
+        // The router copies the payload before returning
+        final byte[] msg = Arrays.copyOfRange(payload, offset, offset + length);
+        final int id = recipient.nextId.incrementAndGet();
+        recipient.inbox.put(id, msg);
+        delivery.execute(new Runnable() {
+            @Override
+            public void run() {
+                delivered.incrementAndGet();
+                recipient.listener.messageAvailable(recipient.session, id, msg.length, proto, fromPort, toPort);
+            }
+        });
+        return true;
+    }
+
+    private class Endpoint implements InvocationHandler {
+        private final Destination destination;
+        private final PrivateKey privateKey;
+        private final SigningPrivateKey signingKey;
+        private final ConcurrentMap<Integer, byte[]> inbox = new ConcurrentHashMap<>();
+        private final AtomicInteger nextId = new AtomicInteger();
+        private volatile I2PSessionMuxedListener listener;
+        private volatile boolean closed = false;
+        private final Properties options = new Properties();
+        private I2PSession session;
+
+        private Endpoint(Destination destination, PrivateKey privateKey, SigningPrivateKey signingKey) {
+            this.destination = destination;
+            this.privateKey = privateKey;
+            this.signingKey = signingKey;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            switch (name) {
+                case "getMyDestination": return destination;
+                case "getDecryptionKey": return privateKey;
+                case "getPrivateKey": return signingKey;
+                case "isClosed": return closed;
+                case "destroySession": closed = true; return null;
+                case "getOptions": return options;
+                case "updateOptions": options.putAll((Properties)args[0]); return null;
+                case "receiveMessage": return inbox.remove(args[0]);
+                case "addMuxedSessionListener": listener = (I2PSessionMuxedListener)args[0]; return null;
+                case "lookupDest": return lookup(args[0]);
+                case "sendMessage": return sendMessage(method, args);
+                case "hashCode": return System.identityHashCode(proxy);
+                case "equals": return proxy == args[0];
+                case "toString": return "LoopbackSession[" + destination.calculateHash().toBase64() + "]";
+            }
+            return defaultValue(method.getReturnType());
+        }
+
+        /**
+         * Maps every sendMessage overload by its int arguments: (offset, size), (proto, fromPort, toPort)
+         * or (offset, size, proto, fromPort, toPort, ...).
+         */
+        private boolean sendMessage(Method method, Object[] args) {
+            Destination to = (Destination)args[0];
+            byte[] payload = (byte[])args[1];
+            List<Integer> ints = new ArrayList<>();
+            Class<?>[] types = method.getParameterTypes();
+            for(int i=2; i<types.length; i++) {
+                if(types[i] == int.class)
+                    ints.add((Integer)args[i]);
+            }
+            int offset = 0;
+            int length = payload.length;
+            int proto = I2PSession.PROTO_UNSPECIFIED;
+            int fromPort = I2PSession.PORT_UNSPECIFIED;
+            int toPort = I2PSession.PORT_UNSPECIFIED;
+            if(ints.size() == 2 || ints.size() >= 5) {
+                offset = ints.get(0);
+                length = ints.get(1);
+            }
+            if(ints.size() == 3) {
+                proto = ints.get(0);
+                fromPort = ints.get(1);
+                toPort = ints.get(2);
+            } else if(ints.size() >= 5) {
+                proto = ints.get(2);
+                fromPort = ints.get(3);
+                toPort = ints.get(4);
+            }
+            return send(this, to, payload, offset, length, proto, fromPort, toPort);
+        }
+
+        private Destination lookup(Object key) {
+            for(Destination d : endpoints.keySet()) {
+                if(key.equals(d.calculateHash()) || key.equals(d.toBase64()) || key.equals(d.toBase32()))
+                    return d;
+            }
+            return null;
+        }
+    }
+
+    static Object defaultValue(Class<?> type) {
+        if(type == boolean.class)
+            return false;
+        if(type == int.class)
+            return 0;
+        if(type == long.class)
+            return 0L;
+        return null;
+    }
+}
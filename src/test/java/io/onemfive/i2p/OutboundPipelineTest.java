@@ -0,0 +1,112 @@
+package io.onemfive.i2p;
+
+import io.onemfive.data.Envelope;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author objectorange
+ */
+public class OutboundPipelineTest {
+
+    @Test
+    public void queuedEnvelopesFailOnShutdownNow() throws Exception {
+        I2PSensor sensor = new I2PSensor(null, Envelope.Sensitivity.MEDIUM, 100);
+        OutboundPipeline pipeline = new OutboundPipeline(sensor, 1, 10, OutboundPipeline.RejectionPolicy.REJECT, 0);
+        final CountDownLatch working = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        // Holds the only worker until the pipeline is shut down
+        pipeline.submit(Envelope.documentFactory(), new OutboundPipeline.SendCallback() {
+            @Override
+            public void completed(Envelope envelope, boolean sent) {
+                working.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        assertTrue(working.await(5, TimeUnit.SECONDS));
+        final AtomicInteger failed = new AtomicInteger();
+        List<Future<Boolean>> queued = new ArrayList<>();
+        for(int i=0; i<3; i++) {
+            queued.add(pipeline.submit(Envelope.documentFactory(), new OutboundPipeline.SendCallback() {
+                @Override
+                public void completed(Envelope envelope, boolean sent) {
+                    if(!sent)
+                        failed.incrementAndGet();
+                }
+            }));
+        }
+        assertEquals(3, pipeline.shutdownNow());
+        release.countDown();
+        assertEquals(3, failed.get());
+        for(Future<Boolean> f : queued) {
+            assertTrue(f.isDone());
+            assertFalse(f.get());
+        }
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void callerRunsRejectsOnceShutDown() {
+        I2PSensor sensor = new I2PSensor(null, Envelope.Sensitivity.MEDIUM, 100);
+        OutboundPipeline pipeline = new OutboundPipeline(sensor, 1, 1, OutboundPipeline.RejectionPolicy.CALLER_RUNS, 0);
+        pipeline.shutdown();
+        pipeline.submit(Envelope.documentFactory(), null);
+    }
+
+    @Test
+    public void blockedSubmitRejectedByShutdownNowWhileWaiting() throws Exception {
+        I2PSensor sensor = new I2PSensor(null, Envelope.Sensitivity.MEDIUM, 100);
+        final OutboundPipeline pipeline = new OutboundPipeline(sensor, 1, 1, OutboundPipeline.RejectionPolicy.BLOCK, 10000);
+        final CountDownLatch working = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        pipeline.submit(Envelope.documentFactory(), new OutboundPipeline.SendCallback() {
+            @Override
+            public void completed(Envelope envelope, boolean sent) {
+                working.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        assertTrue(working.await(5, TimeUnit.SECONDS));
+        // Fills the queue so the next submit waits for room
+        pipeline.submit(Envelope.documentFactory(), null);
+        final AtomicReference<Object> outcome = new AtomicReference<>();
+        Thread blocked = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    outcome.set(pipeline.submit(Envelope.documentFactory(), null));
+                } catch (RejectedExecutionException e) {
+                    outcome.set(e);
+                }
+            }
+        });
+        blocked.start();
+        long deadline = System.currentTimeMillis() + 5000;
+        while(blocked.getState() != Thread.State.TIMED_WAITING && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(Thread.State.TIMED_WAITING, blocked.getState());
+        // Drains the queued envelope, making room for the waiting one after the drain
+        assertEquals(1, pipeline.shutdownNow());
+        blocked.join(5000);
+        release.countDown();
+        assertTrue(outcome.get() instanceof RejectedExecutionException);
+        assertEquals(0, pipeline.getQueueDepth());
+    }
+}
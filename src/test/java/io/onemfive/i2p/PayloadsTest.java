@@ -0,0 +1,59 @@
+package io.onemfive.i2p;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author objectorange
+ */
+public class PayloadsTest {
+
+    @Test
+    public void textRoundTripsAsUTF8() {
+        String text = "Gr\u00fc\u00dfe from 1M5 \u2603";
+        byte[] encoded = Payloads.encode(text);
+        assertEquals(text, Payloads.decode(encoded, 0, encoded.length));
+    }
+
+    @Test
+    public void binaryIsNotCorrupted() {
+        byte[] binary = new byte[]{0, (byte)0xC3, (byte)0x28, (byte)0xFF, 7};
+        byte[] encoded = Payloads.encode(binary);
+        Object decoded = Payloads.decode(encoded, 0, encoded.length);
+        assertTrue(decoded instanceof byte[]);
+        assertArrayEquals(binary, (byte[])decoded);
+    }
+
+    @Test
+    public void binaryThatIsValidUTF8StaysBinary() {
+        byte[] ascii = "hello".getBytes(StandardCharsets.US_ASCII);
+        byte[] encoded = Payloads.encode(ascii);
+        assertArrayEquals(ascii, (byte[])Payloads.decode(encoded, 0, encoded.length));
+        byte[] zeros = new byte[16];
+        encoded = Payloads.encode(zeros);
+        assertArrayEquals(zeros, (byte[])Payloads.decode(encoded, 0, encoded.length));
+        encoded = Payloads.encode(new byte[0]);
+        assertArrayEquals(new byte[0], (byte[])Payloads.decode(encoded, 0, encoded.length));
+    }
+
+    @Test
+    public void decodesAtOffset() {
+        byte[] prefixed = new byte[]{9, 9, 'h', 'i'};
+        assertEquals("hi", Payloads.decode(prefixed, 2, 2));
+        byte[] binary = new byte[]{9, 9, Payloads.BINARY, 'h', 'i'};
+        assertArrayEquals(new byte[]{'h', 'i'}, (byte[])Payloads.decode(binary, 2, 3));
+    }
+
+    @Test
+    public void byteBufferRemainingOnly() {
+        ByteBuffer b = ByteBuffer.wrap(new byte[]{1, 2, 3, 4});
+        b.position(1);
+        byte[] encoded = Payloads.encode(b);
+        assertArrayEquals(new byte[]{Payloads.BINARY, 2, 3, 4}, encoded);
+        assertEquals(1, b.position());
+    }
+}
@@ -0,0 +1,117 @@
+package io.onemfive.i2p;
+
+import net.i2p.data.Base64;
+import net.i2p.data.Destination;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author objectorange
+ */
+public class RawDatagramSessionsTest {
+
+    private static final String RECIPIENT = "recipient";
+
+    private static Destination destination(int n) throws Exception {
+        byte[] bytes = new byte[387];
+        Arrays.fill(bytes, 0, 384, (byte)n);
+        return new Destination(Base64.encode(bytes));
+    }
+
+    private static byte[] token(byte[] handshake) {
+        return Arrays.copyOfRange(handshake, 1, 1 + RawDatagramSessions.TOKEN_LENGTH);
+    }
+
+    private static byte[] token(int n) {
+        byte[] token = new byte[RawDatagramSessions.TOKEN_LENGTH];
+        Arrays.fill(token, (byte)n);
+        return token;
+    }
+
+    private static byte[] datagram(byte[] token, byte[] payload) {
+        byte[] buffer = new byte[RawDatagramSessions.TOKEN_LENGTH + payload.length];
+        RawDatagramSessions.prefix(token, payload, buffer);
+        return buffer;
+    }
+
+    @Test
+    public void acceptedTokensIdentifyTheSender() throws Exception {
+        RawDatagramSessions senderSide = new RawDatagramSessions(60000, 30000, 16);
+        RawDatagramSessions recipientSide = new RawDatagramSessions(60000, 30000, 16);
+        Destination sender = destination(1);
+
+        byte[] offer = senderSide.offer(RECIPIENT);
+        assertEquals(RawDatagramSessions.OFFER, offer[0]);
+        // Outstanding offers aren't repeated or used
+        assertNull(senderSide.offer(RECIPIENT));
+        assertNull(senderSide.activeToken(RECIPIENT));
+
+        byte[] accept = recipientSide.accept(sender, token(offer));
+        assertEquals(RawDatagramSessions.ACCEPT, accept[0]);
+        assertArrayEquals(token(offer), token(accept));
+        senderSide.accepted(RECIPIENT, token(accept));
+        byte[] token = senderSide.activeToken(RECIPIENT);
+        assertArrayEquals(token(offer), token);
+        assertNull(senderSide.offer(RECIPIENT));
+
+        assertEquals(sender, recipientSide.sender(datagram(token, new byte[]{1, 2, 3})));
+        assertNull(recipientSide.sender(datagram(token(9), new byte[]{1, 2, 3})));
+        assertNull(recipientSide.sender(new byte[4]));
+        assertEquals(1, recipientSide.getInboundTokens());
+    }
+
+    @Test
+    public void tokensBoundToAnotherSenderAreRejected() throws Exception {
+        RawDatagramSessions sessions = new RawDatagramSessions(60000, 30000, 16);
+        assertNotNull(sessions.accept(destination(1), token(1)));
+        // Renewal by the same sender
+        assertNotNull(sessions.accept(destination(1), token(1)));
+        assertNull(sessions.accept(destination(2), token(1)));
+        assertEquals(1, sessions.getRejected());
+        assertEquals(destination(1), sessions.sender(datagram(token(1), new byte[1])));
+    }
+
+    @Test
+    public void expiredTokensAreDroppedAndPurged() throws Exception {
+        RawDatagramSessions senderSide = new RawDatagramSessions(50, 30000, 16);
+        RawDatagramSessions recipientSide = new RawDatagramSessions(50, 30000, 16);
+        byte[] offer = senderSide.offer(RECIPIENT);
+        senderSide.accepted(RECIPIENT, token(recipientSide.accept(destination(1), token(offer))));
+        recipientSide.accept(destination(2), token(2));
+        assertNotNull(senderSide.activeToken(RECIPIENT));
+
+        // Past the sender's TTL and the recipient's grace of two TTLs
+        Thread.sleep(150);
+        assertNull(senderSide.activeToken(RECIPIENT));
+        byte[] next = senderSide.offer(RECIPIENT);
+        assertNotNull(next);
+        assertFalse(Arrays.equals(token(offer), token(next)));
+
+        assertNull(recipientSide.sender(datagram(token(offer), new byte[1])));
+        assertEquals(1, recipientSide.getInboundTokens());
+        recipientSide.purge();
+        assertEquals(0, recipientSide.getInboundTokens());
+    }
+
+    @Test
+    public void tokensAreCappedPerSenderAndInTotal() throws Exception {
+        RawDatagramSessions sessions = new RawDatagramSessions(60000, 30000, 3);
+        Destination first = destination(1);
+        for(int i=1; i<=3; i++) {
+            assertNotNull(sessions.accept(first, token(i)));
+        }
+        // Only the current token and its replacement are kept
+        assertEquals(RawDatagramSessions.MAX_TOKENS_PER_SENDER, sessions.getInboundTokens());
+        assertNull(sessions.sender(datagram(token(1), new byte[1])));
+        assertEquals(first, sessions.sender(datagram(token(3), new byte[1])));
+
+        assertNotNull(sessions.accept(destination(2), token(4)));
+        assertNull(sessions.accept(destination(3), token(5)));
+        assertEquals(1, sessions.getRejected());
+        assertEquals(3, sessions.getInboundTokens());
+        assertNull(sessions.sender(datagram(token(5), new byte[1])));
+    }
+}
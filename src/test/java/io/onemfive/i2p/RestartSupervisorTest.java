@@ -0,0 +1,46 @@
+package io.onemfive.i2p;
+
+import io.onemfive.data.Envelope;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author objectorange
+ */
+public class RestartSupervisorTest {
+
+    @Test
+    public void backoffGrowsWithJitterAndIsCapped() {
+        RestartSupervisor supervisor = new RestartSupervisor(null, 1000, 60000, 1000, 100, 3, 10);
+        try {
+            for(int i=0; i<50; i++) {
+                long first = supervisor.delayFor(0);
+                assertTrue(first >= 500 && first <= 1000);
+                long third = supervisor.delayFor(2);
+                assertTrue(third >= 2000 && third <= 4000);
+                long capped = supervisor.delayFor(30);
+                assertTrue(capped >= 30000 && capped <= 60000);
+            }
+        } finally {
+            supervisor.shutdown();
+        }
+    }
+
+    @Test
+    public void holdsOnlyWhileRecovering() {
+        RestartSupervisor supervisor = new RestartSupervisor(null, 60000, 60000, 1000, 100, 3, 1);
+        try {
+            assertFalse(supervisor.hold(Envelope.documentFactory()));
+            supervisor.requestRestart("test");
+            assertTrue(supervisor.isRecovering());
+            assertTrue(supervisor.hold(Envelope.documentFactory()));
+            // Bounded
+            assertFalse(supervisor.hold(Envelope.documentFactory()));
+            assertEquals(1, supervisor.getHeld());
+            assertEquals(1, supervisor.getDropped());
+        } finally {
+            supervisor.shutdown();
+        }
+    }
+}
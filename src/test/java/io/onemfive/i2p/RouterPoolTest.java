@@ -0,0 +1,167 @@
+package io.onemfive.i2p;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author objectorange
+ */
+public class RouterPoolTest {
+
+    /**
+     * Routers are names; a launch waits for the gate to open.
+     */
+    private static class TestPool extends RouterPool<String> {
+        private final AtomicInteger launches = new AtomicInteger();
+        private final List<String> stopped = Collections.synchronizedList(new ArrayList<String>());
+        private final List<String> running = Collections.synchronizedList(new ArrayList<String>());
+        private final CountDownLatch launchStarted = new CountDownLatch(1);
+        private volatile CountDownLatch gate = new CountDownLatch(0);
+        private volatile boolean failLaunch = false;
+
+        @Override
+        protected String launch(Properties properties) {
+            launchStarted.countDown();
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            if(failLaunch)
+                throw new IllegalStateException("launch failed");
+            String router = "router-" + launches.incrementAndGet();
+            running.add(router);
+            return router;
+        }
+
+        @Override
+        protected boolean isRunning(String router) {
+            return running.contains(router);
+        }
+
+        @Override
+        protected void shutdown(String router, boolean graceful) {
+            running.remove(router);
+            stopped.add(router + (graceful ? ":graceful" : ":hard"));
+        }
+    }
+
+    @Test
+    public void tenantsShareOneRouterUntilTheLastLeaseIsReleased() {
+        TestPool pool = new TestPool();
+        Properties p = new Properties();
+        assertEquals("router-1", pool.acquire("a", p, null));
+        assertEquals("router-1", pool.acquire("b", p, null));
+        assertEquals("router-1", pool.acquire("a", p, null));
+        assertEquals(1, pool.launches.get());
+        assertEquals(Arrays.asList("a", "b"), new ArrayList<>(pool.getTenants()));
+
+        // a holds two leases
+        assertFalse(pool.release("a", false));
+        assertFalse(pool.release("b", false));
+        assertEquals(Collections.singletonList("a"), new ArrayList<>(pool.getTenants()));
+        assertTrue(pool.stopped.isEmpty());
+        assertTrue(pool.release("a", true));
+        assertEquals(Collections.singletonList("router-1:graceful"), pool.stopped);
+        assertNull(pool.current());
+        assertTrue(pool.getTenants().isEmpty());
+
+        // Releasing without a lease changes nothing
+        assertFalse(pool.release("a", false));
+        assertEquals("router-2", pool.acquire("b", p, null));
+        assertEquals(2, pool.launches.get());
+    }
+
+    @Test
+    public void restartListenersAreKeptPerTenant() {
+        TestPool pool = new TestPool();
+        I2PRouterUtil.RestartListener a = new I2PRouterUtil.RestartListener() {
+            @Override
+            public void routerRestarting(String requestedBy) {}
+        };
+        I2PRouterUtil.RestartListener b = new I2PRouterUtil.RestartListener() {
+            @Override
+            public void routerRestarting(String requestedBy) {}
+        };
+        pool.acquire("a", new Properties(), a);
+        pool.acquire("b", new Properties(), b);
+        assertEquals(Collections.singletonList(b), pool.listenersExcept("a"));
+        assertEquals(Collections.singletonList(a), pool.listenersExcept("b"));
+        pool.release("b", false);
+        assertTrue(pool.listenersExcept("a").isEmpty());
+        assertEquals("router-1", pool.current());
+    }
+
+    @Test
+    public void stoppedRoutersAreRelaunched() {
+        TestPool pool = new TestPool();
+        pool.acquire("a", new Properties(), null);
+        pool.running.clear();
+        assertEquals("router-2", pool.acquire("b", new Properties(), null));
+        assertEquals(Arrays.asList("a", "b"), new ArrayList<>(pool.getTenants()));
+    }
+
+    @Test
+    public void launchingDoesNotHoldUpOtherTenants() throws Exception {
+        final TestPool pool = new TestPool();
+        pool.gate = new CountDownLatch(1);
+        final AtomicReference<String> first = new AtomicReference<>();
+        final AtomicReference<String> second = new AtomicReference<>();
+        Thread a = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                first.set(pool.acquire("a", new Properties(), null));
+            }
+        });
+        a.start();
+        assertTrue(pool.launchStarted.await(5, TimeUnit.SECONDS));
+
+        // The pool stays usable while the launch runs
+        assertEquals(Collections.singletonList("a"), new ArrayList<>(pool.getTenants()));
+        assertNull(pool.current());
+        Thread b = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                second.set(pool.acquire("b", new Properties(), null));
+            }
+        });
+        b.start();
+        b.join(100);
+        // Waiting for the launch under way rather than launching another
+        assertTrue(b.isAlive());
+
+        pool.gate.countDown();
+        a.join(5000);
+        b.join(5000);
+        assertEquals("router-1", first.get());
+        assertEquals("router-1", second.get());
+        assertEquals(1, pool.launches.get());
+        assertEquals("router-1", pool.current());
+    }
+
+    @Test
+    public void failedLaunchesDetachTheTenant() {
+        TestPool pool = new TestPool();
+        pool.failLaunch = true;
+        try {
+            pool.acquire("a", new Properties(), null);
+            fail("Launch failure not thrown");
+        } catch (IllegalStateException e) {
+            assertEquals("launch failed", e.getMessage());
+        }
+        assertTrue(pool.getTenants().isEmpty());
+        pool.failLaunch = false;
+        assertEquals("router-1", pool.acquire("a", new Properties(), null));
+    }
+}
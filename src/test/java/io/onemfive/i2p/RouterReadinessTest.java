@@ -0,0 +1,72 @@
+package io.onemfive.i2p;
+
+import io.onemfive.i2p.RouterReadiness.Phase;
+import net.i2p.router.CommSystemFacade.Status;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author objectorange
+ */
+public class RouterReadinessTest {
+
+    /**
+     * Readiness reporting the given phases, one per poll, then the last one repeatedly.
+     */
+    private static RouterReadiness scripted(long maxWaitMs, final Phase... phases) {
+        final Iterator<Phase> script = Arrays.asList(phases).iterator();
+        return new RouterReadiness(null, maxWaitMs, 10, 3, 50) {
+            private Phase last = Phase.STARTING;
+
+            @Override
+            Phase poll() {
+                if(script.hasNext())
+                    last = script.next();
+                return last;
+            }
+        };
+    }
+
+    @Test
+    public void phasesRequireEveryEarlierCondition() {
+        RouterReadiness r = new RouterReadiness(null, 1000, 10, 3, 50);
+        assertEquals(Phase.ALIVE, r.evaluate(Status.DISCONNECTED, 10, 100, 2, 2));
+        assertEquals(Phase.ALIVE, r.evaluate(Status.HOSED, 10, 100, 2, 2));
+        assertEquals(Phase.ALIVE, r.evaluate(Status.OK, 2, 100, 2, 2));
+        assertEquals(Phase.NETWORK, r.evaluate(Status.OK, 3, 49, 2, 2));
+        assertEquals(Phase.NETDB, r.evaluate(Status.IPV4_FIREWALLED_IPV6_UNKNOWN, 3, 50, 0, 2));
+        assertEquals(Phase.NETDB, r.evaluate(Status.OK, 3, 50, 2, 0));
+        assertEquals(Phase.TUNNELS, r.evaluate(Status.UNKNOWN, 3, 50, 1, 1));
+    }
+
+    @Test
+    public void everyPhaseIsTimedUpToReadiness() throws Exception {
+        RouterReadiness r = scripted(5000, Phase.STARTING, Phase.ALIVE, Phase.ALIVE, Phase.NETDB, Phase.TUNNELS);
+        assertTrue(r.await());
+        assertEquals(Phase.TUNNELS, r.getPhase());
+        long previous = 0L;
+        for(Phase p : Phase.values()) {
+            // Phases skipped between polls are reached on the same poll
+            assertTrue(p.name(), r.getMillisTo(p) >= previous);
+            previous = r.getMillisTo(p);
+        }
+        // Two polls apart
+        assertTrue(r.getMillisTo(Phase.NETDB) - r.getMillisTo(Phase.ALIVE) >= 20);
+    }
+
+    @Test
+    public void waitingIsBounded() throws Exception {
+        RouterReadiness r = scripted(100, Phase.CONTEXT, Phase.NETWORK);
+        long start = System.currentTimeMillis();
+        assertFalse(r.await());
+        assertTrue(System.currentTimeMillis() - start >= 100);
+        assertEquals(Phase.NETWORK, r.getPhase());
+        assertTrue(r.getMillisTo(Phase.NETWORK) >= 0);
+        assertEquals(-1L, r.getMillisTo(Phase.NETDB));
+        assertEquals(-1L, r.getMillisTo(Phase.TUNNELS));
+    }
+}
@@ -0,0 +1,94 @@
+package io.onemfive.i2p;
+
+import net.i2p.client.I2PSession;
+import net.i2p.crypto.SigType;
+import net.i2p.data.Base64;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author objectorange
+ */
+public class SessionShardsTest {
+
+    private static final int KEYS = 4000;
+
+    private LoopbackNetwork network;
+    private List<String> keys;
+
+    @Before
+    public void setUp() {
+        network = new LoopbackNetwork(SigType.EdDSA_SHA512_Ed25519, 1);
+        keys = new ArrayList<>();
+        Random random = new Random(42);
+        for(int i=0; i<KEYS; i++) {
+            byte[] hash = new byte[32];
+            random.nextBytes(hash);
+            keys.add(Base64.encode(hash));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        network.shutdown();
+    }
+
+    @Test
+    public void selectionIsStableForARecipient() throws Exception {
+        SessionShards shards = new SessionShards(128);
+        for(int i=0; i<4; i++)
+            shards.add(network.newSession());
+        List<I2PSession> first = select(shards);
+        assertEquals(first, select(shards));
+        // Every session takes a share of the recipients
+        for(I2PSession session : shards.getSessions())
+            assertTrue(first.contains(session));
+    }
+
+    @Test
+    public void addingAShardMovesAboutOneInN() throws Exception {
+        SessionShards shards = new SessionShards(128);
+        for(int i=0; i<4; i++)
+            shards.add(network.newSession());
+        List<I2PSession> before = select(shards);
+        I2PSession added = network.newSession();
+        shards.add(added);
+        List<I2PSession> after = select(shards);
+        int moved = 0;
+        for(int i=0; i<KEYS; i++) {
+            if(before.get(i) != after.get(i)) {
+                moved++;
+                // Recipients only move to the new shard, never between existing ones
+                assertSame(added, after.get(i));
+            }
+        }
+        double fraction = moved / (double)KEYS;
+        assertTrue("moved "+fraction, fraction > 0.1 && fraction < 0.3);
+    }
+
+    @Test
+    public void shardNumbersSurviveGaps() throws Exception {
+        SessionShards shards = new SessionShards(16);
+        I2PSession primary = network.newSession();
+        I2PSession third = network.newSession();
+        shards.add(primary);
+        shards.add(third, 2);
+        assertEquals(0, shards.getShard(primary));
+        assertEquals(2, shards.getShard(third));
+        assertEquals(-1, shards.getShard(network.newSession()));
+    }
+
+    private List<I2PSession> select(SessionShards shards) {
+        List<I2PSession> selected = new ArrayList<>(KEYS);
+        for(String key : keys)
+            selected.add(shards.select(key));
+        return selected;
+    }
+}
@@ -0,0 +1,37 @@
+package io.onemfive.i2p;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author objectorange
+ */
+public class StatsRingTest {
+
+    @Test
+    public void percentilesCoverOnlyTheWindow() {
+        StatsRing ring = new StatsRing(100);
+        for(int i=1; i<=100; i++) {
+            ring.record(i * 1000L, i);
+        }
+        // Samples at 91s..100s
+        assertEquals(95, ring.percentile(100000L, 10000L, 50));
+        assertEquals(100, ring.percentile(100000L, 10000L, 100));
+        assertEquals(91, ring.percentile(100000L, 10000L, 0));
+        assertEquals(50, ring.percentile(100000L, 100000L, 50));
+        assertEquals(0, ring.percentile(500000L, 10000L, 50));
+    }
+
+    @Test
+    public void oldestSamplesAreOverwritten() {
+        StatsRing ring = new StatsRing(4);
+        for(int i=1; i<=10; i++) {
+            ring.record(i, i * 10);
+        }
+        assertEquals(4, ring.size());
+        assertEquals(100, ring.latest());
+        assertEquals(70, ring.percentile(10, 1000, 0));
+        assertEquals(85, ring.mean(10, 1000));
+    }
+}
@@ -0,0 +1,59 @@
+package io.onemfive.i2p;
+
+import org.junit.Test;
+
+import java.util.Properties;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author objectorange
+ */
+public class TunnelAutoTunerTest {
+
+    private static final TunnelAutoTuner.Sample BUSY = new TunnelAutoTuner.Sample(0.8, 1000, 0, -1);
+    private static final TunnelAutoTuner.Sample IDLE = new TunnelAutoTuner.Sample(0, 1000, 0, -1);
+    private static final TunnelAutoTuner.Sample STEADY = new TunnelAutoTuner.Sample(0.3, 1000, 0, -1);
+    private static final TunnelAutoTuner.Sample SLOW_TUNNELS = new TunnelAutoTuner.Sample(0, 8000, 0, -1);
+    // No successful tunnel test in the period
+    private static final TunnelAutoTuner.Sample UNTESTED = new TunnelAutoTuner.Sample(0, -1, 0, -1);
+
+    @Test
+    public void changesOnlyAfterStableIntervals() {
+        TunnelAutoTuner tuner = new TunnelAutoTuner("test", null, null, new Properties());
+        assertEquals(TunnelAutoTuner.Direction.HOLD, tuner.evaluate(BUSY));
+        assertEquals(TunnelAutoTuner.Direction.HOLD, tuner.evaluate(BUSY));
+        assertEquals(TunnelAutoTuner.Direction.UP, tuner.evaluate(BUSY));
+        // Counting restarts after a change
+        assertEquals(TunnelAutoTuner.Direction.HOLD, tuner.evaluate(BUSY));
+    }
+
+    @Test
+    public void interruptedReadingsHold() {
+        TunnelAutoTuner tuner = new TunnelAutoTuner("test", null, null, new Properties());
+        assertEquals(TunnelAutoTuner.Direction.HOLD, tuner.evaluate(IDLE));
+        assertEquals(TunnelAutoTuner.Direction.HOLD, tuner.evaluate(IDLE));
+        assertEquals(TunnelAutoTuner.Direction.HOLD, tuner.evaluate(STEADY));
+        assertEquals(TunnelAutoTuner.Direction.HOLD, tuner.evaluate(IDLE));
+        assertEquals(TunnelAutoTuner.Direction.HOLD, tuner.evaluate(BUSY));
+        assertEquals(TunnelAutoTuner.Direction.HOLD, tuner.evaluate(IDLE));
+        assertEquals(TunnelAutoTuner.Direction.HOLD, tuner.evaluate(IDLE));
+        assertEquals(TunnelAutoTuner.Direction.DOWN, tuner.evaluate(IDLE));
+    }
+
+    @Test
+    public void slowTunnelTestsScaleUpWithAnIdleQueue() {
+        TunnelAutoTuner tuner = new TunnelAutoTuner("test", null, null, new Properties());
+        assertEquals(TunnelAutoTuner.Direction.HOLD, tuner.evaluate(SLOW_TUNNELS));
+        assertEquals(TunnelAutoTuner.Direction.HOLD, tuner.evaluate(SLOW_TUNNELS));
+        assertEquals(TunnelAutoTuner.Direction.UP, tuner.evaluate(SLOW_TUNNELS));
+    }
+
+    @Test
+    public void unknownTunnelTestTimesNeverScaleDown() {
+        TunnelAutoTuner tuner = new TunnelAutoTuner("test", null, null, new Properties());
+        for(int i=0; i<5; i++) {
+            assertEquals(TunnelAutoTuner.Direction.HOLD, tuner.evaluate(UNTESTED));
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package io.onemfive.i2p;
+
+import net.i2p.crypto.KeyGenerator;
+import net.i2p.data.Certificate;
+import net.i2p.data.PublicKey;
+import net.i2p.data.SigningPrivateKey;
+import net.i2p.data.SigningPublicKey;
+import net.i2p.data.router.RouterAddress;
+import net.i2p.data.router.RouterIdentity;
+import net.i2p.data.router.RouterInfo;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author objectorange
+ */
+public class WarmStartSnapshotTest {
+
+    private static final int MAGIC = 0x314d3557;
+    private static final int VERSION = 1;
+    private static final long HOUR = 60 * 60 * 1000L;
+
+    private File dir;
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("warmstart").toFile();
+        file = new File(dir, WarmStartSnapshot.FILE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        delete(dir);
+    }
+
+    @Test
+    public void loadsSnapshot() throws Exception {
+        long savedAt = System.currentTimeMillis() - 1000;
+        write(MAGIC, VERSION, savedAt, Arrays.asList(new byte[] {1, 2, 3}), Collections.<byte[]>emptyList());
+        WarmStartSnapshot snapshot = new WarmStartSnapshot(file, 10, 10, HOUR);
+        assertTrue(snapshot.load());
+        assertTrue(snapshot.isLoaded());
+        assertEquals(savedAt, snapshot.getSavedAt());
+    }
+
+    @Test
+    public void ignoresUnknownFormat() throws Exception {
+        write(0x12345678, VERSION, System.currentTimeMillis(), Collections.<byte[]>emptyList(), Collections.<byte[]>emptyList());
+        assertFalse(new WarmStartSnapshot(file, 10, 10, HOUR).load());
+        write(MAGIC, VERSION + 1, System.currentTimeMillis(), Collections.<byte[]>emptyList(), Collections.<byte[]>emptyList());
+        assertFalse(new WarmStartSnapshot(file, 10, 10, HOUR).load());
+    }
+
+    @Test
+    public void ignoresSnapshotOlderThanMaxAge() throws Exception {
+        write(MAGIC, VERSION, System.currentTimeMillis() - 2 * HOUR, Collections.<byte[]>emptyList(), Collections.<byte[]>emptyList());
+        WarmStartSnapshot snapshot = new WarmStartSnapshot(file, 10, 10, HOUR);
+        assertFalse(snapshot.load());
+        assertFalse(snapshot.isLoaded());
+    }
+
+    @Test
+    public void rejectsCorruptEntryLength() throws Exception {
+        try (DataOutputStream out = open()) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(System.currentTimeMillis());
+            out.writeInt(1);
+            // Over the 64 KB entry limit; must not be allocated
+            out.writeInt(Integer.MAX_VALUE);
+        }
+        WarmStartSnapshot snapshot = new WarmStartSnapshot(file, 10, 10, HOUR);
+        assertFalse(snapshot.load());
+        assertFalse(snapshot.isLoaded());
+        assertEquals(0, snapshot.preloadRouterInfos(new File(dir, "netDb")));
+    }
+
+    @Test
+    public void preloadsRouterInfosInTheNetDbLayout() throws Exception {
+        RouterInfo first = routerInfo();
+        RouterInfo second = routerInfo();
+        write(MAGIC, VERSION, System.currentTimeMillis(), Arrays.asList(first.toByteArray(), second.toByteArray()),
+                Collections.<byte[]>emptyList());
+        File netDb = new File(dir, "netDb");
+        // The router already persisted the second one
+        File existing = netDbFile(netDb, second);
+        assertTrue(existing.getParentFile().mkdirs() || existing.getParentFile().isDirectory());
+        Files.write(existing.toPath(), "kept".getBytes(StandardCharsets.UTF_8));
+
+        WarmStartSnapshot snapshot = new WarmStartSnapshot(file, 10, 10, HOUR);
+        assertTrue(snapshot.load());
+        assertEquals(1, snapshot.preloadRouterInfos(netDb));
+
+        File written = netDbFile(netDb, first);
+        assertTrue(written.isFile());
+        assertArrayEquals(first.toByteArray(), Files.readAllBytes(written.toPath()));
+        assertEquals("kept", new String(Files.readAllBytes(existing.toPath()), StandardCharsets.UTF_8));
+        assertEquals(2, WarmStartSnapshot.countRouterInfos(netDb));
+        // Nothing left to write
+        assertEquals(0, snapshot.preloadRouterInfos(netDb));
+    }
+
+    @Test
+    public void countsOnlyRouterInfoFiles() throws Exception {
+        File netDb = new File(dir, "netDb");
+        assertEquals(0, WarmStartSnapshot.countRouterInfos(netDb));
+        File rA = new File(netDb, "rA");
+        File rB = new File(netDb, "rB");
+        assertTrue(rA.mkdirs());
+        assertTrue(rB.mkdirs());
+        assertTrue(new File(rA, "routerInfo-A1.dat").createNewFile());
+        assertTrue(new File(rA, "routerInfo-A2.dat").createNewFile());
+        assertTrue(new File(rB, "routerInfo-B1.dat").createNewFile());
+        assertTrue(new File(rB, "notes.txt").createNewFile());
+        assertTrue(new File(netDb, "routerInfo-stray.dat").createNewFile());
+        assertEquals(3, WarmStartSnapshot.countRouterInfos(netDb));
+    }
+
+    private static RouterInfo routerInfo() throws Exception {
+        KeyGenerator generator = KeyGenerator.getInstance();
+        Object[] encryption = generator.generatePKIKeypair();
+        Object[] signing = generator.generateSigningKeypair();
+        RouterIdentity identity = new RouterIdentity();
+        identity.setPublicKey((PublicKey)encryption[0]);
+        identity.setSigningPublicKey((SigningPublicKey)signing[0]);
+        identity.setCertificate(Certificate.NULL_CERT);
+        RouterInfo ri = new RouterInfo();
+        ri.setIdentity(identity);
+        ri.setPublished(System.currentTimeMillis());
+        ri.setAddresses(Collections.<RouterAddress>emptyList());
+        ri.setOptions(new Properties());
+        ri.sign((SigningPrivateKey)signing[1]);
+        return ri;
+    }
+
+    private static File netDbFile(File netDb, RouterInfo ri) {
+        String b64 = ri.getHash().toBase64();
+        return new File(new File(netDb, "r" + b64.charAt(0)), "routerInfo-" + b64 + ".dat");
+    }
+
+    private DataOutputStream open() throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(file))));
+    }
+
+    /**
+     * Writes the snapshot format by hand: magic, version, saved at, then routers, destinations and leasesets.
+     */
+    private void write(int magic, int version, long savedAt, List<byte[]> routerInfos, List<byte[]> destinations) throws IOException {
+        try (DataOutputStream out = open()) {
+            out.writeInt(magic);
+            out.writeInt(version);
+            out.writeLong(savedAt);
+            writeEntries(out, routerInfos);
+            writeEntries(out, destinations);
+            writeEntries(out, Collections.<byte[]>emptyList());
+        }
+    }
+
+    private static void writeEntries(DataOutputStream out, List<byte[]> entries) throws IOException {
+        out.writeInt(entries.size());
+        for(byte[] data : entries) {
+            out.writeInt(data.length);
+            out.write(data);
+        }
+    }
+
+    private static void delete(File f) {
+        File[] files = f.listFiles();
+        if(files != null) {
+            for(File child : files) {
+                delete(child);
+            }
+        }
+        f.delete();
+    }
+}